@@ -0,0 +1,292 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bridge from the benchmarks to the server classes. JMH refuses benchmarks in the default
+ * package, and classes in a named package cannot refer to the default package at all, so
+ * every call goes through a method handle. The handles are static final, which lets the JIT
+ * inline them like direct calls.
+ */
+final class Api {
+    static final double ROOT_ULLON = constant("ROOT_ULLON");
+    static final double ROOT_ULLAT = constant("ROOT_ULLAT");
+    static final double ROOT_LRLON = constant("ROOT_LRLON");
+    static final double ROOT_LRLAT = constant("ROOT_LRLAT");
+    static final int TILE_SIZE = (int) constant("TILE_SIZE");
+
+    private static final MethodHandle NEW_GRAPH = constructor("GraphDB", String.class);
+    private static final MethodHandle CLOSEST = method("GraphDB", "closest",
+            double.class, double.class);
+    private static final MethodHandle CLOSEST_ROAD = method("GraphDB", "closestRoad",
+            double.class, double.class, type("TravelMode"));
+    private static final Object DRIVE = travelMode("DRIVE");
+    private static final MethodHandle KEYS_WITH_PREFIX = method("GraphDB", "keysWithPrefix",
+            String.class);
+    private static final MethodHandle CLEAN_NAME = method("GraphDB", "cleanName",
+            String.class);
+    private static final MethodHandle SHORTEST_PATH = method("Router", "shortestPath",
+            type("GraphDB"), double.class, double.class, double.class, double.class);
+    private static final MethodHandle ROUTE_DIRECTIONS = method("Router", "routeDirections",
+            type("GraphDB"), List.class);
+    private static final MethodHandle NEW_RASTERER = constructor("Rasterer");
+    private static final MethodHandle GET_MAP_RASTER = method("Rasterer", "getMapRaster",
+            Map.class);
+    private static final MethodHandle INITIALIZE = method("MapServer", "initialize",
+            String.class, String.class);
+    private static final MethodHandle WRITE_IMAGES = method("MapServer",
+            "writeImagesToOutputStream", Map.class, ByteArrayOutputStream.class);
+    private static final MethodHandle NEW_GENERATOR = constructor("SyntheticMapGenerator",
+            long.class, long.class);
+    private static final MethodHandle WRITE_OSM = method("SyntheticMapGenerator", "writeOsm",
+            File.class);
+    private static final MethodHandle TILE = method("SyntheticMapGenerator", "tile",
+            int.class, int.class, int.class);
+    private static final MethodHandle NEW_LONG_OBJECT_MAP = constructor("LongObjectMap",
+            int.class);
+    private static final MethodHandle LONG_OBJECT_MAP_GET = method("LongObjectMap", "get",
+            long.class);
+    private static final MethodHandle LONG_OBJECT_MAP_PUT = method("LongObjectMap", "put",
+            long.class, Object.class);
+    private static final MethodHandle NEW_LONG_INT_MAP = constructor("LongIntMap",
+            int.class, int.class);
+    private static final MethodHandle LONG_INT_MAP_GET = method("LongIntMap", "get",
+            long.class);
+    private static final MethodHandle LONG_INT_MAP_PUT = method("LongIntMap", "put",
+            long.class, int.class);
+
+    private Api() {
+    }
+
+    static Object newGraph(String dbPath) {
+        try {
+            return (Object) NEW_GRAPH.invokeExact((Object) dbPath);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long closest(Object graph, double lon, double lat) {
+        try {
+            return (long) CLOSEST.invokeExact(graph, lon, lat);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** Returns the RoadPoint closest to a location on a road open to driving. */
+    static Object closestRoad(Object graph, double lon, double lat) {
+        try {
+            return (Object) CLOSEST_ROAD.invokeExact(graph, lon, lat, DRIVE);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<String> keysWithPrefix(Object graph, String prefix) {
+        try {
+            return (List<String>) (Object) KEYS_WITH_PREFIX.invokeExact(graph, (Object) prefix);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String cleanName(Object graph, String name) {
+        try {
+            return (String) (Object) CLEAN_NAME.invokeExact(graph, (Object) name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Long> shortestPath(Object graph, double stlon, double stlat,
+                                   double destlon, double destlat) {
+        try {
+            return (List<Long>) (Object) SHORTEST_PATH.invokeExact(graph, stlon, stlat,
+                    destlon, destlat);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static List<?> routeDirections(Object graph, List<Long> route) {
+        try {
+            return (List<?>) (Object) ROUTE_DIRECTIONS.invokeExact(graph, (Object) route);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newRasterer() {
+        try {
+            return (Object) NEW_RASTERER.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> getMapRaster(Object rasterer, Map<String, Double> params) {
+        try {
+            return (Map<String, Object>) (Object) GET_MAP_RASTER.invokeExact(rasterer,
+                    (Object) params);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void initializeServer(String osmDbPath, String imageRoot) {
+        try {
+            INITIALIZE.invokeExact((Object) osmDbPath, (Object) imageRoot);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void writeImagesToOutputStream(Map<String, Object> raster, ByteArrayOutputStream os) {
+        try {
+            WRITE_IMAGES.invokeExact((Object) raster, (Object) os);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newGenerator(long numNodes, long seed) {
+        try {
+            return (Object) NEW_GENERATOR.invokeExact(numNodes, seed);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void writeOsm(Object generator, File file) {
+        try {
+            WRITE_OSM.invokeExact(generator, (Object) file);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static BufferedImage tile(Object generator, int depth, int x, int y) {
+        try {
+            return (BufferedImage) (Object) TILE.invokeExact(generator, depth, x, y);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newLongObjectMap(int expectedSize) {
+        try {
+            return (Object) NEW_LONG_OBJECT_MAP.invokeExact(expectedSize);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object longObjectMapGet(Object map, long key) {
+        try {
+            return (Object) LONG_OBJECT_MAP_GET.invokeExact(map, key);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void longObjectMapPut(Object map, long key, Object value) {
+        try {
+            LONG_OBJECT_MAP_PUT.invokeExact(map, key, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newLongIntMap(int expectedSize, int missing) {
+        try {
+            return (Object) NEW_LONG_INT_MAP.invokeExact(expectedSize, missing);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int longIntMapGet(Object map, long key) {
+        try {
+            return (int) LONG_INT_MAP_GET.invokeExact(map, key);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void longIntMapPut(Object map, long key, int value) {
+        try {
+            LONG_INT_MAP_PUT.invokeExact(map, key, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Unreflects a method, erasing every reference type in its signature to Object. */
+    static MethodHandle method(String className, String name, Class<?>... params) {
+        try {
+            Method m = type(className).getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(m);
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle constructor(String className, Class<?>... params) {
+        try {
+            Constructor<?> c = type(className).getDeclaredConstructor(params);
+            c.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflectConstructor(c);
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object travelMode(String name) {
+        try {
+            return type("TravelMode").getField(name).get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static double constant(String name) {
+        try {
+            return ((Number) type("MapServer").getField(name).get(null)).doubleValue();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new RuntimeException(t);
+    }
+}
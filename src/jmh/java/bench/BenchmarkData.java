@@ -0,0 +1,168 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Inputs shared by the benchmarks. The Berkeley OSM file and tile images are used when they
+ * are present (override their locations with -Dbearmaps.osm and -Dbearmaps.img); otherwise
+ * SyntheticMapGenerator writes a network of -Dbearmaps.nodes nodes (40000 by default)
+ * covering the root tile to a temporary folder, so the benchmarks also run offline.
+ */
+final class BenchmarkData {
+    static final String OSM_DB_PATH = System.getProperty("bearmaps.osm",
+            "../library-sp18/data/berkeley-2018.osm.xml");
+    static final String IMG_ROOT = System.getProperty("bearmaps.img",
+            "../library-sp18/data/proj3_imgs/");
+    static final String PATH_PARAMS_FILE = "path_params.txt";
+    static final String RASTER_PARAMS_FILE = "raster_params.txt";
+
+    static final long SYNTHETIC_NODES = Long.getLong("bearmaps.nodes", 40000);
+    private static final long SYNTHETIC_SEED = 2018;
+
+    private static Object graph;
+    private static Object generator;
+    private static String imgRoot;
+
+    private BenchmarkData() {
+    }
+
+    /** Returns the benchmark graph, loading or generating it on first use. */
+    static synchronized Object graph() throws IOException {
+        if (graph == null) {
+            graph = Api.newGraph(osmPath());
+        }
+        return graph;
+    }
+
+    /** Returns the OSM file to load: the real one if present, else a synthetic one. */
+    static synchronized String osmPath() throws IOException {
+        if (new File(OSM_DB_PATH).exists()) {
+            return OSM_DB_PATH;
+        }
+        File osm = new File(tempDir(), "synthetic.osm.xml");
+        if (!osm.exists()) {
+            Api.writeOsm(generator(), osm);
+        }
+        return osm.getPath();
+    }
+
+    /**
+     * Returns the tile folder, ending in a separator. Without the real tiles, synthetic
+     * tiles are drawn on demand by {@link #ensureTiles}.
+     */
+    static synchronized String imgRoot() throws IOException {
+        if (imgRoot == null) {
+            imgRoot = new File(IMG_ROOT).isDirectory() ? IMG_ROOT
+                    : new File(tempDir(), "imgs").getPath() + File.separator;
+            new File(imgRoot).mkdirs();
+        }
+        return imgRoot;
+    }
+
+    /** Draws a synthetic tile for every file in renderGrid that does not exist yet. */
+    static void ensureTiles(String[][] renderGrid) throws IOException {
+        for (String[] row : renderGrid) {
+            for (String name : row) {
+                File tile = new File(imgRoot() + name);
+                if (!tile.exists()) {
+                    /* Tile names look like d3_x1_y2.png. */
+                    String[] parts = name.substring(1, name.length() - 4).split("_[xy]");
+                    ImageIO.write(Api.tile(generator(), Integer.parseInt(parts[0]),
+                            Integer.parseInt(parts[1]), Integer.parseInt(parts[2])), "png", tile);
+                }
+            }
+        }
+    }
+
+    /** Reads the start and end points of the routes in path_params.txt. */
+    static List<double[]> routeParams() throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(PATH_PARAMS_FILE),
+                Charset.defaultCharset());
+        List<double[]> params = new ArrayList<>();
+        for (int i = 2; i + 3 < lines.size(); i += 4) {
+            params.add(new double[] {Double.parseDouble(lines.get(i)),
+                Double.parseDouble(lines.get(i + 1)), Double.parseDouble(lines.get(i + 2)),
+                Double.parseDouble(lines.get(i + 3))});
+        }
+        return params;
+    }
+
+    /** Reads the query boxes in raster_params.txt. */
+    static List<Map<String, Double>> rasterParams() throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(RASTER_PARAMS_FILE),
+                Charset.defaultCharset());
+        String[] keys = {"ullon", "ullat", "lrlon", "lrlat", "w", "h"};
+        List<Map<String, Double>> params = new ArrayList<>();
+        for (int i = 2; i + keys.length - 1 < lines.size(); i += keys.length) {
+            Map<String, Double> p = new HashMap<>();
+            for (int k = 0; k < keys.length; k++) {
+                p.put(keys[k], Double.parseDouble(lines.get(i + k)));
+            }
+            params.add(p);
+        }
+        return params;
+    }
+
+    /** Returns count random start and end points inside the root tile. */
+    static List<double[]> randomRouteParams(int count, long seed) {
+        Random random = new Random(seed);
+        List<double[]> params = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            params.add(new double[] {randomLon(random), randomLat(random), randomLon(random),
+                randomLat(random)});
+        }
+        return params;
+    }
+
+    /**
+     * Returns count long routes across the root tile, starting in its western tenth and
+     * ending in its eastern tenth.
+     */
+    static List<double[]> longRouteParams(int count, long seed) {
+        Random random = new Random(seed);
+        double edge = 0.1 * (Api.ROOT_LRLON - Api.ROOT_ULLON);
+        List<double[]> params = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            params.add(new double[] {Api.ROOT_ULLON + random.nextDouble() * edge,
+                randomLat(random), Api.ROOT_LRLON - random.nextDouble() * edge,
+                randomLat(random)});
+        }
+        return params;
+    }
+
+    private static double randomLon(Random random) {
+        return Api.ROOT_ULLON
+                + random.nextDouble() * (Api.ROOT_LRLON - Api.ROOT_ULLON);
+    }
+
+    private static double randomLat(Random random) {
+        return Api.ROOT_LRLAT
+                + random.nextDouble() * (Api.ROOT_ULLAT - Api.ROOT_LRLAT);
+    }
+
+    private static synchronized Object generator() {
+        if (generator == null) {
+            generator = Api.newGenerator(SYNTHETIC_NODES, SYNTHETIC_SEED);
+        }
+        return generator;
+    }
+
+    private static File tempDir() throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+                "bearmaps-bench-" + SYNTHETIC_NODES);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,87 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks long routes, snapping and directions over a graph stored plainly ("plain") or
+ * with fixed-point coordinates and varint-encoded edge targets ("compact"), to measure what
+ * decoding costs. The heap taken by the graph is printed when it is loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompactGraphBenchmark {
+    private static final int NUM_ROUTES = 32;
+
+    @Param({"plain", "compact"})
+    public String storage;
+
+    private Object graph;
+    private List<double[]> params;
+    private List<List<Long>> paths;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("bearmaps.compact", String.valueOf(storage.equals("compact")));
+        String osm = BenchmarkData.osmPath();
+        long before = usedHeap();
+        graph = Api.newGraph(osm);
+        System.out.printf("%n%s graph: %.1f MB of heap%n", storage,
+                (usedHeap() - before) / 1e6);
+        params = BenchmarkData.longRouteParams(NUM_ROUTES, 61);
+        paths = new ArrayList<>();
+        for (double[] p : params) {
+            paths.add(Api.shortestPath(graph, p[0], p[1], p[2], p[3]));
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (next + 1) % params.size();
+        return i;
+    }
+
+    @Benchmark
+    public List<Long> longRoute() {
+        double[] p = params.get(nextIndex());
+        return Api.shortestPath(graph, p[0], p[1], p[2], p[3]);
+    }
+
+    @Benchmark
+    public Object closestRoad() {
+        double[] p = params.get(nextIndex());
+        return Api.closestRoad(graph, p[0], p[1]);
+    }
+
+    @Benchmark
+    public List<?> routeDirections() {
+        return Api.routeDirections(graph, paths.get(nextIndex()));
+    }
+}
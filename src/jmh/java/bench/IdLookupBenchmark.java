@@ -0,0 +1,110 @@
+package bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of resolving OSM ids the way GraphDB used to (a containsKey check and
+ * then a get on a HashMap of boxed Longs) with a single probe into LongObjectMap and
+ * LongIntMap. Scores are per lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdLookupBenchmark {
+    private static final int NUM_IDS = 1 << 20;
+    private static final int NUM_LOOKUPS = 1 << 16;
+
+    private long[] queries;
+    private Map<Long, double[]> hashMap;
+    private Object objectMap;
+    private Object intMap;
+    private double[] lons;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        /* OSM ids are large, mostly increasing and full of gaps. */
+        Random random = new Random(61);
+        long[] ids = new long[NUM_IDS];
+        long id = 53000000L;
+        for (int i = 0; i < NUM_IDS; i++) {
+            id += 1 + random.nextInt(40);
+            ids[i] = id;
+        }
+        queries = new long[NUM_LOOKUPS];
+        for (int i = 0; i < NUM_LOOKUPS; i++) {
+            queries[i] = ids[random.nextInt(NUM_IDS)];
+        }
+
+        hashMap = new HashMap<>();
+        objectMap = Api.newLongObjectMap(NUM_IDS);
+        intMap = Api.newLongIntMap(NUM_IDS, -1);
+        lons = new double[NUM_IDS];
+        for (int i = 0; i < NUM_IDS; i++) {
+            double[] node = {random.nextDouble(), random.nextDouble()};
+            hashMap.put(ids[i], node);
+            Api.longObjectMapPut(objectMap, ids[i], node);
+            Api.longIntMapPut(intMap, ids[i], i);
+            lons[i] = node[0];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_LOOKUPS)
+    public double hashMapContainsKeyAndGet() {
+        double sum = 0;
+        for (long v : queries) {
+            if (!hashMap.containsKey(v)) {
+                throw new IllegalArgumentException();
+            }
+            sum += hashMap.get(v)[0];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_LOOKUPS)
+    public double longObjectMapGet() {
+        double sum = 0;
+        for (long v : queries) {
+            double[] node = (double[]) Api.longObjectMapGet(objectMap, v);
+            if (node == null) {
+                throw new IllegalArgumentException();
+            }
+            sum += node[0];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_LOOKUPS)
+    public double longIntMapGet() {
+        double sum = 0;
+        for (long v : queries) {
+            int i = Api.longIntMapGet(intMap, v);
+            if (i < 0) {
+                throw new IllegalArgumentException();
+            }
+            sum += lons[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,65 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks Rasterer.getMapRaster over the query boxes in raster_params.txt, and the full
+ * /raster image pipeline (tile reads, compositing and PNG encoding) in
+ * MapServer.writeImagesToOutputStream for the same boxes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RastererBenchmark {
+    private Object rasterer;
+    private List<Map<String, Double>> params;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Api.initializeServer(BenchmarkData.osmPath(), BenchmarkData.imgRoot());
+        rasterer = Api.newRasterer();
+        params = BenchmarkData.rasterParams();
+        for (Map<String, Double> p : params) {
+            BenchmarkData.ensureTiles((String[][]) Api.getMapRaster(Api.newRasterer(), p)
+                    .get("render_grid"));
+        }
+    }
+
+    private Map<String, Double> nextParams() {
+        Map<String, Double> p = params.get(next);
+        next = (next + 1) % params.size();
+        return p;
+    }
+
+    @Benchmark
+    public Map<String, Object> getMapRaster() {
+        return Api.getMapRaster(rasterer, nextParams());
+    }
+
+    @Benchmark
+    public int writeImagesToOutputStream() {
+        Map<String, Object> raster = Api.getMapRaster(rasterer, nextParams());
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Api.writeImagesToOutputStream(raster, os);
+        return os.size();
+    }
+}
@@ -0,0 +1,81 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks Router.shortestPath, GraphDB.closest, GraphDB.closestRoad and
+ * Router.routeDirections over the routes in path_params.txt ("file") or over random start
+ * and end points ("random"). Each invocation handles the next route in the list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouterBenchmark {
+    private static final int NUM_RANDOM_ROUTES = 64;
+
+    @Param({"file", "random"})
+    public String routes;
+
+    private Object graph;
+    private List<double[]> params;
+    private List<List<Long>> paths;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        graph = BenchmarkData.graph();
+        params = routes.equals("file") ? BenchmarkData.routeParams()
+                : BenchmarkData.randomRouteParams(NUM_RANDOM_ROUTES, 61);
+        paths = new ArrayList<>();
+        for (double[] p : params) {
+            paths.add(Api.shortestPath(graph, p[0], p[1], p[2], p[3]));
+        }
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (next + 1) % params.size();
+        return i;
+    }
+
+    @Benchmark
+    public List<Long> shortestPath() {
+        double[] p = params.get(nextIndex());
+        return Api.shortestPath(graph, p[0], p[1], p[2], p[3]);
+    }
+
+    @Benchmark
+    public long closest() {
+        double[] p = params.get(nextIndex());
+        return Api.closest(graph, p[0], p[1]);
+    }
+
+    @Benchmark
+    public Object closestRoad() {
+        double[] p = params.get(nextIndex());
+        return Api.closestRoad(graph, p[0], p[1]);
+    }
+
+    @Benchmark
+    public List<?> routeDirections() {
+        return Api.routeDirections(graph, paths.get(nextIndex()));
+    }
+}
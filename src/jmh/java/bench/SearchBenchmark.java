@@ -0,0 +1,59 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks GraphDB.keysWithPrefix by prefix length. The prefixes are taken from the
+ * names of locations in the graph, so every one of them matches at least one name.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int prefixLength;
+
+    private Object graph;
+    private List<String> prefixes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        graph = BenchmarkData.graph();
+        prefixes = new ArrayList<>();
+        for (String name : Api.keysWithPrefix(graph, "")) {
+            String cleaned = Api.cleanName(graph, name);
+            if (cleaned.length() >= prefixLength) {
+                prefixes.add(cleaned.substring(0, prefixLength));
+            }
+        }
+        if (prefixes.isEmpty()) {
+            throw new IllegalStateException("No location names of length " + prefixLength);
+        }
+    }
+
+    @Benchmark
+    public List<String> keysWithPrefix() {
+        String prefix = prefixes.get(next);
+        next = (next + 1) % prefixes.size();
+        return Api.keysWithPrefix(graph, prefix);
+    }
+}
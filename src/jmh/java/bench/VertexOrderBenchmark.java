@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks Router.shortestPath on long routes, across the map from its western edge to its
+ * eastern one, with the vertices numbered along a Hilbert curve ("hilbert") or in the node
+ * map's hash order ("hash"). Run with {@code -prof perfnorm} to see the cache misses per
+ * route as well as the time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VertexOrderBenchmark {
+    private static final int NUM_ROUTES = 32;
+
+    @Param({"hilbert", "hash"})
+    public String order;
+
+    private Object graph;
+    private List<double[]> params;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("bearmaps.vertexOrder", order);
+        graph = Api.newGraph(BenchmarkData.osmPath());
+        params = BenchmarkData.longRouteParams(NUM_ROUTES, 61);
+    }
+
+    @Benchmark
+    public List<Long> longRoute() {
+        double[] p = params.get(next);
+        next = (next + 1) % params.size();
+        return Api.shortestPath(graph, p[0], p[1], p[2], p[3]);
+    }
+}
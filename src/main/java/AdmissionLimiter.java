@@ -0,0 +1,157 @@
+/**
+ * Adaptive concurrency limit of one endpoint. Requests beyond the limit wait for a turn, but
+ * only until their queue deadline and only while the queue is short; past either bound they
+ * are rejected at once, so the server answers 503 quickly instead of serving everyone late.
+ *
+ * The limit follows AIMD on the latency of admitted requests: every request that finishes
+ * within the target raises the limit by 1/limit, about one per limit's worth of requests,
+ * and one that takes longer cuts it by a tenth, at most once per target interval. A burst
+ * therefore shrinks the limit until latencies are back under the target, and the limit grows
+ * back while they stay there.
+ *
+ * Limiters can outrank others: a request is only admitted while no limiter of higher
+ * priority has requests waiting, so cheap /search requests go ahead of expensive ones.
+ */
+class AdmissionLimiter {
+    private static final double DECREASE = 0.9;
+
+    final String endpoint;
+    private final int priority;
+    private final double minLimit;
+    private final double maxLimit;
+    private final long targetNanos;
+    private final long maxQueueNanos;
+    private final int maxQueued;
+    private final AdmissionLimiter[] higher;
+
+    private double limit;
+    private int running;
+    private int queued;
+    private long lastDecrease;
+    private long rejected;
+
+    /**
+     * Creates a limiter.
+     * @param endpoint Name of the endpoint, for metrics.
+     * @param priority Larger numbers go first.
+     * @param initialLimit Starting concurrency limit.
+     * @param minLimit Smallest limit.
+     * @param maxLimit Largest limit.
+     * @param targetMillis Latency above which the limit is cut.
+     * @param maxQueueMillis Longest a request may wait for a turn.
+     * @param maxQueued Most requests that may wait at once.
+     * @param others Every other limiter; those of higher priority hold this one back.
+     */
+    AdmissionLimiter(String endpoint, int priority, int initialLimit, int minLimit,
+                     int maxLimit, long targetMillis, long maxQueueMillis, int maxQueued,
+                     AdmissionLimiter... others) {
+        this.endpoint = endpoint;
+        this.priority = priority;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetNanos = targetMillis * 1000000;
+        this.maxQueueNanos = maxQueueMillis * 1000000;
+        this.maxQueued = maxQueued;
+        int n = 0;
+        for (AdmissionLimiter other : others) {
+            if (other.priority > priority) {
+                n++;
+            }
+        }
+        this.higher = new AdmissionLimiter[n];
+        for (AdmissionLimiter other : others) {
+            if (other.priority > priority) {
+                higher[--n] = other;
+            }
+        }
+    }
+
+    private boolean higherWaiting() {
+        for (AdmissionLimiter h : higher) {
+            if (h.waiting() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized int waiting() {
+        return queued;
+    }
+
+    /**
+     * Waits for a turn to run, until the queue deadline.
+     * @return System.nanoTime() at admission, to pass to {@link #release}, or -1 if the
+     *         request was rejected.
+     */
+    long acquire() {
+        long deadline = System.nanoTime() + maxQueueNanos;
+        synchronized (this) {
+            if (running < (int) limit && queued == 0 && !higherWaiting()) {
+                running++;
+                return System.nanoTime();
+            }
+            if (queued >= maxQueued) {
+                rejected++;
+                return -1;
+            }
+            queued++;
+            try {
+                while (running >= (int) limit || higherWaiting()) {
+                    long wait = deadline - System.nanoTime();
+                    if (wait <= 0) {
+                        rejected++;
+                        return -1;
+                    }
+                    /* Woken by release; a higher priority queue draining does not notify,
+                     * so then check again every millisecond. */
+                    wait(higher.length > 0 ? 1 : Math.max(1, wait / 1000000));
+                }
+                running++;
+                return System.nanoTime();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected++;
+                return -1;
+            } finally {
+                queued--;
+            }
+        }
+    }
+
+    /**
+     * Ends a request admitted at admittedNanos and adjusts the limit to its latency.
+     * @param admittedNanos Value returned by {@link #acquire}.
+     */
+    synchronized void release(long admittedNanos) {
+        long now = System.nanoTime();
+        running--;
+        if (now - admittedNanos > targetNanos) {
+            if (now - lastDecrease > targetNanos) {
+                limit = Math.max(minLimit, limit * DECREASE);
+                lastDecrease = now;
+            }
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    synchronized double limit() {
+        return limit;
+    }
+
+    synchronized long rejected() {
+        return rejected;
+    }
+
+    synchronized int running() {
+        return running;
+    }
+
+    /** Seconds a rejected client should wait before retrying: about one target latency. */
+    long retryAfterSeconds() {
+        return Math.max(1, (targetNanos + 999999999) / 1000000000);
+    }
+}
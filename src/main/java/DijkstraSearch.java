@@ -0,0 +1,578 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * Dijkstra's algorithm, or A* toward one target, from one source at a time over the graph's
+ * densely numbered vertices and the precomputed edge weights of a {@link RoutingProfile},
+ * keeping to the edges open to one {@link TravelMode} with a single bit test per edge.
+ * Junctions are joined by the graph's chains, so the bends in a road between two junctions
+ * are never queued or settled; a source or target that is such a shape vertex is reached
+ * along its own edges, and paths are expanded back to every vertex they pass.
+ * Distances live in a primitive array, and the fringe is a binary heap of primitive
+ * (priority, vertex) pairs in which stale entries are skipped when popped. A*'s heuristic,
+ * the great-circle distance to the target at the profile's lowest cost per mile, is computed
+ * once per vertex reached rather than on every comparison.
+ *
+ * A search object is meant to be reused: its arrays are sized for the graph once, and each
+ * search resets only the entries the previous one touched, so a short search costs time and
+ * memory in proportion to the part of the graph it explores. Requests check searches out
+ * of a small shared pool with {@link #acquire} and return them with {@link #close}, so the
+ * searches kept alive are bounded however many threads serve requests, and an idle search
+ * holds no reference to the graph it last searched.
+ */
+class DijkstraSearch implements AutoCloseable {
+    /** Most searches kept for reuse, enough for every core to run two at once. */
+    static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+    /** Searches not in use, most recently returned first; guarded by itself. */
+    private static final ArrayDeque<DijkstraSearch> POOL = new ArrayDeque<>();
+
+    /** The graph being searched, or null while the search is in the pool. */
+    private GraphDB g;
+    private final double[] distTo;
+    private final int[] edgeTo;
+    /** The chain each vertex was reached by from edgeTo, or -1 if by a single edge. */
+    private final int[] chainTo;
+    /** A*'s estimate of the distance left, for vertices this search has reached. */
+    private final double[] heuristic;
+    private final boolean[] settled;
+    /** Targets of the edges of the vertex being settled, decoded by {@link GraphDB#targets}. */
+    private final int[] row;
+    /** Where A* is heading for, or NaN for Dijkstra's algorithm. */
+    private double targetLon = Double.NaN;
+    private double targetLat = Double.NaN;
+    /** The end a search between road points reached its destination by, and at what cost. */
+    private int end = -1;
+    private double endCost = Double.POSITIVE_INFINITY;
+    /** The source of the current search, or -1 if it started between two vertices. */
+    private int source = -1;
+    /** Shape vertices the current search is heading for, which chains pass without a stop. */
+    private final int[] targets = new int[2];
+    private int targetCount;
+    /** Edge and chain weights, their scale and the heuristic scale of the current profile. */
+    private double[] weights;
+    private double[] chainWeights;
+    private double weightScale;
+    private double costPerMile;
+    /** Bit of the current search's mode. */
+    private int modeBit;
+    /** Vertices whose distance was set by the current search, to reset before the next. */
+    private int[] touched = new int[64];
+    private int touchedCount;
+    /** Settled vertices, in order of distance. */
+    private int[] order = new int[64];
+    private int settledCount;
+    private double[] heapKeys = new double[64];
+    private int[] heapVertices = new int[64];
+    private int heapSize;
+
+    DijkstraSearch(GraphDB g) {
+        this.g = g;
+        distTo = new double[g.vertexCount()];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        edgeTo = new int[g.vertexCount()];
+        chainTo = new int[g.vertexCount()];
+        heuristic = new double[g.vertexCount()];
+        settled = new boolean[g.vertexCount()];
+        row = new int[g.maxDegree()];
+    }
+
+    /**
+     * Checks a search over g out of the pool, or creates one if no pooled search is sized
+     * for g. Each caller gets a search of its own until it closes it.
+     */
+    static DijkstraSearch acquire(GraphDB g) {
+        DijkstraSearch search;
+        synchronized (POOL) {
+            search = POOL.pollFirst();
+        }
+        if (search == null || search.distTo.length != g.vertexCount()
+                || search.row.length < g.maxDegree()) {
+            return new DijkstraSearch(g);
+        }
+        search.g = g;
+        return search;
+    }
+
+    /**
+     * Lets go of the graph and returns this search to the pool, unless the pool is full. The
+     * search must not be used after it is closed.
+     */
+    @Override
+    public void close() {
+        g = null;
+        weights = null;
+        chainWeights = null;
+        synchronized (POOL) {
+            if (POOL.size() < POOL_SIZE) {
+                POOL.addFirst(this);
+            }
+        }
+    }
+
+    /** Returns the number of searches in the pool. */
+    static int pooled() {
+        synchronized (POOL) {
+            return POOL.size();
+        }
+    }
+
+    /** Returns the graph being searched, or null if the search is in the pool. */
+    GraphDB graph() {
+        return g;
+    }
+
+    /**
+     * Searches from src until the given number of targets are settled. Shape vertices are
+     * not settled on the way, so a shape vertex is targeted by the ends of its chain; see
+     * {@link #distToTarget}.
+     * @param src Index of the source vertex.
+     * @param isTarget Whether each vertex is a target.
+     * @param targets Number of distinct targets.
+     * @param profile What to minimise.
+     * @param mode How to travel.
+     * @return The number of vertices settled.
+     */
+    int run(int src, boolean[] isTarget, int targets, RoutingProfile profile,
+            TravelMode mode) {
+        start(src, -1, profile, mode);
+        while (heapSize > 0 && targets > 0) {
+            int v = settleNext();
+            if (v >= 0 && isTarget[v]) {
+                targets--;
+            }
+        }
+        return settledCount;
+    }
+
+    /**
+     * Searches from src and settles every vertex at most maxCost away, and no other, shape
+     * vertices included.
+     * @param src Index of the source vertex.
+     * @param maxCost Budget in the profile's unit.
+     * @param profile What to minimise.
+     * @param mode How to travel.
+     * @return The number of vertices settled.
+     */
+    int runWithin(int src, double maxCost, RoutingProfile profile, TravelMode mode) {
+        start(src, -1, profile, mode);
+        return extendWithin(maxCost);
+    }
+
+    /**
+     * Searches from src with Dijkstra's algorithm until dest is settled, so that the search
+     * can then be extended with {@link #extendWithin}.
+     * @param src Index of the source vertex.
+     * @param dest Index of the destination vertex.
+     * @param profile What to minimise.
+     * @param mode How to travel.
+     * @return The number of vertices settled.
+     */
+    int runUntil(int src, int dest, RoutingProfile profile, TravelMode mode) {
+        start(src, -1, profile, mode);
+        addTarget(dest);
+        while (heapSize > 0 && !settled[dest]) {
+            settleNext();
+        }
+        return settledCount;
+    }
+
+    /**
+     * Carries on the last search, which must not have been an A* one, until every vertex at
+     * most maxCost away is settled, shape vertices included.
+     * @param maxCost Budget in the profile's unit.
+     * @return The number of vertices settled.
+     */
+    int extendWithin(double maxCost) {
+        while (heapSize > 0 && heapKeys[0] <= maxCost) {
+            settleNext();
+        }
+        settleShapeVertices(maxCost);
+        return settledCount;
+    }
+
+    /**
+     * Settles the shape vertices at most maxCost away along the chains of the settled
+     * junctions, each from whichever end is closer, and puts them in order among the rest.
+     * Every other path to a shape vertex passes through the ends of its chain, so a search
+     * that settled every junction within maxCost can give them their final distances
+     * without queueing them.
+     */
+    private void settleShapeVertices(double maxCost) {
+        int[] found = new int[16];
+        int n = 0;
+        for (int i = 0; i < settledCount; i++) {
+            int v = order[i];
+            for (int c = g.firstChain(v); c < g.firstChain(v + 1); c++) {
+                if ((g.chainModes(c) & modeBit) == 0) {
+                    continue;
+                }
+                double d = distTo[v];
+                int from = v;
+                for (int k = g.firstChainEdge(c); k < g.firstChainEdge(c + 1) - 1; k++) {
+                    int e = g.chainEdge(k);
+                    int s = g.edgeTarget(from, e);
+                    d += weights[e] * weightScale;
+                    if (d > maxCost) {
+                        break;
+                    }
+                    if (!settled[s] && d < distTo[s]) {
+                        if (!(distTo[s] <= maxCost)) {
+                            /* First reached by this pass, or only queued beyond the budget. */
+                            if (n == found.length) {
+                                found = Arrays.copyOf(found, 2 * n);
+                            }
+                            found[n++] = s;
+                        }
+                        touch(s);
+                        distTo[s] = d;
+                        edgeTo[s] = from;
+                        chainTo[s] = -1;
+                    }
+                    from = s;
+                }
+            }
+        }
+        if (n == 0) {
+            return;
+        }
+        /* Sort by distance rounded to a float, whose bits sort as it does when it is not
+         * negative, with the index below it; then put equal floats in exact order. */
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (long) Float.floatToIntBits((float) distTo[found[i]]) << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] shape = new int[n];
+        for (int i = 0; i < n; i++) {
+            int v = found[(int) keys[i]];
+            int j = i;
+            while (j > 0 && distTo[shape[j - 1]] > distTo[v]) {
+                shape[j] = shape[j - 1];
+                j--;
+            }
+            shape[j] = v;
+        }
+        int[] merged = new int[Math.max(order.length, settledCount + n)];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < settledCount + n; k++) {
+            if (j == n || i < settledCount && distTo[order[i]] <= distTo[shape[j]]) {
+                merged[k] = order[i++];
+            } else {
+                merged[k] = shape[j++];
+                settled[merged[k]] = true;
+            }
+        }
+        order = merged;
+        settledCount += n;
+    }
+
+    /**
+     * Searches from src to dest with A*.
+     * @param src Index of the source vertex.
+     * @param dest Index of the destination vertex.
+     * @param profile What to minimise.
+     * @param mode How to travel.
+     * @return The number of vertices settled.
+     */
+    int runTo(int src, int dest, RoutingProfile profile, TravelMode mode) {
+        start(src, dest, profile, mode);
+        while (heapSize > 0 && !settled[dest]) {
+            settleNext();
+        }
+        return settledCount;
+    }
+
+    /**
+     * Searches with A* from a point on one road to a point on another, each joined to the
+     * ends of its segment by the part of the segment's weight on either side. The search
+     * stops once no path through an unsettled vertex could be cheaper than the best way found
+     * onto the destination's segment; {@link #end} and {@link #endCost} tell which it was.
+     * @param src Where the search starts.
+     * @param dest Where it is heading for.
+     * @param profile What to minimise.
+     * @param mode How to travel; both segments must be open to it.
+     * @return The number of vertices settled.
+     */
+    int runTo(RoadPoint src, RoadPoint dest, RoutingProfile profile, TravelMode mode) {
+        reset(profile, mode, dest.lon, dest.lat);
+        source = -1;
+        addTarget(dest.v);
+        addTarget(dest.w);
+        double srcCost = weights[src.edge] * weightScale;
+        relax(src.v, -1, -1, src.fraction * srcCost);
+        relax(src.w, -1, -1, (1 - src.fraction) * srcCost);
+        double destCost = weights[dest.edge] * weightScale;
+        while (heapSize > 0 && heapKeys[0] < endCost) {
+            int v = settleNext();
+            if (v >= 0 && v == dest.v && distTo[v] + dest.fraction * destCost < endCost) {
+                end = v;
+                endCost = distTo[v] + dest.fraction * destCost;
+            }
+            if (v >= 0 && v == dest.w && distTo[v] + (1 - dest.fraction) * destCost < endCost) {
+                end = v;
+                endCost = distTo[v] + (1 - dest.fraction) * destCost;
+            }
+        }
+        return settledCount;
+    }
+
+    /**
+     * Returns the end of the destination's segment that the last search between road points
+     * reached it by, or -1 if it could not be reached.
+     */
+    int end() {
+        return end;
+    }
+
+    /** Returns the cost of the last search between road points, or infinity if it failed. */
+    double endCost() {
+        return endCost;
+    }
+
+    /**
+     * Returns the ids of the vertices on the shortest path to v found by the last search,
+     * from its source to v, or an empty list if the search did not settle v.
+     */
+    List<Long> pathTo(int v) {
+        LinkedList<Long> path = new LinkedList<>();
+        if (!settled[v]) {
+            return path;
+        }
+        for (int x = v; x >= 0; x = edgeTo[x]) {
+            path.addFirst(g.id(x));
+            if (chainTo[x] >= 0) {
+                /* Put the shape vertices the chain passed on its way to x before it. */
+                ListIterator<Long> before = path.listIterator();
+                int from = edgeTo[x];
+                for (int k = g.firstChainEdge(chainTo[x]); ; k++) {
+                    from = g.edgeTarget(from, g.chainEdge(k));
+                    if (from == x) {
+                        break;
+                    }
+                    before.add(g.id(from));
+                }
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Returns the vertex before v on the shortest path to it found by the last search, or -1
+     * if v is the source. Only meaningful for settled vertices.
+     */
+    int parent(int v) {
+        int c = chainTo[v];
+        if (c < 0) {
+            return edgeTo[v];
+        }
+        int from = edgeTo[v];
+        for (int k = g.firstChainEdge(c); ; k++) {
+            int w = g.edgeTarget(from, g.chainEdge(k));
+            if (w == v) {
+                return from;
+            }
+            from = w;
+        }
+    }
+
+    /** Returns the i-th vertex settled by the last search, in order of distance. */
+    int settled(int i) {
+        return order[i];
+    }
+
+    /**
+     * Returns the distance to a vertex found by the last search, in its profile's unit.
+     * Vertices it did not settle are infinitely far away: either unreachable or beyond where
+     * the search stopped.
+     */
+    double distTo(int v) {
+        return settled[v] ? distTo[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the distance to a target of the last {@link #run}, whose targets must have
+     * included both ends of the chain through each shape vertex among them.
+     */
+    double distToTarget(int v) {
+        if (settled[v] || !g.isShapeVertex(v)) {
+            return distTo(v);
+        }
+        int c = g.chainOf(v);
+        int r = g.chainReverse(c);
+        if ((g.chainModes(c) & modeBit) == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        int start = g.chainTarget(r);
+        int end = g.chainTarget(c);
+        double d = Math.min(distTo(start) + offset(c, start, v), distTo(end) + offset(r, end, v));
+        if (source >= 0 && (g.chainOf(source) == c || g.chainOf(source) == r)) {
+            /* The source is on the same chain, so the target may be closer along it. */
+            d = Math.min(d, Math.abs(offset(c, start, v) - offset(c, start, source)));
+        }
+        return d;
+    }
+
+    /** Returns the cost along chain c, which leaves junction start, to a vertex it passes. */
+    private double offset(int c, int start, int v) {
+        double d = 0;
+        int from = start;
+        for (int k = g.firstChainEdge(c); ; k++) {
+            int e = g.chainEdge(k);
+            d += weights[e] * weightScale;
+            from = g.edgeTarget(from, e);
+            if (from == v) {
+                return d;
+            }
+        }
+    }
+
+    private void start(int src, int dest, RoutingProfile profile, TravelMode mode) {
+        reset(profile, mode, dest < 0 ? Double.NaN : g.lonAt(dest),
+                dest < 0 ? Double.NaN : g.latAt(dest));
+        if (dest >= 0) {
+            addTarget(dest);
+        }
+        source = src;
+        relax(src, -1, -1, 0);
+    }
+
+    /** Makes chains through a shape vertex stop at it, for a search heading there. */
+    private void addTarget(int v) {
+        if (g.isShapeVertex(v)) {
+            targets[targetCount++] = v;
+        }
+    }
+
+    /** Clears the last search, and sets up one heading for a location, or none if NaN. */
+    private void reset(RoutingProfile profile, TravelMode mode, double lon, double lat) {
+        for (int i = 0; i < touchedCount; i++) {
+            distTo[touched[i]] = Double.POSITIVE_INFINITY;
+            settled[touched[i]] = false;
+        }
+        touchedCount = 0;
+        settledCount = 0;
+        heapSize = 0;
+        targetCount = 0;
+        targetLon = lon;
+        targetLat = lat;
+        end = -1;
+        endCost = Double.POSITIVE_INFINITY;
+        weights = g.weights(profile, mode);
+        chainWeights = g.chainWeights(profile, mode);
+        weightScale = g.weightScale(profile, mode);
+        costPerMile = g.costPerMile(profile, mode);
+        modeBit = mode.bit;
+    }
+
+    /**
+     * Pops the closest vertex and relaxes its chains, or the edges of a shape vertex; returns
+     * -1 for a stale heap entry.
+     */
+    private int settleNext() {
+        int v = pop();
+        if (settled[v]) {
+            return -1;
+        }
+        double d = distTo[v];
+        settled[v] = true;
+        if (settledCount == order.length) {
+            order = Arrays.copyOf(order, 2 * settledCount);
+        }
+        order[settledCount++] = v;
+        if (g.isShapeVertex(v)) {
+            /* A target reached along a chain goes on only the way the chain was heading:
+             * the shape vertices behind it are closer through the chain's start. */
+            int back = chainTo[v] >= 0 ? parent(v) : -1;
+            int first = g.firstEdge(v);
+            int degree = g.targets(v, row);
+            for (int k = 0; k < degree; k++) {
+                int w = row[k];
+                int e = first + k;
+                if (w != back && !settled[w] && (g.edgeModes(e) & modeBit) != 0) {
+                    relax(w, v, -1, d + weights[e] * weightScale);
+                }
+            }
+            return v;
+        }
+        for (int c = g.firstChain(v); c < g.firstChain(v + 1); c++) {
+            if ((g.chainModes(c) & modeBit) == 0) {
+                continue;
+            }
+            for (int t = 0; t < targetCount; t++) {
+                int s = targets[t];
+                if (!settled[s] && (g.chainOf(s) == c || g.chainReverse(g.chainOf(s)) == c)) {
+                    relax(s, v, c, d + offset(c, v, s));
+                }
+            }
+            int w = g.chainTarget(c);
+            if (!settled[w]) {
+                relax(w, v, c, d + chainWeights[c] * weightScale);
+            }
+        }
+        return v;
+    }
+
+    private void relax(int v, int from, int chain, double d) {
+        if (d >= distTo[v]) {
+            return;
+        }
+        if (distTo[v] == Double.POSITIVE_INFINITY) {
+            touch(v);
+            heuristic[v] = Double.isNaN(targetLon) ? 0 : costPerMile
+                    * GraphDB.distance(g.lonAt(v), g.latAt(v), targetLon, targetLat);
+        }
+        distTo[v] = d;
+        edgeTo[v] = from;
+        chainTo[v] = chain;
+        d += heuristic[v];
+        if (heapSize == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, 2 * heapSize);
+            heapVertices = Arrays.copyOf(heapVertices, 2 * heapSize);
+        }
+        int i = heapSize++;
+        while (i > 0 && heapKeys[(i - 1) / 2] > d) {
+            heapKeys[i] = heapKeys[(i - 1) / 2];
+            heapVertices[i] = heapVertices[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heapKeys[i] = d;
+        heapVertices[i] = v;
+    }
+
+    /** Records that a vertex's distance is set, if it was not, to clear it before the next. */
+    private void touch(int v) {
+        if (distTo[v] != Double.POSITIVE_INFINITY) {
+            return;
+        }
+        if (touchedCount == touched.length) {
+            touched = Arrays.copyOf(touched, 2 * touchedCount);
+        }
+        touched[touchedCount++] = v;
+    }
+
+    private int pop() {
+        int top = heapVertices[0];
+        double key = heapKeys[--heapSize];
+        int v = heapVertices[heapSize];
+        int i = 0;
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if (heapKeys[child] >= key) {
+                break;
+            }
+            heapKeys[i] = heapKeys[child];
+            heapVertices[i] = heapVertices[child];
+            i = child;
+        }
+        heapKeys[i] = key;
+        heapVertices[i] = v;
+        return top;
+    }
+}
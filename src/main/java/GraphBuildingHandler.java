@@ -34,11 +34,47 @@ public class GraphBuildingHandler extends DefaultHandler {
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
+    /** Highway types open to walking, unless a way's tags say otherwise. */
+    private static final Set<String> WALK_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
+            ("trunk", "primary", "secondary", "tertiary", "unclassified", "residential",
+                    "living_street", "trunk_link", "primary_link", "secondary_link",
+                    "tertiary_link", "service", "track", "footway", "path", "pedestrian", "steps",
+                    "cycleway", "bridleway"));
+    /** Highway types open to cycling, unless a way's tags say otherwise. */
+    private static final Set<String> BIKE_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
+            ("trunk", "primary", "secondary", "tertiary", "unclassified", "residential",
+                    "living_street", "trunk_link", "primary_link", "secondary_link",
+                    "tertiary_link", "service", "track", "path", "cycleway"));
+    /**
+     * Usual speeds in mph of the allowed highway types, for ways without a usable maxspeed.
+     */
+    private static final Map<String, Integer> HIGHWAY_SPEEDS = new HashMap<>();
+    static {
+        HIGHWAY_SPEEDS.put("motorway", 65);
+        HIGHWAY_SPEEDS.put("trunk", 55);
+        HIGHWAY_SPEEDS.put("primary", 40);
+        HIGHWAY_SPEEDS.put("secondary", 35);
+        HIGHWAY_SPEEDS.put("tertiary", 30);
+        HIGHWAY_SPEEDS.put("unclassified", 25);
+        HIGHWAY_SPEEDS.put("residential", 25);
+        HIGHWAY_SPEEDS.put("living_street", 10);
+        HIGHWAY_SPEEDS.put("motorway_link", 45);
+        HIGHWAY_SPEEDS.put("trunk_link", 40);
+        HIGHWAY_SPEEDS.put("primary_link", 30);
+        HIGHWAY_SPEEDS.put("secondary_link", 30);
+        HIGHWAY_SPEEDS.put("tertiary_link", 25);
+    }
+    private static final int DEFAULT_SPEED = 25;
+    private static final double MPH_PER_KMH = 0.621371;
     private String activeState = "";
     private final GraphDB g;
     private List<Long> ways;
     private String wayName = "";
-    private boolean validWay;
+    private String highway;
+    private String maxspeed;
+    private String access;
+    private String foot;
+    private String bicycle;
     private long id = -117;
     private double lon = -650;
     private double lat = -415;
@@ -84,7 +120,11 @@ public class GraphBuildingHandler extends DefaultHandler {
         } else if (qName.equals("way")) {
             /* We encountered a new <way...> tag. */
             activeState = "way";
-            validWay = false;
+            highway = null;
+            maxspeed = null;
+            access = null;
+            foot = null;
+            bicycle = null;
             ways = new ArrayList<>();
             //System.out.println("Beginning a way...");
         } else if (activeState.equals("way") && qName.equals("nd")) {
@@ -100,13 +140,17 @@ public class GraphBuildingHandler extends DefaultHandler {
             String v = attributes.getValue("v");
             if (k.equals("maxspeed")) {
                 //System.out.println("Max Speed: " + v);
-                /* TODO set the max speed of the "current way" here. */
+                maxspeed = v;
             } else if (k.equals("highway")) {
                 //System.out.println("Highway type: " + v);
-                /* TODO Figure out whether this way and its connections are valid. */
-                if (ALLOWED_HIGHWAY_TYPES.contains(attributes.getValue("v"))) {
-                    validWay = true;
-                }
+                /* Which modes may use this way is worked out once all its tags are in. */
+                highway = v;
+            } else if (k.equals("access")) {
+                access = v;
+            } else if (k.equals("foot")) {
+                foot = v;
+            } else if (k.equals("bicycle")) {
+                bicycle = v;
             } else if (k.equals("name")) {
                 //System.out.println("Way Name: " + v);
                 wayName = v;
@@ -124,6 +168,82 @@ public class GraphBuildingHandler extends DefaultHandler {
         }
     }
 
+    /**
+     * Returns the bitmask of the {@link TravelMode}s that may use a way. Driving follows the
+     * highway type alone, as it always has. Walking and cycling follow the highway type too,
+     * but access=no or private closes a way to them, and foot or bicycle tags open or close
+     * it to one of them.
+     * @param highway The way's highway tag, or null.
+     * @param access The way's access tag, or null.
+     * @param foot The way's foot tag, or null.
+     * @param bicycle The way's bicycle tag, or null.
+     */
+    static int modes(String highway, String access, String foot, String bicycle) {
+        if (highway == null) {
+            return 0;
+        }
+        boolean closed = "no".equals(access) || "private".equals(access);
+        int modes = 0;
+        if (ALLOWED_HIGHWAY_TYPES.contains(highway)) {
+            modes |= TravelMode.DRIVE.bit;
+        }
+        if (allowed(WALK_HIGHWAY_TYPES.contains(highway) && !closed, foot)) {
+            modes |= TravelMode.WALK.bit;
+        }
+        if (allowed(BIKE_HIGHWAY_TYPES.contains(highway) && !closed, bicycle)) {
+            modes |= TravelMode.BIKE.bit;
+        }
+        return modes;
+    }
+
+    /** Applies a mode's own tag, such as foot=yes, to whether the highway type allows it. */
+    private static boolean allowed(boolean byDefault, String tag) {
+        if (tag == null) {
+            return byDefault;
+        }
+        switch (tag) {
+            case "yes":
+            case "designated":
+            case "permissive":
+                return true;
+            case "no":
+            case "private":
+            case "use_sidepath":
+                return false;
+            default:
+                return byDefault;
+        }
+    }
+
+    /**
+     * Returns the speed of a way in mph: its maxspeed, such as "25 mph" or "50" (km/h, as OSM
+     * assumes without a unit), or else the usual speed of its highway type.
+     * @param highway The way's highway tag.
+     * @param maxspeed The way's maxspeed tag, or null.
+     */
+    static int speedMph(String highway, String maxspeed) {
+        if (maxspeed != null) {
+            String v = maxspeed.trim().toLowerCase();
+            boolean mph = v.endsWith("mph");
+            int end = 0;
+            while (end < v.length()
+                    && (Character.isDigit(v.charAt(end)) || v.charAt(end) == '.')) {
+                end++;
+            }
+            try {
+                double speed = Double.parseDouble(v.substring(0, end));
+                if (speed > 0) {
+                    return (int) Math.max(1, Math.min(255,
+                            Math.round(mph ? speed : speed * MPH_PER_KMH)));
+                }
+            } catch (NumberFormatException e) {
+                /* Not a number, such as "signals" or "none": use the highway's speed. */
+            }
+        }
+        Integer speed = HIGHWAY_SPEEDS.get(highway);
+        return speed == null ? DEFAULT_SPEED : speed;
+    }
+
     /**
      * Receive notification of the end of an element. You may want to take specific terminating
      * actions here, like finalizing vertices or edges found.
@@ -140,8 +260,9 @@ public class GraphBuildingHandler extends DefaultHandler {
         if (qName.equals("way")) {
             /* We are done looking at a way. (We finished looking at the nodes, speeds, etc...)*/
 //            System.out.println("Finishing a way...");
-            if (validWay) {
-                g.addWay(ways, wayName);
+            int modes = modes(highway, access, foot, bicycle);
+            if (modes != 0) {
+                g.addWay(ways, wayName, speedMph(highway, maxspeed), modes);
             }
         }
     }
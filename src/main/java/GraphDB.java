@@ -3,6 +3,7 @@ import org.xml.sax.SAXException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -21,10 +22,91 @@ public class GraphDB {
     /** Your instance variables for storing the graph. You should consider
      * creating helper classes, e.g. Node, Edge, etc. */
 
-    private final Map<Long, Location> locations = new HashMap<>();
-    private final Map<Long, Node> nodes = new HashMap<>();
-    private final Map<String, List<Long>> names = new HashMap<>();
-    private final TrieST<Long> st = new TrieST<>();
+    /** Nodes by id while the graph is built, released once the vertices are numbered. */
+    private LongObjectMap<Node> nodes = new LongObjectMap<>(1 << 16);
+    private final NameNormalizer normalizer;
+    /** Way names, interned to their index in this list while the graph is built. */
+    private final List<String> wayNames = new ArrayList<>();
+    private Map<String, Integer> wayIds = new HashMap<>();
+    /**
+     * Named locations, staged on the heap while parsing and then moved off-heap, or null if
+     * a prebuilt dictionary was mapped instead.
+     */
+    private NameDictionary.Builder stagedLocations = new NameDictionary.Builder();
+    private NameDictionary locations;
+    /** Whether coordinates and edge targets are stored compactly; see {@link #isCompact}. */
+    private final boolean compact;
+    /** Vertex ids by dense index, and their dense indexes, numbered once the graph is built. */
+    private long[] ids;
+    private LongIntMap index;
+    private double[] lons;
+    private double[] lats;
+    /** In a compact graph, the coordinates in units of 1 / {@value #FIXED_POINT} degrees. */
+    private int[] fixedLons;
+    private int[] fixedLats;
+    /** The ways of vertex i, sorted: vertexWays[firstWay[i]] to vertexWays[firstWay[i + 1] - 1]. */
+    private int[] firstWay;
+    private int[] vertexWays;
+    /**
+     * Adjacency by dense index, in compressed sparse rows: the edges of vertex i are
+     * firstEdge[i] to firstEdge[i + 1] - 1, and edge e leads to edgeTarget[e] and is
+     * edgeWeight[e] miles long.
+     */
+    private int[] firstEdge;
+    private int[] edgeTarget;
+    private double[] edgeWeight;
+    /**
+     * In a compact graph, the edge targets in place of edgeTarget: those of vertex i, in the
+     * order of its edges, are varints in adjacency[firstByte[i]] to
+     * adjacency[firstByte[i + 1] - 1], each the zigzag-encoded difference from the target
+     * before it, or from i for the first.
+     */
+    private byte[] adjacency;
+    private int[] firstByte;
+    private int maxDegree;
+    /** Speed of each edge in mph, from 1 to 255, as an unsigned byte. */
+    private byte[] edgeSpeed;
+    /** Bits of the {@link TravelMode}s allowed on each edge. */
+    private byte[] edgeModes;
+    /** Bits of the modes allowed on any edge of each vertex. */
+    private byte[] vertexModes;
+    /** Edge weights of each routing profile, by ordinal. */
+    private double[][] profileWeights;
+    private int maxSpeed;
+    /**
+     * The contracted graph searches run over. A vertex with two neighbours, on a single way
+     * and with both edges open to the same modes, is a shape vertex: a bend in the road, not
+     * a junction. Chains lead from one junction to the next through any shape vertices
+     * between them, and the chains of junction i are firstChain[i] to firstChain[i + 1] - 1;
+     * shape vertices have none. Chain c follows the edges chainEdges[firstChainEdge[c]] to
+     * chainEdges[firstChainEdge[c + 1] - 1] in order, and leads to chainTarget[c].
+     */
+    private int[] firstChain;
+    private int[] chainTarget;
+    private int[] firstChainEdge;
+    private int[] chainEdges;
+    /** Bits of the modes allowed on each chain, the same for all its edges. */
+    private byte[] chainModes;
+    /** The chain along the same edges the other way, or -1 if c has no shape vertices. */
+    private int[] chainReverse;
+    /** Chain weights of each routing profile, by ordinal: the sums of their edges'. */
+    private double[][] chainWeights;
+    /** A chain through each shape vertex, or -1 for junctions. */
+    private int[] chainOf;
+    /** R-tree over the road segments, for snapping locations onto roads. */
+    private SegmentIndex segmentIndex;
+    /**
+     * Connected component of each vertex over the edges of each mode, by the mode's ordinal,
+     * or -1 if the mode may use no edge of the vertex. Edges go both ways, so two vertices
+     * are connected exactly when their ids are equal.
+     */
+    private int[][] components;
+    /** The largest connected component of each mode, by ordinal, or -1 if it has none. */
+    private int[] largestComponent;
+    /** Number of connected components of each mode, by ordinal. */
+    private int[] componentCounts;
+    /** Whether locations snap only to the largest connected component of their mode. */
+    private volatile boolean largestComponentOnly;
 
     /**
      * Example constructor shows how to create and start an XML parser.
@@ -32,6 +114,55 @@ public class GraphDB {
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
+        this(dbPath, NameNormalizer.ASCII);
+    }
+
+    /**
+     * Creates a graph whose location names are cleaned by the given normalizer, e.g.
+     * {@link NameNormalizer#FOLDING} to make "Cafe" match "Caf&eacute;".
+     * @param dbPath Path to the XML file to be parsed.
+     * @param normalizer Normalizer used for location names and search terms.
+     */
+    public GraphDB(String dbPath, NameNormalizer normalizer) {
+        this(dbPath, normalizer, Boolean.getBoolean("bearmaps.compact"));
+    }
+
+    /**
+     * Creates a graph, stored compactly or not; the public constructors store it compactly
+     * if the system property bearmaps.compact is true. The location dictionary is the file
+     * named by the system property bearmaps.locations, if set.
+     * @param dbPath Path to the XML file to be parsed.
+     * @param normalizer Normalizer used for location names and search terms.
+     * @param compact Whether to store coordinates and edge targets compactly.
+     * @see #isCompact
+     */
+    GraphDB(String dbPath, NameNormalizer normalizer, boolean compact) {
+        this(dbPath, normalizer, compact, locationsFile());
+    }
+
+    /**
+     * Creates a graph whose named locations are kept in a dictionary file. If the file
+     * exists and was written from the XML file as it is now, with the same normalizer, it is
+     * mapped as it is; otherwise it is (re)written once the XML file has been parsed.
+     * @param dbPath Path to the XML file to be parsed.
+     * @param normalizer Normalizer used for location names and search terms.
+     * @param compact Whether to store coordinates and edge targets compactly.
+     * @param dictionary Dictionary file, or null for a temporary one deleted on exit.
+     */
+    GraphDB(String dbPath, NameNormalizer normalizer, boolean compact, File dictionary) {
+        this.normalizer = normalizer;
+        this.compact = compact;
+        GraphLoadEvent event = new GraphLoadEvent();
+        event.begin();
+        if (dictionary != null && dictionary.exists()
+                && NameDictionary.isBuiltFrom(dictionary, new File(dbPath), normalizer)) {
+            try {
+                locations = NameDictionary.open(dictionary);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map the location dictionary.", e);
+            }
+            stagedLocations = null;
+        }
         try {
             File inputFile = new File(dbPath);
             FileInputStream inputStream = new FileInputStream(inputFile);
@@ -44,7 +175,41 @@ public class GraphDB {
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
+        event = loaded(event, "parse");
         clean();
+        numberVertices();
+        event = loaded(event, "clean");
+        labelComponents();
+        event = loaded(event, "components");
+        contractChains();
+        event = loaded(event, "contract");
+        segmentIndex = new SegmentIndex(this);
+        event = loaded(event, "index");
+        if (compact) {
+            packAdjacency();
+            event = loaded(event, "pack");
+        }
+        buildLocations(dictionary, new File(dbPath));
+        wayIds = null;
+        loaded(event, "locations");
+    }
+
+    private static File locationsFile() {
+        String path = System.getProperty("bearmaps.locations");
+        return path == null ? null : new File(path);
+    }
+
+    /** Commits event for the load phase that just ended, and begins one for the next. */
+    private GraphLoadEvent loaded(GraphLoadEvent event, String phase) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase;
+            event.nodes = ids != null ? ids.length : nodes.size();
+            event.commit();
+        }
+        GraphLoadEvent next = new GraphLoadEvent();
+        next.begin();
+        return next;
     }
 
     /**
@@ -53,32 +218,752 @@ public class GraphDB {
      * @return Cleaned string.
      */
     static String cleanString(String s) {
-        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+        return NameNormalizer.ASCII.clean(s);
     }
 
     /**
      *  Remove nodes with no connections from the graph.
-     *  While this does not guarantee that any two nodes in the remaining graph are connected,
-     *  we can reasonably assume this since typically roads are connected.
+     *  This does not guarantee that any two nodes in the remaining graph are connected, so
+     *  their connected components are labelled once the vertices are numbered.
      */
     private void clean() {
-        // TODO: Your code here.
-        Iterator<Map.Entry<Long, Node>> nodes_iterator = nodes.entrySet().iterator();
-        while (nodes_iterator.hasNext()) {
-            Map.Entry<Long, Node> item = nodes_iterator.next();
-            if (item.getValue().adj.isEmpty()) {
-                nodes_iterator.remove();
+        List<Long> isolated = new ArrayList<>();
+        for (long id : nodes.keys()) {
+            if (nodes.get(id).degree == 0) {
+                isolated.add(id);
+            }
+        }
+        for (long id : isolated) {
+            nodes.remove(id);
+        }
+    }
+
+    /**
+     * Numbers the vertices 0 to V-1, for searches that keep their state in arrays, and packs
+     * the nodes' edges and their lengths into compressed sparse rows. The vertices are
+     * numbered along a Hilbert curve, so that the coordinates, rows and search state of
+     * vertices near each other on the map are mostly near each other in memory too. The
+     * nodes are released afterwards, their ways kept in rows as well.
+     */
+    private void numberVertices() {
+        int n = nodes.size();
+        ids = curveOrder();
+        index = new LongIntMap(n, -1);
+        if (compact) {
+            fixedLons = new int[n];
+            fixedLats = new int[n];
+        } else {
+            lons = new double[n];
+            lats = new double[n];
+        }
+        firstEdge = new int[n + 1];
+        firstWay = new int[n + 1];
+        int i = 0;
+        for (long id : ids) {
+            Node node = nodes.get(id);
+            index.put(id, i);
+            if (compact) {
+                fixedLons[i] = (int) Math.round(node.lon * FIXED_POINT);
+                fixedLats[i] = (int) Math.round(node.lat * FIXED_POINT);
+            } else {
+                lons[i] = node.lon;
+                lats[i] = node.lat;
+            }
+            firstEdge[i + 1] = firstEdge[i] + node.degree;
+            firstWay[i + 1] = firstWay[i] + node.ways.length;
+            maxDegree = Math.max(maxDegree, node.degree);
+            i++;
+        }
+        vertexWays = new int[firstWay[n]];
+        edgeTarget = new int[firstEdge[n]];
+        edgeWeight = new double[firstEdge[n]];
+        edgeSpeed = new byte[firstEdge[n]];
+        edgeModes = new byte[firstEdge[n]];
+        vertexModes = new byte[n];
+        double[] seconds = new double[firstEdge[n]];
+        maxSpeed = 1;
+        for (i = 0; i < n; i++) {
+            Node node = nodes.get(ids[i]);
+            System.arraycopy(node.ways, 0, vertexWays, firstWay[i], node.ways.length);
+            for (int k = 0; k < node.degree; k++) {
+                int e = firstEdge[i] + k;
+                int mph = node.speeds[k] & 0xFF;
+                edgeTarget[e] = index.get(node.adj[k]);
+                edgeWeight[e] = node.weights[k];
+                edgeSpeed[e] = node.speeds[k];
+                edgeModes[e] = node.modes[k];
+                vertexModes[i] |= node.modes[k];
+                seconds[e] = node.weights[k] / mph * 3600;
+                maxSpeed = Math.max(maxSpeed, mph);
+            }
+        }
+        nodes = null;
+        profileWeights = new double[RoutingProfile.values().length][];
+        profileWeights[RoutingProfile.SHORTEST.ordinal()] = edgeWeight;
+        profileWeights[RoutingProfile.FASTEST.ordinal()] = seconds;
+    }
+
+    /**
+     * Returns the ids of the nodes in the order of their cells on a Hilbert curve over the
+     * nodes' bounding box, or in the order the node map holds them if the system property
+     * bearmaps.vertexOrder is "hash".
+     */
+    private long[] curveOrder() {
+        long[] order = new long[nodes.size()];
+        int i = 0;
+        double minLon = Double.POSITIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (long id : nodes.keys()) {
+            Node node = nodes.get(id);
+            order[i++] = id;
+            minLon = Math.min(minLon, node.lon);
+            minLat = Math.min(minLat, node.lat);
+            maxLon = Math.max(maxLon, node.lon);
+            maxLat = Math.max(maxLat, node.lat);
+        }
+        if ("hash".equals(System.getProperty("bearmaps.vertexOrder"))) {
+            return order;
+        }
+        int side = 1 << HILBERT_BITS;
+        double lonScale = (side - 1) / Math.max(maxLon - minLon, Double.MIN_NORMAL);
+        double latScale = (side - 1) / Math.max(maxLat - minLat, Double.MIN_NORMAL);
+        /* Curve positions take 30 bits, so the node's place in order fits below them. */
+        long[] keys = new long[order.length];
+        for (i = 0; i < order.length; i++) {
+            Node node = nodes.get(order[i]);
+            int x = (int) ((node.lon - minLon) * lonScale);
+            int y = (int) ((node.lat - minLat) * latScale);
+            keys[i] = (long) hilbertIndex(x, y) << 32 | i;
+        }
+        Arrays.sort(keys);
+        long[] sorted = new long[order.length];
+        for (i = 0; i < order.length; i++) {
+            sorted[i] = order[(int) keys[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the position of cell (x, y) on the Hilbert curve through a square grid of
+     * 2^{@value #HILBERT_BITS} cells a side. Consecutive positions are adjacent cells, and
+     * each quarter of the square holds a quarter of the curve.
+     * @param x Column, from 0 to 2^{@value #HILBERT_BITS} - 1.
+     * @param y Row, from 0 to 2^{@value #HILBERT_BITS} - 1.
+     * @return Position from 0 to 4^{@value #HILBERT_BITS} - 1.
+     */
+    static int hilbertIndex(int x, int y) {
+        int last = (1 << HILBERT_BITS) - 1;
+        int d = 0;
+        for (int s = 1 << (HILBERT_BITS - 1); s > 0; s >>= 1) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            /* Turn the quarter so the curve through it starts and ends where it should. */
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = last - x;
+                    y = last - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Labels the connected components of each mode with a breadth-first search from every
+     * vertex not yet labelled, so that searches can tell in constant time that a destination
+     * cannot be reached instead of exhausting the start's component.
+     */
+    private void labelComponents() {
+        int n = ids.length;
+        TravelMode[] modes = TravelMode.values();
+        components = new int[modes.length][];
+        largestComponent = new int[modes.length];
+        componentCounts = new int[modes.length];
+        int[] queue = new int[n];
+        for (TravelMode mode : modes) {
+            int[] component = new int[n];
+            Arrays.fill(component, -1);
+            int count = 0;
+            int largest = -1;
+            int largestSize = 0;
+            for (int root = 0; root < n; root++) {
+                if (component[root] >= 0 || !allows(vertexModes[root], mode)) {
+                    continue;
+                }
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = root;
+                component[root] = count;
+                while (head < tail) {
+                    int v = queue[head++];
+                    for (int e = firstEdge[v]; e < firstEdge[v + 1]; e++) {
+                        int w = edgeTarget[e];
+                        if (component[w] < 0 && allows(edgeModes[e], mode)) {
+                            component[w] = count;
+                            queue[tail++] = w;
+                        }
+                    }
+                }
+                if (tail > largestSize) {
+                    largestSize = tail;
+                    largest = count;
+                }
+                count++;
             }
+            components[mode.ordinal()] = component;
+            largestComponent[mode.ordinal()] = largest;
+            componentCounts[mode.ordinal()] = count;
         }
     }
 
     /**
-     * Returns an iterable of all vertex IDs in the graph.
+     * Contracts runs of shape vertices into chains between junctions, so that searches settle
+     * and queue only junctions. Rings made only of shape vertices get one of them as their
+     * junction. The vertices, their edges and their numbering stay as they are, for snapping,
+     * drawing and directions.
+     */
+    private void contractChains() {
+        int n = ids.length;
+        boolean[] junction = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            junction[v] = !contractible(v);
+        }
+        boolean[] reached = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            if (junction[v]) {
+                for (int e = firstEdge[v]; e < firstEdge[v + 1]; e++) {
+                    followChain(v, e, junction, reached);
+                }
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            if (!junction[v] && !reached[v]) {
+                junction[v] = true;
+                followChain(v, firstEdge[v], junction, reached);
+            }
+        }
+
+        firstChain = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            int degree = firstEdge[v + 1] - firstEdge[v];
+            firstChain[v + 1] = firstChain[v] + (junction[v] ? degree : 0);
+        }
+        int chains = firstChain[n];
+        chainTarget = new int[chains];
+        firstChainEdge = new int[chains + 1];
+        chainEdges = new int[edgeTarget.length];
+        chainModes = new byte[chains];
+        chainReverse = new int[chains];
+        chainOf = new int[n];
+        Arrays.fill(chainOf, -1);
+        int profiles = RoutingProfile.values().length;
+        chainWeights = new double[profiles][chains];
+        /* The chain starting with each edge, for pairing chains with their reverses. */
+        int[] startingWith = new int[edgeTarget.length];
+        int c = 0;
+        int k = 0;
+        for (int v = 0; v < n; v++) {
+            if (!junction[v]) {
+                continue;
+            }
+            for (int e = firstEdge[v]; e < firstEdge[v + 1]; e++) {
+                firstChainEdge[c] = k;
+                startingWith[e] = c;
+                chainModes[c] = edgeModes[e];
+                int from = v;
+                int edge = e;
+                while (true) {
+                    chainEdges[k++] = edge;
+                    for (int p = 0; p < profiles; p++) {
+                        chainWeights[p][c] += profileWeights[p][edge];
+                    }
+                    int w = edgeTarget[edge];
+                    if (junction[w]) {
+                        chainTarget[c] = w;
+                        break;
+                    }
+                    if (chainOf[w] < 0) {
+                        chainOf[w] = c;
+                    }
+                    edge = otherEdge(w, from);
+                    from = w;
+                }
+                c++;
+            }
+        }
+        firstChainEdge[chains] = k;
+        for (c = 0; c < chains; c++) {
+            int last = firstChainEdge[c + 1] - 1;
+            if (last == firstChainEdge[c]) {
+                chainReverse[c] = -1;
+            } else {
+                int s = edgeTarget[chainEdges[last - 1]];
+                chainReverse[c] = startingWith[edgeTo(chainTarget[c], s)];
+            }
+        }
+    }
+
+    /**
+     * Returns whether a vertex can be contracted into a chain: it has two distinct neighbours
+     * other than itself, lies on at most one named way, and both its edges are open to the
+     * same modes.
+     */
+    private boolean contractible(int v) {
+        int e = firstEdge[v];
+        if (firstEdge[v + 1] - e != 2) {
+            return false;
+        }
+        int a = edgeTarget[e];
+        int b = edgeTarget[e + 1];
+        return a != b && a != v && b != v && edgeModes[e] == edgeModes[e + 1]
+                && firstWay[v + 1] - firstWay[v] <= 1;
+    }
+
+    /** Marks the shape vertices along the chain that leaves junction v by edge e. */
+    private void followChain(int v, int e, boolean[] junction, boolean[] reached) {
+        int from = v;
+        int w = edgeTarget[e];
+        while (!junction[w] && !reached[w]) {
+            reached[w] = true;
+            int next = edgeTarget[otherEdge(w, from)];
+            from = w;
+            w = next;
+        }
+    }
+
+    /** Returns the edge of shape vertex s that does not lead to from. */
+    private int otherEdge(int s, int from) {
+        int e = firstEdge[s];
+        return edgeTarget[e] == from ? e + 1 : e;
+    }
+
+    /** Returns the edge from v to w; there is exactly one when either is a shape vertex. */
+    private int edgeTo(int v, int w) {
+        for (int e = firstEdge[v]; e < firstEdge[v + 1]; e++) {
+            if (edgeTarget[e] == w) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("No edge from " + ids[v] + " to " + ids[w] + ".");
+    }
+
+    /**
+     * Packs the edge targets of a compact graph into varints, in place of an int each. With
+     * the vertices numbered along a Hilbert curve, most neighbours are a few indexes apart,
+     * so most targets take a single byte.
+     */
+    private void packAdjacency() {
+        int n = ids.length;
+        firstByte = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            int bytes = 0;
+            int prev = v;
+            for (int e = firstEdge[v]; e < firstEdge[v + 1]; e++) {
+                bytes += varintSize(zigzag(edgeTarget[e] - prev));
+                prev = edgeTarget[e];
+            }
+            firstByte[v + 1] = firstByte[v] + bytes;
+        }
+        adjacency = new byte[firstByte[n]];
+        int p = 0;
+        for (int v = 0; v < n; v++) {
+            int prev = v;
+            for (int e = firstEdge[v]; e < firstEdge[v + 1]; e++) {
+                int z = zigzag(edgeTarget[e] - prev);
+                while ((z & ~0x7F) != 0) {
+                    adjacency[p++] = (byte) (z & 0x7F | 0x80);
+                    z >>>= 7;
+                }
+                adjacency[p++] = (byte) z;
+                prev = edgeTarget[e];
+            }
+        }
+        edgeTarget = null;
+    }
+
+    /** Maps differences of small magnitude, either sign, to small unsigned ints. */
+    private static int zigzag(int d) {
+        return d << 1 ^ d >> 31;
+    }
+
+    private static int varintSize(int z) {
+        return (38 - Integer.numberOfLeadingZeros(z | 1)) / 7;
+    }
+
+    /**
+     * Writes the named locations to a memory-mapped dictionary file, unless a prebuilt one
+     * has been mapped already.
+     * @param dictionary Dictionary file, or null for a temporary one deleted on exit.
+     * @param source The XML file the locations were parsed from.
+     */
+    private void buildLocations(File dictionary, File source) {
+        if (stagedLocations == null) {
+            return;
+        }
+        try {
+            File file = dictionary;
+            if (file == null) {
+                file = File.createTempFile("bearmaps-locations", ".dict");
+                file.deleteOnExit();
+            }
+            locations = stagedLocations.build(file, source, normalizer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the location dictionary.", e);
+        }
+        stagedLocations = null;
+    }
+
+    /**
+     * Returns an iterable of all vertex IDs in the graph that can be driven to. Vertices
+     * only on footways, cycleways and the like are left out, just as
+     * {@link #adjacent} and {@link #closest(double, double)} keep to the roads.
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        //YOUR CODE HERE, this currently returns only an empty list.
-        return nodes.keySet();
+        List<Long> result = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            if (allows(vertexModes[i], TravelMode.DRIVE)) {
+                result.add(ids[i]);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of vertices in the graph. */
+    int vertexCount() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the dense index of a vertex, from 0 to {@link #vertexCount} - 1.
+     * @param v The id of the vertex.
+     * @return Its index, or -1 if v is not in the graph.
+     */
+    int index(long v) {
+        return index.get(v);
+    }
+
+    /**
+     * Returns the id of the vertex with a dense index.
+     * @param i An index returned by {@link #index}.
+     * @return The id of the vertex.
+     */
+    long id(int i) {
+        return ids[i];
+    }
+
+    /**
+     * Returns whether the graph is stored compactly: coordinates as ints in units of
+     * 1 / {@value #FIXED_POINT} degrees rather than doubles, which is exact for OSM files,
+     * and edge targets as varint-encoded differences in one byte array rather than an int
+     * each, decoded by {@link #targets} and {@link #edgeTarget(int, int)}.
+     */
+    boolean isCompact() {
+        return compact;
+    }
+
+    /** Returns the longitude of the vertex with a dense index. */
+    double lonAt(int i) {
+        return lons != null ? lons[i] : fixedLons[i] / FIXED_POINT;
+    }
+
+    /** Returns the latitude of the vertex with a dense index. */
+    double latAt(int i) {
+        return lats != null ? lats[i] : fixedLats[i] / FIXED_POINT;
+    }
+
+    /**
+     * Returns the first edge of the vertex with a dense index. Its edges are numbered
+     * firstEdge(i) to firstEdge(i + 1) - 1:
+     * <pre>
+     * for (int e = g.firstEdge(v); e &lt; g.firstEdge(v + 1); e++) {
+     *     relax(g.edgeTarget(e), distTo[v] + g.edgeWeight(e));
+     * }
+     * </pre>
+     * @param i A dense index, or {@link #vertexCount} for the end of the last vertex's edges.
+     */
+    int firstEdge(int i) {
+        return firstEdge[i];
+    }
+
+    /**
+     * Returns the dense index of the vertex an edge leads to. In a compact graph this looks
+     * up the vertex the edge leaves first, so prefer {@link #edgeTarget(int, int)} or
+     * {@link #targets} when that is known.
+     */
+    int edgeTarget(int e) {
+        if (edgeTarget != null) {
+            return edgeTarget[e];
+        }
+        int lo = 0;
+        int hi = ids.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstEdge[mid] <= e) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return edgeTarget(lo, e);
+    }
+
+    /** Returns the dense index of the vertex that edge e of vertex v leads to. */
+    int edgeTarget(int v, int e) {
+        if (edgeTarget != null) {
+            return edgeTarget[e];
+        }
+        int p = firstByte[v];
+        int w = v;
+        for (int k = firstEdge[v]; k <= e; k++) {
+            int b = adjacency[p++];
+            int z = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = adjacency[p++];
+                z |= (b & 0x7F) << shift;
+            }
+            w += z >>> 1 ^ -(z & 1);
+        }
+        return w;
+    }
+
+    /**
+     * Decodes the targets of a vertex's edges, in order, so that the target of edge
+     * firstEdge(v) + k is into[k]:
+     * <pre>
+     * int degree = g.targets(v, into);
+     * for (int k = 0; k &lt; degree; k++) {
+     *     relax(into[k], distTo[v] + g.edgeWeight(g.firstEdge(v) + k));
+     * }
+     * </pre>
+     * @param v A dense index.
+     * @param into Array of at least {@link #maxDegree} elements.
+     * @return The number of edges of v.
+     */
+    int targets(int v, int[] into) {
+        int degree = firstEdge[v + 1] - firstEdge[v];
+        if (edgeTarget != null) {
+            System.arraycopy(edgeTarget, firstEdge[v], into, 0, degree);
+            return degree;
+        }
+        int p = firstByte[v];
+        int w = v;
+        for (int k = 0; k < degree; k++) {
+            int b = adjacency[p++];
+            int z = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = adjacency[p++];
+                z |= (b & 0x7F) << shift;
+            }
+            w += z >>> 1 ^ -(z & 1);
+            into[k] = w;
+        }
+        return degree;
+    }
+
+    /** Returns the largest number of edges of any vertex. */
+    int maxDegree() {
+        return maxDegree;
+    }
+
+    /** Returns the length of an edge in miles, computed once when the edge was added. */
+    double edgeWeight(int e) {
+        return edgeWeight[e];
+    }
+
+    /** Returns the speed of an edge in mph. */
+    int edgeSpeed(int e) {
+        return edgeSpeed[e] & 0xFF;
+    }
+
+    /** Returns the bits of the {@link TravelMode}s allowed on an edge. */
+    int edgeModes(int e) {
+        return edgeModes[e];
+    }
+
+    /**
+     * Returns whether the vertex with a dense index is a shape vertex, which searches pass
+     * through along chains rather than settle.
+     */
+    boolean isShapeVertex(int i) {
+        return chainOf[i] >= 0;
+    }
+
+    /**
+     * Returns the first chain of the vertex with a dense index. The chains of a junction are
+     * numbered firstChain(i) to firstChain(i + 1) - 1, and shape vertices have none:
+     * <pre>
+     * for (int c = g.firstChain(v); c &lt; g.firstChain(v + 1); c++) {
+     *     relax(g.chainTarget(c), distTo[v] + chainWeights[c]);
+     * }
+     * </pre>
+     * @param i A dense index, or {@link #vertexCount} for the end of the last vertex's chains.
+     */
+    int firstChain(int i) {
+        return firstChain[i];
+    }
+
+    /** Returns the dense index of the junction a chain leads to. */
+    int chainTarget(int c) {
+        return chainTarget[c];
+    }
+
+    /** Returns the bits of the {@link TravelMode}s allowed on a chain. */
+    int chainModes(int c) {
+        return chainModes[c];
+    }
+
+    /**
+     * Returns where a chain's edges start in the packed chain edges: chain c follows
+     * chainEdge(firstChainEdge(c)) to chainEdge(firstChainEdge(c + 1) - 1), and the shape
+     * vertices it passes are the targets of all but the last of them.
+     */
+    int firstChainEdge(int c) {
+        return firstChainEdge[c];
+    }
+
+    /** Returns the edge at a position in the packed chain edges. */
+    int chainEdge(int k) {
+        return chainEdges[k];
+    }
+
+    /**
+     * Returns a chain through a shape vertex, or -1 for a junction.
+     * @see #chainReverse
+     */
+    int chainOf(int i) {
+        return chainOf[i];
+    }
+
+    /** Returns the chain along the same edges the other way, or -1 if c passes no shape vertex. */
+    int chainReverse(int c) {
+        return chainReverse[c];
+    }
+
+    /**
+     * Returns the chain weights of a routing profile when travelling in a mode, to be scaled
+     * by {@link #weightScale} like {@link #weights(RoutingProfile, TravelMode)}.
+     */
+    double[] chainWeights(RoutingProfile profile, TravelMode mode) {
+        RoutingProfile p = mode.speedMph > 0 ? RoutingProfile.SHORTEST : profile;
+        return chainWeights[p.ordinal()];
+    }
+
+    /** Returns the number of chains, counting each direction of a road once. */
+    int chainCount() {
+        return chainTarget.length;
+    }
+
+    /** Returns whether a mode may use any edge of the vertex with a dense index. */
+    boolean allowsVertex(int i, TravelMode mode) {
+        return allows(vertexModes[i], mode);
+    }
+
+    /**
+     * Returns the connected component of the vertex with a dense index over the edges a mode
+     * may use, from 0 to {@link #componentCount} - 1, or -1 if the mode may use none of its
+     * edges.
+     */
+    int component(int i, TravelMode mode) {
+        return components[mode.ordinal()][i];
+    }
+
+    /** Returns the number of connected components over the edges a mode may use. */
+    int componentCount(TravelMode mode) {
+        return componentCounts[mode.ordinal()];
+    }
+
+    /**
+     * Returns whether a mode can travel between two vertices, in constant time.
+     * @param v The dense index of one vertex.
+     * @param w The dense index of the other.
+     * @param mode The mode of travel.
+     * @return True if v and w are in the same connected component of the mode.
+     */
+    boolean connected(int v, int w, TravelMode mode) {
+        int[] component = components[mode.ordinal()];
+        return component[v] >= 0 && component[v] == component[w];
+    }
+
+    /**
+     * Sets whether {@link #closest(double, double, TravelMode)} and {@link #closestRoad} keep
+     * to the largest connected component of their mode, so that a location beside a stray
+     * fragment of road, such as a car park whose entrance is missing from the map, snaps to a
+     * road that reaches the rest of the map instead.
+     * @param only True to snap only to the largest component, false (the default) to snap
+     * to any road.
+     */
+    void snapToLargestComponent(boolean only) {
+        largestComponentOnly = only;
+    }
+
+    /**
+     * Returns the component that snapping for a mode keeps to, or -1 if it may snap to any.
+     */
+    private int snapComponent(TravelMode mode) {
+        return largestComponentOnly ? largestComponent[mode.ordinal()] : -1;
+    }
+
+    private static boolean allows(int modes, TravelMode mode) {
+        return (modes & mode.bit) != 0;
+    }
+
+    /**
+     * Returns the weights of every edge under a routing profile, indexed like
+     * {@link #edgeTarget}. The array is shared with the graph and must not be modified.
+     */
+    double[] weights(RoutingProfile profile) {
+        return profileWeights[profile.ordinal()];
+    }
+
+    /**
+     * Returns the edge weights of a routing profile when travelling in a mode. Modes with a
+     * speed of their own share the lengths in miles; multiply them by
+     * {@link #weightScale} for the profile's unit.
+     */
+    double[] weights(RoutingProfile profile, TravelMode mode) {
+        return mode.speedMph > 0 ? edgeWeight : weights(profile);
+    }
+
+    /**
+     * Returns the factor taking {@link #weights(RoutingProfile, TravelMode)} to the profile's
+     * unit.
+     */
+    double weightScale(RoutingProfile profile, TravelMode mode) {
+        return mode.speedMph > 0 && profile == RoutingProfile.FASTEST ? 3600.0 / mode.speedMph : 1;
+    }
+
+    /**
+     * Returns a lower bound on the cost of a mile of great-circle distance under a routing
+     * profile: 1 for miles, and the time a mile takes at the fastest speed in the graph for
+     * seconds. Multiplied by the distance left, it is an admissible A* heuristic.
+     */
+    double costPerMile(RoutingProfile profile) {
+        return profile == RoutingProfile.FASTEST ? 3600.0 / maxSpeed : 1;
+    }
+
+    /** Returns {@link #costPerMile(RoutingProfile)} when travelling in a mode. */
+    double costPerMile(RoutingProfile profile, TravelMode mode) {
+        return mode.speedMph > 0 ? weightScale(profile, mode) : costPerMile(profile);
+    }
+
+    /**
+     * Returns the length of the edge between two vertices with dense indexes, or their
+     * great-circle distance if there is no such edge.
+     */
+    double edgeLength(int v, int w) {
+        for (int e = firstEdge[v]; e < firstEdge[v + 1]; e++) {
+            if (edgeTarget(v, e) == w) {
+                return edgeWeight[e];
+            }
+        }
+        return distance(lonAt(v), latAt(v), lonAt(w), latAt(w));
     }
 
     /**
@@ -87,8 +972,14 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        validateVertex(v);
-        return nodes.get(v).adj;
+        int i = vertex(v);
+        List<Long> result = new ArrayList<>(firstEdge[i + 1] - firstEdge[i]);
+        for (int e = firstEdge[i]; e < firstEdge[i + 1]; e++) {
+            if (allows(edgeModes[e], TravelMode.DRIVE)) {
+                result.add(ids[edgeTarget(i, e)]);
+            }
+        }
+        return result;
     }
 
     /**
@@ -100,7 +991,9 @@ public class GraphDB {
      * @return The great-circle distance between the two locations from the graph.
      */
     double distance(long v, long w) {
-        return distance(lon(v), lat(v), lon(w), lat(w));
+        int x = vertex(v);
+        int y = vertex(w);
+        return distance(lonAt(x), latAt(x), lonAt(y), latAt(y));
     }
 
     static double distance(double lonV, double latV, double lonW, double latW) {
@@ -127,7 +1020,9 @@ public class GraphDB {
      * @return The initial bearing between the vertices.
      */
     double bearing(long v, long w) {
-        return bearing(lon(v), lat(v), lon(w), lat(w));
+        int x = vertex(v);
+        int y = vertex(w);
+        return bearing(lonAt(x), latAt(x), lonAt(y), latAt(y));
     }
 
     static double bearing(double lonV, double latV, double lonW, double latW) {
@@ -143,38 +1038,67 @@ public class GraphDB {
     }
 
     /**
-     * Returns the vertex closest to the given longitude and latitude.
+     * Returns the vertex closest to the given longitude and latitude that can be driven to.
      * @param lon The target longitude.
      * @param lat The target latitude.
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
+        int i = closest(lon, lat, TravelMode.DRIVE);
+        return i < 0 ? -117 : ids[i];
+    }
+
+    /**
+     * Returns the vertex closest to the given longitude and latitude that a mode may use,
+     * so that a route never starts or ends where it cannot go on. If snapping keeps to the
+     * largest component, only its vertices are considered.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param mode The mode of travel.
+     * @return The dense index of the vertex, or -1 if the mode may use none.
+     */
+    int closest(double lon, double lat, TravelMode mode) {
         double shortest = Double.MAX_VALUE;
-        long ret = -117;
-        for (long id : nodes.keySet()) {
-            Node x = nodes.get(id);
-            double current_dist = distance(lon(id), lat(id), lon, lat);
+        int ret = -1;
+        int only = snapComponent(mode);
+        int[] component = components[mode.ordinal()];
+        for (int i = 0; i < ids.length; i++) {
+            if (!allows(vertexModes[i], mode) || only >= 0 && component[i] != only) {
+                continue;
+            }
+            double current_dist = distance(lonAt(i), latAt(i), lon, lat);
             if (current_dist < shortest) {
                 shortest = current_dist;
-                ret = id;
+                ret = i;
             }
         }
         return ret;
     }
 
+    /**
+     * Returns the point closest to the given longitude and latitude on any road a mode may
+     * use. On long roads with few vertices this can be much closer than the closest vertex.
+     * If snapping keeps to the largest component, only its roads are considered.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param mode The mode of travel.
+     * @return The point, or null if the mode may use no road.
+     */
+    RoadPoint closestRoad(double lon, double lat, TravelMode mode) {
+        return segmentIndex.closest(lon, lat, mode, snapComponent(mode));
+    }
+
     /**
      * Gets the longitude of a vertex.
      * @param v The id of the vertex.
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        validateVertex(v);
-        return nodes.get(v).lon;
+        return lonAt(vertex(v));
     }
 
     double locLon(long v) {
-        validateLocation(v);
-        return locations.get(v).lon;
+        return locations.lon(locationRow(v));
     }
 
     /**
@@ -183,13 +1107,11 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        validateVertex(v);
-        return nodes.get(v).lat;
+        return latAt(vertex(v));
     }
 
     double locLat(long v) {
-        validateLocation(v);
-        return locations.get(v).lat;
+        return locations.lat(locationRow(v));
     }
 
     /**
@@ -198,8 +1120,7 @@ public class GraphDB {
      * @return The tagged name of the vertex.
      */
     String getName(long v) {
-        validateLocation(v);
-        return locations.get(v).name;
+        return locations.name(locationRow(v));
     }
 
     /**
@@ -214,43 +1135,51 @@ public class GraphDB {
     }
 
     /**
-     * Keeps track of a new location with a name.
-     * @param id id of the location
-     * @param lon longitude of the node
-     * @param lat latitude of the location
-     * @param name name of the location
+     * Adds edge v-w to this graph.
+     * @param v one vertex in the edge
+     * @param w another vertex in the edge
      */
-    void addLocation(long id, double lon, double lat, String name) {
-        Location loc = new Location(lon, lat, name);
-        locations.put(id, loc);
+    void addEdge(long v, long w) {
+        addEdge(v, w, DEFAULT_SPEED);
     }
 
     /**
-     * Adds edge v-w to this graph.
+     * Adds edge v-w with a speed to this graph.
      * @param v one vertex in the edge
      * @param w another vertex in the edge
+     * @param speedMph speed along the edge in mph, from 1 to 255
      */
-    void addEdge(long v, long w) {
-        validateVertex(v);
-        validateVertex(w);
-        nodes.get(v).adj.add(w);
-        nodes.get(w).adj.add(v);
+    void addEdge(long v, long w, int speedMph) {
+        addEdge(v, w, speedMph, TravelMode.ALL);
+    }
+
+    /**
+     * Adds edge v-w with a speed, open to some modes of travel, to this graph.
+     * @param v one vertex in the edge
+     * @param w another vertex in the edge
+     * @param speedMph speed along the edge in mph, from 1 to 255
+     * @param modes bits of the {@link TravelMode}s allowed on the edge
+     */
+    void addEdge(long v, long w, int speedMph, int modes) {
+        Node x = node(v);
+        Node y = node(w);
+        double weight = distance(x.lon, x.lat, y.lon, y.lat);
+        x.addEdge(w, weight, (byte) speedMph, (byte) modes);
+        y.addEdge(v, weight, (byte) speedMph, (byte) modes);
     }
 
     /**
-     * Adds a location name to locations map and Trie.
+     * Keeps track of a new location with a name. It is written to the location dictionary
+     * once the graph has been parsed, or ignored if a prebuilt dictionary was mapped.
      * @param id id of node for the given location name
-     * @param locationName node's cleaned name
+     * @param lon longitude of the location
+     * @param lat latitude of the location
+     * @param locationName node's full name
      */
     void addName(long id, double lon, double lat, String locationName) {
-        String cleanedName = cleanString(locationName);
-
-        if (!names.containsKey(cleanedName)) {
-            names.put(cleanedName, new LinkedList<>());
+        if (stagedLocations != null) {
+            stagedLocations.add(id, lon, lat, locationName, normalizer.clean(locationName));
         }
-        names.get(cleanedName).add(id);
-        addLocation(id, lon, lat, locationName);
-        st.put(cleanedName, id);
     }
 
     /**
@@ -258,10 +1187,35 @@ public class GraphDB {
      * @param way list of nodes
      */
     void addWay(List<Long> way, String wayName) {
-        nodes.get(way.get(0)).wayNames.add(wayName);
+        addWay(way, wayName, DEFAULT_SPEED);
+    }
+
+    /**
+     * Adds all edges in a way, at the way's speed.
+     * @param way list of nodes
+     * @param speedMph speed along the way in mph, from 1 to 255
+     */
+    void addWay(List<Long> way, String wayName, int speedMph) {
+        addWay(way, wayName, speedMph, TravelMode.ALL);
+    }
+
+    /**
+     * Adds all edges in a way, at the way's speed and open to some modes of travel.
+     * @param way list of nodes
+     * @param speedMph speed along the way in mph, from 1 to 255
+     * @param modes bits of the {@link TravelMode}s allowed on the way
+     */
+    void addWay(List<Long> way, String wayName, int speedMph, int modes) {
+        Integer wayId = wayIds.get(wayName);
+        if (wayId == null) {
+            wayId = wayNames.size();
+            wayNames.add(wayName);
+            wayIds.put(wayName, wayId);
+        }
+        nodes.get(way.get(0)).addWay(wayId);
         for (int i = 1; i < way.size(); i++) {
-            addEdge(way.get(i - 1), way.get(i));
-            nodes.get(way.get(i)).wayNames.add(wayName);
+            addEdge(way.get(i - 1), way.get(i), speedMph, modes);
+            nodes.get(way.get(i)).addWay(wayId);
         }
     }
 
@@ -271,76 +1225,201 @@ public class GraphDB {
      */
     Set<String> getWayNames(long v) {
         Set<String> result = new HashSet<>();
-        for (String way : nodes.get(v).wayNames) {
-            result.add(way);
+        int i = vertex(v);
+        for (int k = firstWay[i]; k < firstWay[i + 1]; k++) {
+            result.add(wayNames.get(vertexWays[k]));
         }
         return result;
     }
 
+    /**
+     * Returns the first way of the vertex with a dense index. The interned ids of its ways
+     * are wayAt(firstWay(i)) to wayAt(firstWay(i + 1) - 1), in increasing order.
+     * @param i A dense index, or {@link #vertexCount} for the end of the last vertex's ways.
+     */
+    int firstWay(int i) {
+        return firstWay[i];
+    }
+
+    /** Returns the interned id of the k-th way in the rows of {@link #firstWay}. */
+    int wayAt(int k) {
+        return vertexWays[k];
+    }
+
+    /** Returns whether the vertex with a dense index is on a way, given its interned id. */
+    boolean onWay(int i, int way) {
+        return Arrays.binarySearch(vertexWays, firstWay[i], firstWay[i + 1], way) >= 0;
+    }
+
+    /**
+     * @param way an id returned by {@link #wayAt}
+     * @return the name of the way
+     */
+    String wayName(int way) {
+        return wayNames.get(way);
+    }
+
     /**
      * Returns a list of keys that share a prefix.
      * @param prefix prefix entered in search box
      * @return list of keys
      */
     public List<String> keysWithPrefix(String prefix) {
-        List<String> result = new LinkedList<>();
-        for (String key : st.keysWithPrefix(cleanString(prefix))) {
-            Long id = names.get(key).get(0);
-            String fullName = getName(id);
-            result.add(fullName);
+        String cleaned = normalizer.clean(prefix);
+        int end = locations.endNameWithPrefix(cleaned);
+        int first = locations.firstNameWithPrefix(cleaned);
+        List<String> result = new ArrayList<>(end - first);
+        for (int name = first; name < end; name++) {
+            result.add(locations.name(locations.firstRow(name)));
         }
         return result;
     }
 
+    /**
+     * Returns the cleaned keys that start with the given cleaned prefix, in sorted order.
+     * @param cleanedPrefix prefix that has already been cleaned with {@link #cleanName}
+     * @return list of cleaned keys
+     */
+    List<String> cleanedKeysWithPrefix(String cleanedPrefix) {
+        int end = locations.endNameWithPrefix(cleanedPrefix);
+        int first = locations.firstNameWithPrefix(cleanedPrefix);
+        List<String> result = new ArrayList<>(end - first);
+        for (int name = first; name < end; name++) {
+            result.add(locations.cleanedName(name));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the full name of the first location with the given cleaned name.
+     * @param cleanedName a cleaned key returned by {@link #cleanedKeysWithPrefix}
+     * @return full name of the location
+     */
+    String nameOf(String cleanedName) {
+        return locations.name(locations.firstRow(locations.findName(cleanedName)));
+    }
+
+    /**
+     * Cleans a name or search term the same way this graph's location names were cleaned.
+     * @param s Input string.
+     * @return Cleaned string.
+     */
+    String cleanName(String s) {
+        return normalizer.clean(s);
+    }
+
+    /**
+     * Returns the ids of all locations whose cleaned name matches the cleaned locationName.
+     * @param locationName full name of a location, in any case and punctuation
+     * @return list of location ids, empty if there is no such location
+     */
     public List<Long> getLocations(String locationName) {
         List<Long> result = new LinkedList<>();
-        for (long v : names.get(cleanString(locationName))) {
-            result.add(v);
+        int name = locations.findName(normalizer.clean(locationName));
+        if (name < 0) {
+            return result;
+        }
+        for (int row = locations.firstRow(name); row < locations.endRow(name); row++) {
+            result.add(locations.id(row));
         }
         return result;
     }
 
     /**
+     * Returns the dense index of a vertex with a single hash probe.
+     * throw an IllegalArgumentException if vertex not in graph
+     * @param v vertex to look up
+     */
+    private int vertex(long v) {
+        int i = index.get(v);
+        if (i < 0) {
+            throw new IllegalArgumentException("Vertex " + v + " is not in the graph.");
+        }
+        return i;
+    }
+
+    /**
+     * Returns the node of a vertex while the graph is built.
      * throw an IllegalArgumentException if vertex not in graph
-     * @param v vertex to validate
+     * @param v vertex to look up
      */
-    private void validateVertex(long v) {
-        if (!nodes.containsKey(v)) {
+    private Node node(long v) {
+        Node x = nodes.get(v);
+        if (x == null) {
             throw new IllegalArgumentException("Vertex " + v + " is not in the graph.");
         }
+        return x;
     }
 
-    private void validateLocation(long v) {
-        if (!locations.containsKey(v)) {
+    /**
+     * Returns the dictionary row of a named location.
+     * throw an IllegalArgumentException if the vertex has no name
+     * @param v location to look up
+     */
+    private int locationRow(long v) {
+        int row = locations.row(v);
+        if (row < 0) {
             throw new IllegalArgumentException("Vertex " + v + " does not have a name.");
         }
+        return row;
     }
 
+    private static final int[] NO_WAYS = new int[0];
+    /** Bits of each coordinate of the grid the Hilbert curve numbering vertices runs over. */
+    static final int HILBERT_BITS = 15;
+    /** Speed in mph of edges added without one. */
+    private static final int DEFAULT_SPEED = 25;
+    /** Units per degree of the coordinates of compact graphs, the precision of OSM files. */
+    static final double FIXED_POINT = 1e7;
+
     // Graph node that stores information about an OpenStreetMaps node
-    private class Node {
+    private static class Node {
         double lon;
         double lat;
-        List<Long> adj;
-        Set<String> wayNames;
+        // neighbors, edge lengths, speeds and modes, packed into rows once the graph is built
+        long[] adj;
+        double[] weights;
+        byte[] speeds;
+        byte[] modes;
+        int degree;
+        int[] ways;
 
         Node(double lon, double lat) {
             this.lon = lon;
             this.lat = lat;
-            adj = new LinkedList<>();
-            wayNames = new HashSet<>();
+            adj = new long[2];
+            weights = new double[2];
+            speeds = new byte[2];
+            modes = new byte[2];
+            ways = NO_WAYS;
         }
-    }
 
-    // Class to store information about locations with names
-    private class Location {
-        double lon;
-        double lat;
-        String name = "";
+        void addEdge(long w, double weight, byte speed, byte mode) {
+            if (degree == adj.length) {
+                adj = Arrays.copyOf(adj, 2 * degree);
+                weights = Arrays.copyOf(weights, 2 * degree);
+                speeds = Arrays.copyOf(speeds, 2 * degree);
+                modes = Arrays.copyOf(modes, 2 * degree);
+            }
+            adj[degree] = w;
+            weights[degree] = weight;
+            speeds[degree] = speed;
+            modes[degree] = mode;
+            degree++;
+        }
 
-        Location(double lon, double lat, String name) {
-            this.lon = lon;
-            this.lat = lat;
-            this.name = name;
+        // inserts a way id, keeping ways sorted and free of duplicates
+        void addWay(int way) {
+            int i = Arrays.binarySearch(ways, way);
+            if (i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            int[] grown = new int[ways.length + 1];
+            System.arraycopy(ways, 0, grown, 0, i);
+            grown[i] = way;
+            System.arraycopy(ways, i, grown, i + 1, ways.length - i);
+            ways = grown;
         }
     }
 }
@@ -0,0 +1,19 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight recorder event for each phase of building a {@link GraphDB}. */
+@Name("bearmaps.GraphLoad")
+@Label("Graph Load Phase")
+@Category("BearMaps")
+@Description("One phase of loading the OSM file into a GraphDB")
+class GraphLoadEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Nodes")
+    @Description("Nodes in the graph when the phase ended")
+    int nodes;
+}
@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The part of the graph within several budgets of one vertex, such as distances or travel
+ * times, found by a single search up to the largest budget.
+ *
+ * Each budget's outline is the boundary of a grid of square cells, covering every reachable
+ * vertex and every road between two reachable vertices. Cells are a 32nd of the farthest the
+ * largest budget could reach across, so the grid stays small however large the budget. The
+ * boundary comes back as closed rings of (lon, lat) corners: outer rings counterclockwise and
+ * holes clockwise, as in GeoJSON.
+ */
+public class Isochrone {
+    /** Cells across the radius of the largest budget. */
+    private static final int CELLS_PER_BUDGET = 32;
+    private static final double MIN_CELL_MILES = 0.005;
+    private static final double MILES_PER_DEGREE = 3963 * Math.PI / 180;
+    /** Directions of boundary edges, counterclockwise, as bits of a corner's edges. */
+    private static final int EAST = 0, NORTH = 1, WEST = 2, SOUTH = 3;
+
+    /** The budgets in the search's unit, in increasing order. */
+    final double[] budgets;
+    /** Ids of the vertices within the largest budget, in order of distance. */
+    final long[] vertices;
+    /** Distances of those vertices, in the search's unit. */
+    final double[] distances;
+    /** The vertices within budgets[i] are the first counts[i] of them. */
+    final int[] counts;
+    /** For each budget, its boundary rings as lon, lat, lon, lat, ...; first point repeated. */
+    final List<List<double[]>> rings;
+
+    private final double originLon;
+    private final double originLat;
+    private final double cellLon;
+    private final double cellLat;
+    private final int width;
+    private final int height;
+    private final boolean[] occupied;
+
+    /**
+     * Builds the isochrone found by a search.
+     * @param g The graph searched.
+     * @param search A search that just ran within the largest budget.
+     * @param settledCount The number of vertices it settled.
+     * @param budgets The budgets in increasing order.
+     * @param maxMiles The farthest, in great-circle miles, the largest budget could reach.
+     * @param mode The mode the search travelled in, whose roads alone are outlined.
+     */
+    Isochrone(GraphDB g, DijkstraSearch search, int settledCount, double[] budgets,
+              double maxMiles, TravelMode mode) {
+        this.budgets = budgets;
+        vertices = new long[settledCount];
+        distances = new double[settledCount];
+        double minLon = Double.POSITIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < settledCount; i++) {
+            int v = search.settled(i);
+            vertices[i] = g.id(v);
+            distances[i] = search.distTo(v);
+            minLon = Math.min(minLon, g.lonAt(v));
+            maxLon = Math.max(maxLon, g.lonAt(v));
+            minLat = Math.min(minLat, g.latAt(v));
+            maxLat = Math.max(maxLat, g.latAt(v));
+        }
+        counts = new int[budgets.length];
+        int n = 0;
+        for (int k = 0; k < budgets.length; k++) {
+            while (n < settledCount && distances[n] <= budgets[k]) {
+                n++;
+            }
+            counts[k] = n;
+        }
+
+        /* A grid with an empty border, so every boundary has cells on both sides; half a
+         * cell more on each side keeps rounding from putting vertices in the border. */
+        double cellMiles = Math.max(MIN_CELL_MILES, maxMiles / CELLS_PER_BUDGET);
+        cellLat = cellMiles / MILES_PER_DEGREE;
+        cellLon = cellLat / Math.cos(Math.toRadians(g.latAt(search.settled(0))));
+        originLon = minLon - 1.5 * cellLon;
+        originLat = minLat - 1.5 * cellLat;
+        width = (int) ((maxLon - originLon) / cellLon + 1.5) + 1;
+        height = (int) ((maxLat - originLat) / cellLat + 1.5) + 1;
+        occupied = new boolean[width * height];
+
+        /* Budgets only add cells, so each one starts from the cells of the last. */
+        rings = new ArrayList<>(budgets.length);
+        int from = 0;
+        for (int k = 0; k < budgets.length; k++) {
+            for (int i = from; i < counts[k]; i++) {
+                int v = search.settled(i);
+                occupy(g.lonAt(v), g.latAt(v));
+                for (int e = g.firstEdge(v); e < g.firstEdge(v + 1); e++) {
+                    int w = g.edgeTarget(v, e);
+                    if (search.distTo(w) <= budgets[k] && (g.edgeModes(e) & mode.bit) != 0) {
+                        occupyRoad(g.lonAt(v), g.latAt(v), g.lonAt(w), g.latAt(w));
+                    }
+                }
+            }
+            from = counts[k];
+            rings.add(trace());
+        }
+    }
+
+    private void occupy(double lon, double lat) {
+        int x = (int) ((lon - originLon) / cellLon);
+        int y = (int) ((lat - originLat) / cellLat);
+        occupied[y * width + x] = true;
+    }
+
+    /** Occupies the cells along a road, sampled every half cell. */
+    private void occupyRoad(double lonV, double latV, double lonW, double latW) {
+        int steps = (int) Math.ceil(2 * Math.max(Math.abs(lonW - lonV) / cellLon,
+                Math.abs(latW - latV) / cellLat));
+        for (int s = 1; s < steps; s++) {
+            double t = (double) s / steps;
+            occupy(lonV + t * (lonW - lonV), latV + t * (latW - latV));
+        }
+    }
+
+    private boolean occupied(int x, int y) {
+        return occupied[y * width + x];
+    }
+
+    /**
+     * Traces the boundary of the occupied cells. Every side between an occupied and an empty
+     * cell is an edge between two grid corners, directed so that the occupied cell is on its
+     * left; the edges then join up into rings. Where two occupied cells only touch at a
+     * corner, the ring turns left, so each cell's ring stays around it.
+     */
+    private List<double[]> trace() {
+        int cornersWide = width + 1;
+        byte[] edges = new byte[cornersWide * (height + 1)];
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                if (!occupied(x, y)) {
+                    continue;
+                }
+                if (!occupied(x, y - 1)) {
+                    edges[y * cornersWide + x] |= 1 << EAST;
+                }
+                if (!occupied(x + 1, y)) {
+                    edges[y * cornersWide + x + 1] |= 1 << NORTH;
+                }
+                if (!occupied(x, y + 1)) {
+                    edges[(y + 1) * cornersWide + x + 1] |= 1 << WEST;
+                }
+                if (!occupied(x - 1, y)) {
+                    edges[(y + 1) * cornersWide + x] |= 1 << SOUTH;
+                }
+            }
+        }
+
+        List<double[]> result = new ArrayList<>();
+        byte[] used = new byte[edges.length];
+        double[] ring = new double[64];
+        for (int start = 0; start < edges.length; start++) {
+            while ((edges[start] & ~used[start]) != 0) {
+                int startDir = Integer.numberOfTrailingZeros(edges[start] & ~used[start]);
+                int corner = start;
+                int dir = startDir;
+                int prevDir = -1;
+                int n = 0;
+                while (true) {
+                    used[corner] |= 1 << dir;
+                    if (dir != prevDir) {
+                        /* Corners where the boundary turns; straight runs need no points. */
+                        if (n + 2 > ring.length) {
+                            ring = Arrays.copyOf(ring, 2 * ring.length);
+                        }
+                        ring[n++] = originLon + (corner % cornersWide) * cellLon;
+                        ring[n++] = originLat + (corner / cornersWide) * cellLat;
+                    }
+                    prevDir = dir;
+                    corner = step(corner, dir, cornersWide);
+                    dir = nextDir(edges[corner], dir);
+                    if (corner == start && dir == startDir) {
+                        break;
+                    }
+                }
+                double[] closed = Arrays.copyOf(ring, n + 2);
+                closed[n] = ring[0];
+                closed[n + 1] = ring[1];
+                result.add(closed);
+            }
+        }
+        return result;
+    }
+
+    private static int step(int corner, int dir, int cornersWide) {
+        switch (dir) {
+            case EAST:
+                return corner + 1;
+            case NORTH:
+                return corner + cornersWide;
+            case WEST:
+                return corner - 1;
+            default:
+                return corner - cornersWide;
+        }
+    }
+
+    /** Returns the edge leaving a corner after arriving in direction dir: left first. */
+    private static int nextDir(byte edges, int dir) {
+        int left = (dir + 1) % 4;
+        if ((edges & 1 << left) != 0) {
+            return left;
+        }
+        if ((edges & 1 << dir) != 0) {
+            return dir;
+        }
+        return (dir + 3) % 4;
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming JSON writer for the server's fixed response shapes. Values are written straight
+ * to the response stream as they are produced, without reflection and without building the
+ * response as a String first; in particular a raster's PNG is base64 encoded a chunk at a
+ * time instead of into one multi-megabyte String.
+ *
+ * {@link #open} compresses the response with gzip or deflate when the client accepts either.
+ * Compression runs at the fastest level: most of the bytes are base64 encoded PNG data, which
+ * compresses about as well at every level.
+ */
+final class JsonResponse implements Closeable {
+    /** Responses shorter than this are not worth compressing. */
+    static final int MIN_COMPRESS_LENGTH = 1024;
+    private static final int MAX_DEPTH = 32;
+    /** Bytes of input per base64 chunk; a multiple of 3, so chunks need no padding. */
+    private static final int BASE64_CHUNK = 3 * 4096;
+
+    private final Writer out;
+    /** For every open object or array, whether it already has a member. */
+    private final boolean[] hasMember = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    JsonResponse(OutputStream stream) {
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8),
+                1 << 14);
+    }
+
+    /**
+     * Starts a JSON response, compressed if the request accepts gzip or deflate.
+     * @param req Request being answered.
+     * @param res Its response; nothing else may be written to it.
+     * @param contentType Content type of the response.
+     * @return A writer for the body, to be closed when done.
+     */
+    static JsonResponse open(spark.Request req, spark.Response res, String contentType)
+            throws IOException {
+        res.type(contentType);
+        return new JsonResponse(compressed(req, res, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Sends an already serialized JSON body, compressed if the request accepts it and the
+     * body is long enough to be worth it.
+     */
+    static void send(spark.Request req, spark.Response res, String contentType, String json)
+            throws IOException {
+        res.type(contentType);
+        try (OutputStream os = compressed(req, res, json.length())) {
+            os.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static OutputStream compressed(spark.Request req, spark.Response res, int length)
+            throws IOException {
+        res.header("Vary", "Accept-Encoding");
+        String encoding = length < MIN_COMPRESS_LENGTH ? "identity"
+                : chooseEncoding(req.headers("Accept-Encoding"));
+        OutputStream raw = res.raw().getOutputStream();
+        switch (encoding) {
+            case "gzip":
+                res.header("Content-Encoding", "gzip");
+                return new GZIPOutputStream(raw, 1 << 14) {
+                    {
+                        def.setLevel(Deflater.BEST_SPEED);
+                    }
+                };
+            case "deflate":
+                res.header("Content-Encoding", "deflate");
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                return new DeflaterOutputStream(raw, deflater, 1 << 14) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        deflater.end();
+                    }
+                };
+            default:
+                return raw;
+        }
+    }
+
+    /**
+     * Picks the response encoding for an Accept-Encoding header: gzip if accepted, else
+     * deflate if accepted, else identity. Codings with q=0 are not accepted.
+     */
+    static String chooseEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return "identity";
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim().toLowerCase();
+            boolean accepted = true;
+            for (int i = 1; i < params.length; i++) {
+                String p = params[i].trim().replace(" ", "");
+                if (p.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(p.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("*")) {
+                gzip |= accepted;
+            } else if (coding.equals("deflate")) {
+                deflate |= accepted;
+            }
+        }
+        return gzip ? "gzip" : deflate ? "deflate" : "identity";
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasMember[depth - 1]) {
+                out.write(',');
+            }
+            hasMember[depth - 1] = true;
+        }
+    }
+
+    private JsonResponse open(char c) throws IOException {
+        beforeValue();
+        out.write(c);
+        hasMember[depth++] = false;
+        return this;
+    }
+
+    private JsonResponse close(char c) throws IOException {
+        depth--;
+        out.write(c);
+        return this;
+    }
+
+    JsonResponse beginObject() throws IOException {
+        return open('{');
+    }
+
+    JsonResponse endObject() throws IOException {
+        return close('}');
+    }
+
+    JsonResponse beginArray() throws IOException {
+        return open('[');
+    }
+
+    JsonResponse endArray() throws IOException {
+        return close(']');
+    }
+
+    /** Writes the name of the next member of the current object. */
+    JsonResponse name(String name) throws IOException {
+        beforeValue();
+        string(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonResponse value(String s) throws IOException {
+        beforeValue();
+        if (s == null) {
+            out.write("null");
+        } else {
+            string(s);
+        }
+        return this;
+    }
+
+    JsonResponse value(double d) throws IOException {
+        beforeValue();
+        out.write(Double.isNaN(d) || Double.isInfinite(d) ? "null" : Double.toString(d));
+        return this;
+    }
+
+    JsonResponse value(long l) throws IOException {
+        beforeValue();
+        out.write(Long.toString(l));
+        return this;
+    }
+
+    JsonResponse value(boolean b) throws IOException {
+        beforeValue();
+        out.write(b ? "true" : "false");
+        return this;
+    }
+
+    /** Writes data as a base64 string, a chunk at a time. */
+    JsonResponse base64Value(byte[] data, int length) throws IOException {
+        beforeValue();
+        out.write('"');
+        Base64.Encoder encoder = Base64.getEncoder();
+        byte[] chunk = new byte[BASE64_CHUNK];
+        byte[] encoded = new byte[BASE64_CHUNK / 3 * 4];
+        char[] chars = new char[encoded.length];
+        for (int off = 0; off < length; off += BASE64_CHUNK) {
+            int n = Math.min(BASE64_CHUNK, length - off);
+            byte[] in = chunk;
+            if (n == BASE64_CHUNK) {
+                System.arraycopy(data, off, chunk, 0, n);
+            } else {
+                in = new byte[n];
+                System.arraycopy(data, off, in, 0, n);
+            }
+            int m = encoder.encode(in, encoded);
+            for (int i = 0; i < m; i++) {
+                chars[i] = (char) encoded[i];
+            }
+            out.write(chars, 0, m);
+        }
+        out.write('"');
+        return this;
+    }
+
+    private void string(String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String escape = null;
+            if (c == '"' || c == '\\') {
+                escape = "\\" + c;
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\b') {
+                escape = "\\b";
+            } else if (c == '\f') {
+                escape = "\\f";
+            } else if (c < 0x20 || c == '<' || c == '>' || c == '&' || c == '='
+                    || c == '\'' || c == '\u2028' || c == '\u2029') {
+                /* Like Gson, also escape HTML characters so responses are safe to embed. */
+                escape = String.format("\\u%04x", (int) c);
+            }
+            if (escape != null) {
+                out.write(s, start, i - start);
+                out.write(escape);
+                start = i + 1;
+            }
+        }
+        out.write(s, start, s.length() - start);
+        out.write('"');
+    }
+
+    /** Finishes the response, including any compression, and closes the stream. */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
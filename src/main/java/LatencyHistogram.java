@@ -0,0 +1,107 @@
+/**
+ * Histogram of latencies in nanoseconds, in the style of HdrHistogram: values are counted in
+ * log-linear buckets (64 linear sub-buckets for every power of two), so the whole range of a
+ * long fits in a few thousand counters and every value is kept to within about 1.6%.
+ *
+ * Recording is a couple of shifts and an increment, with no allocation and no locking. A
+ * histogram must therefore have a single writer; concurrent recorders each keep their own
+ * and {@link #add} them up when a report is needed.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = 2 * SUB_COUNT + (62 - SUB_BITS) * SUB_COUNT;
+
+    private final long[] counts = new long[NUM_BUCKETS];
+    private long totalCount;
+    private long sum;
+    private long max;
+
+    static int bucket(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return 2 * SUB_COUNT + (shift - 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    /** Returns the middle of the range of values counted in bucket i. */
+    static long value(int i) {
+        if (i < 2 * SUB_COUNT) {
+            return i;
+        }
+        int shift = (i - 2 * SUB_COUNT) / SUB_COUNT + 1;
+        long sub = (i - 2 * SUB_COUNT) % SUB_COUNT + SUB_COUNT;
+        return (sub << shift) + (1L << (shift - 1));
+    }
+
+    /**
+     * Records one value.
+     * @param nanos Latency in nanoseconds; negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        counts[bucket(nanos)]++;
+        totalCount++;
+        sum += Math.max(nanos, 0);
+        max = Math.max(max, nanos);
+    }
+
+    /** Adds all values recorded by other to this histogram. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return totalCount;
+    }
+
+    /** Returns the sum of all recorded values, in nanoseconds. */
+    public long sum() {
+        return sum;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall.
+     * @param percentile Percentage between 0 and 100.
+     * @return The value at percentile, or 0 if nothing was recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(value(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the number of values no greater than limit. Values in the bucket holding limit
+     * are counted if that bucket's middle value is no greater than limit.
+     */
+    public long countAtOrBelow(long limit) {
+        long n = 0;
+        for (int i = 0; i < NUM_BUCKETS && value(i) <= limit; i++) {
+            n += counts[i];
+        }
+        return n;
+    }
+}
@@ -0,0 +1,509 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays map sessions against MapServer at a fixed request rate and reports latency per
+ * endpoint.
+ *
+ * Sessions are either synthesised to look like what map.js sends (drags, arrow keys and zooms
+ * that each fetch a new raster; autocomplete requests for every keystroke after the second,
+ * then a full search; routes between two double clicks; clearing the route), or read from a
+ * file written by MapServer when run with -Dbearmaps.record=FILE.
+ *
+ * The load is open loop: each request has an intended start time fixed in advance by the
+ * session's think times, scaled so that all virtual users together send the target rate, and
+ * a request is sent at its intended time whether or not the previous ones have finished.
+ * Latency is measured from the intended start rather than from when a worker got around to
+ * sending it, so a stalled server is charged for the requests queued behind the stall
+ * instead of hiding them (the coordinated omission problem). Service time, measured from the
+ * actual send, is reported alongside.
+ *
+ * Without --url, the server is started in this JVM, on a synthetic map unless --osm and
+ * --img are given. Usage: {@code java LoadGenerator [--url URL] [--osm FILE --img DIR]
+ * [--nodes N] [--rate R] [--duration S] [--users U] [--threads T] [--seed S]
+ * [--sessions FILE] [--save-sessions FILE]}.
+ */
+public class LoadGenerator {
+    /** Endpoints reported on, in order. */
+    static final String[] ENDPOINTS = {"/raster", "/route", "/search", "/clear_route"};
+
+    /** Levels and deltas used by map.js. */
+    private static final int MIN_LEVEL = 2;
+    private static final int MAX_LEVEL = 7;
+    private static final double BASE_MOVE_DELTA = 0.03;
+    private static final double[] WINDOWS = {1120, 800, 1440, 900, 1920, 1080, 800, 600};
+    private static final String[] SEARCH_TERMS = {"Top Dog", "Cafe", "Library", "Market",
+        "Telegraph", "Shattuck", "Bakery", "Pharmacy", "Station", "Tacos", "Theater",
+        "Hardware", "Books", "Noodle House", "Bank", "Pizzeria"};
+
+    /** One request of a session: the path and query, sent thinkMillis after the last one. */
+    static class Step {
+        final long thinkMillis;
+        final String request;
+
+        Step(long thinkMillis, String request) {
+            this.thinkMillis = thinkMillis;
+            this.request = request;
+        }
+    }
+
+    /** A request with its intended start, in nanoseconds from the start of the run. */
+    private static class Scheduled {
+        final long start;
+        final String request;
+
+        Scheduled(long start, String request) {
+            this.start = start;
+            this.request = request;
+        }
+    }
+
+    /** Latencies of one endpoint, recorded by a single worker thread. */
+    private static class Recorder {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram service = new LatencyHistogram();
+        long errors;
+    }
+
+    /**
+     * Synthesises one session of a user moving around the map, searching and routing, with
+     * think times like those between a person's clicks and keystrokes.
+     */
+    static List<Step> synthesizeSession(Random random) {
+        List<Step> steps = new ArrayList<>();
+        int window = 2 * random.nextInt(WINDOWS.length / 2);
+        double w = WINDOWS[window];
+        double h = WINDOWS[window + 1];
+        /* The starting view of map.js, at about level 3. */
+        double ullon = -122.27625;
+        double ullat = 37.88;
+        double wdpp = 0.00004291534423828125;
+        double hdpp = 0.00003388335630702399;
+        int level = 3;
+        steps.add(new Step(0, raster(ullon, ullat, wdpp, hdpp, w, h)));
+
+        int actions = 10 + random.nextInt(40);
+        for (int a = 0; a < actions; a++) {
+            long think = thinkTime(random, 2000);
+            int action = random.nextInt(100);
+            if (action < 25) {
+                /* Drag the map by up to half the window. */
+                ullon -= (random.nextDouble() - 0.5) * w * wdpp;
+                ullat += (random.nextDouble() - 0.5) * h * hdpp;
+                steps.add(new Step(think, raster(ullon, ullat, wdpp, hdpp, w, h)));
+            } else if (action < 40) {
+                /* A few presses of an arrow key. */
+                double delta = BASE_MOVE_DELTA / Math.pow(2, level);
+                int dx = random.nextInt(3) - 1;
+                int dy = dx == 0 ? (random.nextBoolean() ? 1 : -1) : 0;
+                for (int k = 1 + random.nextInt(4); k > 0; k--) {
+                    ullon += dx * delta;
+                    ullat += dy * delta;
+                    steps.add(new Step(think, raster(ullon, ullat, wdpp, hdpp, w, h)));
+                    think = thinkTime(random, 250);
+                }
+            } else if (action < 65) {
+                /* Zoom in or out around the center of the window. */
+                int newLevel = Math.max(MIN_LEVEL, Math.min(MAX_LEVEL,
+                        level + (random.nextBoolean() ? 1 : -1)));
+                double scale = Math.pow(2, level - newLevel);
+                ullon += w * wdpp * (1 - scale) / 2;
+                ullat -= h * hdpp * (1 - scale) / 2;
+                wdpp *= scale;
+                hdpp *= scale;
+                level = newLevel;
+                steps.add(new Step(think, raster(ullon, ullat, wdpp, hdpp, w, h)));
+            } else if (action < 80) {
+                /* Type a name: autocomplete from the second character, then pick it. */
+                String term = SEARCH_TERMS[random.nextInt(SEARCH_TERMS.length)];
+                int typed = Math.min(term.length(), 2 + random.nextInt(6));
+                for (int k = 2; k <= typed; k++) {
+                    steps.add(new Step(think, "/search?term=" + encode(term.substring(0, k))));
+                    think = thinkTime(random, 150);
+                }
+                if (random.nextInt(3) > 0) {
+                    steps.add(new Step(thinkTime(random, 1000),
+                            "/search?term=" + encode(term) + "&full=true"));
+                    steps.add(new Step(0, raster(ullon, ullat, wdpp, hdpp, w, h)));
+                }
+            } else if (action < 92) {
+                /* Double click a start and an end inside the window. */
+                String query = String.format(Locale.US,
+                        "/route?start_lon=%s&start_lat=%s&end_lon=%s&end_lat=%s",
+                        ullon + random.nextDouble() * w * wdpp,
+                        ullat - random.nextDouble() * h * hdpp,
+                        ullon + random.nextDouble() * w * wdpp,
+                        ullat - random.nextDouble() * h * hdpp);
+                steps.add(new Step(think, query));
+                steps.add(new Step(0, raster(ullon, ullat, wdpp, hdpp, w, h)));
+            } else {
+                steps.add(new Step(think, "/clear_route"));
+                steps.add(new Step(0, raster(ullon, ullat, wdpp, hdpp, w, h)));
+            }
+            /* People rarely pan far off the map, so keep the center of the window on it. */
+            ullon = clamp(ullon, MapServer.ROOT_ULLON - w * wdpp / 2,
+                    MapServer.ROOT_LRLON - w * wdpp / 2);
+            ullat = clamp(ullat, MapServer.ROOT_LRLAT + h * hdpp / 2,
+                    MapServer.ROOT_ULLAT + h * hdpp / 2);
+        }
+        return steps;
+    }
+
+    private static double clamp(double x, double min, double max) {
+        return Math.max(min, Math.min(max, x));
+    }
+
+    private static long thinkTime(Random random, double meanMillis) {
+        return (long) (-Math.log(1 - random.nextDouble()) * meanMillis);
+    }
+
+    private static String raster(double ullon, double ullat, double wdpp, double hdpp,
+                                 double w, double h) {
+        return String.format(Locale.US,
+                "/raster?ullat=%s&ullon=%s&lrlat=%s&lrlon=%s&w=%s&h=%s",
+                ullat, ullon, ullat - hdpp * h, ullon + wdpp * w, w, h);
+    }
+
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads sessions recorded by MapServer. Each line holds a client, the milliseconds since
+     * the recording started and a request; a client's requests make up one session.
+     */
+    static List<List<Step>> readSessions(File file) throws IOException {
+        Map<String, List<Step>> sessions = new LinkedHashMap<>();
+        Map<String, Long> last = new LinkedHashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length < 3) {
+                    continue;
+                }
+                long time = Long.parseLong(parts[1]);
+                long think = time - last.getOrDefault(parts[0], time);
+                last.put(parts[0], time);
+                sessions.computeIfAbsent(parts[0], k -> new ArrayList<>())
+                        .add(new Step(think, parts[2]));
+            }
+        }
+        if (sessions.isEmpty()) {
+            throw new IllegalArgumentException(file + " holds no sessions.");
+        }
+        return new ArrayList<>(sessions.values());
+    }
+
+    /** Writes sessions in the format of {@link #readSessions}. */
+    static void writeSessions(List<List<Step>> sessions, File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            for (int s = 0; s < sessions.size(); s++) {
+                long time = 0;
+                for (Step step : sessions.get(s)) {
+                    time += step.thinkMillis;
+                    out.println("session" + s + "\t" + time + "\t" + step.request);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lays out the requests of numUsers users, each going through sessions one after
+     * another, and scales their think times so that together they send rate requests per
+     * second for durationSeconds.
+     */
+    static List<Scheduled> schedule(List<List<Step>> sessions, int numUsers, double rate,
+                                    double durationSeconds, Random random) {
+        int numRequests = (int) Math.ceil(rate * durationSeconds);
+        List<Scheduled> natural = new ArrayList<>();
+        long[] userTime = new long[numUsers];
+        int[] userSession = new int[numUsers];
+        int[] userStep = new int[numUsers];
+        for (int u = 0; u < numUsers; u++) {
+            /* Spread the users' first requests over a typical session's first minute. */
+            userTime[u] = (long) (random.nextDouble() * 60000);
+            userSession[u] = u % sessions.size();
+        }
+        /* Step the user that is furthest behind until numRequests requests are laid out. */
+        while (natural.size() < numRequests) {
+            int u = 0;
+            for (int v = 1; v < numUsers; v++) {
+                if (userTime[v] < userTime[u]) {
+                    u = v;
+                }
+            }
+            List<Step> session = sessions.get(userSession[u]);
+            Step step = session.get(userStep[u]);
+            userTime[u] += step.thinkMillis;
+            natural.add(new Scheduled(userTime[u], step.request));
+            if (++userStep[u] == session.size()) {
+                userStep[u] = 0;
+                userSession[u] = (userSession[u] + numUsers) % sessions.size();
+                userTime[u] += thinkTime(random, 5000);
+            }
+        }
+        natural.sort(Comparator.comparingLong(s -> s.start));
+
+        long first = natural.get(0).start;
+        double span = Math.max(1, natural.get(natural.size() - 1).start - first);
+        double nanosPerMilli = durationSeconds * 1e9 / span;
+        List<Scheduled> scheduled = new ArrayList<>(natural.size());
+        for (Scheduled s : natural) {
+            scheduled.add(new Scheduled((long) ((s.start - first) * nanosPerMilli), s.request));
+        }
+        return scheduled;
+    }
+
+    /**
+     * Sends every request at its intended time from a pool of worker threads.
+     * @return Merged latencies per endpoint.
+     */
+    static Map<String, Recorder> run(String baseUrl, List<Scheduled> requests, int numThreads)
+            throws InterruptedException {
+        List<Map<String, Recorder>> perThread = new ArrayList<>();
+        ThreadLocal<Map<String, Recorder>> recorders = ThreadLocal.withInitial(() -> {
+            Map<String, Recorder> m = new TreeMap<>();
+            synchronized (perThread) {
+                perThread.add(m);
+            }
+            return m;
+        });
+
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        long start = System.nanoTime();
+        for (Scheduled s : requests) {
+            long intended = start + s.start;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            workers.execute(() -> {
+                long sent = System.nanoTime();
+                boolean ok = send(baseUrl + s.request);
+                long done = System.nanoTime();
+                Recorder r = recorders.get().computeIfAbsent(endpoint(s.request),
+                        k -> new Recorder());
+                r.latency.record(done - intended);
+                r.service.record(done - sent);
+                if (!ok) {
+                    r.errors++;
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+
+        Map<String, Recorder> merged = new TreeMap<>();
+        for (Map<String, Recorder> m : perThread) {
+            for (Map.Entry<String, Recorder> e : m.entrySet()) {
+                Recorder r = merged.computeIfAbsent(e.getKey(), k -> new Recorder());
+                r.latency.add(e.getValue().latency);
+                r.service.add(e.getValue().service);
+                r.errors += e.getValue().errors;
+            }
+        }
+        return merged;
+    }
+
+    static String endpoint(String request) {
+        int q = request.indexOf('?');
+        return q < 0 ? request : request.substring(0, q);
+    }
+
+    /** Sends a GET request and reads the whole response, so the connection can be reused. */
+    private static boolean send(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            int status = connection.getResponseCode();
+            InputStream body = status < 400 ? connection.getInputStream()
+                    : connection.getErrorStream();
+            if (body != null) {
+                byte[] buffer = new byte[1 << 16];
+                while (body.read(buffer) >= 0) {
+                    continue;
+                }
+                body.close();
+            }
+            return status < 400;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return false;
+        }
+    }
+
+    static void report(Map<String, Recorder> results, double durationSeconds) {
+        System.out.println(String.format("%-13s %8s %7s %8s %8s %8s %8s %9s %8s %9s",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms",
+                "p99.9 ms", "max ms", "svc p99"));
+        Recorder total = new Recorder();
+        List<String> names = new ArrayList<>(Arrays.asList(ENDPOINTS));
+        for (String name : results.keySet()) {
+            if (!names.contains(name)) {
+                names.add(name);
+            }
+        }
+        for (String name : names) {
+            Recorder r = results.get(name);
+            if (r != null) {
+                reportLine(name, r, durationSeconds);
+                total.latency.add(r.latency);
+                total.service.add(r.service);
+                total.errors += r.errors;
+            }
+        }
+        reportLine("all", total, durationSeconds);
+    }
+
+    private static void reportLine(String name, Recorder r, double durationSeconds) {
+        LatencyHistogram h = r.latency;
+        System.out.println(String.format(Locale.US,
+                "%-13s %8d %7d %8.1f %8.2f %8.2f %8.2f %9.2f %8.2f %9.2f",
+                name, h.count(), r.errors, h.count() / durationSeconds,
+                h.valueAtPercentile(50) / 1e6, h.valueAtPercentile(90) / 1e6,
+                h.valueAtPercentile(99) / 1e6, h.valueAtPercentile(99.9) / 1e6, h.max() / 1e6,
+                r.service.valueAtPercentile(99) / 1e6));
+    }
+
+    /** Writes a synthetic map with tiles to a temporary folder, unless it is already there. */
+    private static String[] syntheticMap(long numNodes) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "bearmaps-load-" + numNodes);
+        File osm = new File(dir, "synthetic.osm.xml");
+        File imgs = new File(dir, "imgs");
+        File done = new File(dir, "done");
+        if (!done.exists()) {
+            System.out.println("Writing a synthetic map of " + numNodes + " nodes to " + dir);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            SyntheticMapGenerator generator = new SyntheticMapGenerator(numNodes, 61);
+            generator.writeOsm(osm);
+            generator.writeTiles(imgs, MAX_LEVEL);
+            if (!done.createNewFile()) {
+                throw new IOException("Could not create " + done);
+            }
+        }
+        return new String[] {osm.getPath(), imgs.getPath() + File.separator};
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        String osm = null;
+        String img = null;
+        long numNodes = 40000;
+        double rate = 100;
+        double duration = 30;
+        int numUsers = 200;
+        int numThreads = 64;
+        long seed = 2018;
+        File sessionFile = null;
+        File saveFile = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--url":
+                    url = args[i + 1];
+                    break;
+                case "--osm":
+                    osm = args[i + 1];
+                    break;
+                case "--img":
+                    img = args[i + 1];
+                    break;
+                case "--nodes":
+                    numNodes = Long.parseLong(args[i + 1]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--duration":
+                    duration = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--users":
+                    numUsers = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    numThreads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--sessions":
+                    sessionFile = new File(args[i + 1]);
+                    break;
+                case "--save-sessions":
+                    saveFile = new File(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Random random = new Random(seed);
+        List<List<Step>> sessions;
+        if (sessionFile != null) {
+            sessions = readSessions(sessionFile);
+        } else {
+            sessions = new ArrayList<>();
+            for (int s = 0; s < numUsers; s++) {
+                sessions.add(synthesizeSession(random));
+            }
+        }
+        if (saveFile != null) {
+            writeSessions(sessions, saveFile);
+        }
+        List<Scheduled> requests = schedule(sessions, numUsers, rate, duration, random);
+
+        boolean embedded = url == null;
+        if (embedded) {
+            if (osm == null || img == null) {
+                String[] paths = syntheticMap(numNodes);
+                osm = paths[0];
+                img = paths[1];
+            }
+            MapServer.main(new String[] {osm, img});
+            spark.Spark.awaitInitialization();
+            url = "http://localhost:" + spark.Spark.port();
+        }
+        /* Warm up for a tenth of the run, then measure. */
+        System.out.println("Warming up " + url);
+        run(url, schedule(sessions, numUsers, rate, duration / 10, random), numThreads);
+        System.out.println(String.format(Locale.US,
+                "Sending %d requests from %d users at %.0f req/s for %.0f s", requests.size(),
+                numUsers, rate, duration));
+        report(run(url, requests, numThreads), duration);
+        if (embedded) {
+            spark.Spark.stop();
+        }
+    }
+}
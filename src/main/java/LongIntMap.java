@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long keys to int values, specialised for OpenStreetMap ids.
+ * Keys and values live in two parallel primitive arrays, so a lookup never boxes and touches
+ * at most a couple of cache lines: ids are scrambled with a multiplicative hash and
+ * collisions are resolved by linear probing.
+ *
+ * {@link Long#MIN_VALUE} marks empty slots and cannot be used as a key.
+ */
+public class LongIntMap {
+    static final long EMPTY = Long.MIN_VALUE;
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private final int missing;
+
+    /**
+     * Creates an empty map.
+     * @param expectedSize Number of keys the map should hold without resizing.
+     * @param missing Value returned by {@link #get} for absent keys.
+     */
+    public LongIntMap(int expectedSize, int missing) {
+        this.missing = missing;
+        allocate(capacityFor(expectedSize));
+    }
+
+    static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity / 2 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static int slot(long key, int mask) {
+        long h = key * PHI;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of key, or the missing value if key is absent.
+     * @param key Key to look up.
+     * @return The value of key.
+     */
+    public int get(long key) {
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == EMPTY) {
+                return missing;
+            }
+        }
+    }
+
+    /**
+     * Associates value with key, replacing any previous value.
+     * @param key Key to insert; must not be {@link Long#MIN_VALUE}.
+     * @param value Value to associate with key.
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key " + key + " is reserved.");
+        }
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+        if (size > keys.length / 2) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != EMPTY) {
+                int i = slot(oldKeys[j], mask);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
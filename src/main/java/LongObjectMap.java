@@ -0,0 +1,158 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open-addressing hash map from long keys to object values, specialised for OpenStreetMap
+ * ids. It uses the same layout and probing as {@link LongIntMap}, and additionally supports
+ * removal (by backward-shift deletion, so no tombstones are left behind) and iteration over
+ * its keys.
+ *
+ * {@link Long#MIN_VALUE} marks empty slots and cannot be used as a key.
+ *
+ * @param <V> Type of the values.
+ */
+public class LongObjectMap<V> {
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * Creates an empty map.
+     * @param expectedSize Number of keys the map should hold without resizing.
+     */
+    public LongObjectMap(int expectedSize) {
+        allocate(LongIntMap.capacityFor(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, LongIntMap.EMPTY);
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of key, or null if key is absent.
+     * @param key Key to look up.
+     * @return The value of key.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = LongIntMap.slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return (V) values[i];
+            }
+            if (k == LongIntMap.EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associates value with key, replacing any previous value.
+     * @param key Key to insert; must not be {@link Long#MIN_VALUE}.
+     * @param value Value to associate with key; must not be null.
+     */
+    public void put(long key, V value) {
+        if (key == LongIntMap.EMPTY || value == null) {
+            throw new IllegalArgumentException("Cannot map " + key + " to " + value + ".");
+        }
+        int i = LongIntMap.slot(key, mask);
+        while (keys[i] != LongIntMap.EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == LongIntMap.EMPTY) {
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+        if (size > keys.length / 2) {
+            rehash();
+        }
+    }
+
+    /**
+     * Removes key and its value from the map, if present.
+     * @param key Key to remove.
+     */
+    public void remove(long key) {
+        int i = LongIntMap.slot(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == LongIntMap.EMPTY) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        size--;
+        /* Shift later entries of the probe run back so that lookups never stop early. */
+        for (int j = (i + 1) & mask; keys[j] != LongIntMap.EMPTY; j = (j + 1) & mask) {
+            int home = LongIntMap.slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = LongIntMap.EMPTY;
+        values[i] = null;
+    }
+
+    /**
+     * Returns the keys of this map. The map must not be modified while iterating.
+     * @return An iterable of all keys, in no particular order.
+     */
+    public Iterable<Long> keys() {
+        return () -> new Iterator<Long>() {
+            private int next = advance(0);
+
+            private int advance(int i) {
+                while (i < keys.length && keys[i] == LongIntMap.EMPTY) {
+                    i++;
+                }
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < keys.length;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long key = keys[next];
+                next = advance(next + 1);
+                return key;
+            }
+        };
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != LongIntMap.EMPTY) {
+                int i = LongIntMap.slot(oldKeys[j], mask);
+                while (keys[i] != LongIntMap.EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -4,12 +4,18 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.util.Base64;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
@@ -40,6 +46,15 @@ public class MapServer {
     public static final int TILE_SIZE = 256;
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
+    /** Most budgets that one /isochrone request may have. */
+    private static final int MAX_ISOCHRONE_BUDGETS = 8;
+    /** Routes an /alternatives request returns unless it asks for a count, and the most. */
+    private static final int DEFAULT_ALTERNATIVES = 3;
+    private static final int MAX_ALTERNATIVES = 5;
+    /** Most sources, and most targets, that one /matrix request may have. */
+    private static final int MAX_MATRIX_LOCATIONS = 100;
+    /** HTTP response for requests turned away because the server is too busy. */
+    private static final int SERVICE_UNAVAILABLE = 503;
     /** Route stroke information: typically roads are not more than 5px wide. */
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: Cyan with half transparency. */
@@ -69,6 +84,10 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
+    /**
+     * Each isochrone request has a location, lat and lon, and a list of budgets.
+     **/
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lat", "lon"};
 
     /**
      * The result of rastering must be a map containing all of the
@@ -77,8 +96,26 @@ public class MapServer {
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
         "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
 
+    /** Maximum number of serialized /search responses kept by the search cache. */
+    private static final int SEARCH_CACHE_SIZE = 10000;
+    /** Maximum number of routes and their directions kept by the route cache. */
+    private static final int ROUTE_CACHE_SIZE = 4096;
+
+    /** Gson instances are thread safe, so every handler shares this one. */
+    private static final Gson GSON = new Gson();
+    /** Content types of the streamed responses. */
+    private static final String JSON_TYPE = "application/json";
+    private static final String HTML_TYPE = "text/html; charset=utf-8";
+    /** Request attribute holding the System.nanoTime() at which the request arrived. */
+    private static final String START_NANOS = "metrics.start";
+    /** Request attributes holding the limiter a request was admitted by, and when. */
+    private static final String LIMITER = "admission.limiter";
+    private static final String ADMITTED_NANOS = "admission.start";
     private static Rasterer rasterer;
     private static GraphDB graph;
+    private static String imgRoot;
+    private static SearchCache searchCache;
+    private static RouteCache routeCache;
     private static List<Long> route = new LinkedList<>();
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
@@ -89,20 +126,65 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        initialize(OSM_DB_PATH, IMG_ROOT);
+    }
+
+    /**
+     * Initializes the server with a different map, e.g. a synthetic one for benchmarks.
+     * @param osmDbPath Path to the OSM XML file to load.
+     * @param imageRoot Folder holding the tile images, ending in a separator.
+     */
+    static void initialize(String osmDbPath, String imageRoot) {
+        graph = new GraphDB(osmDbPath);
+        graph.snapToLargestComponent(Boolean.getBoolean("bearmaps.largestComponent"));
+        imgRoot = imageRoot;
         rasterer = new Rasterer();
+        searchCache = new SearchCache(graph, GSON, SEARCH_CACHE_SIZE);
+        /* Routes are cached per graph, so loading another map drops them all. */
+        routeCache = new RouteCache(graph, ROUTE_CACHE_SIZE);
     }
 
     public static void main(String[] args) {
-        initialize();
+        if (args.length >= 2) {
+            /* Serve another map, e.g. one written by SyntheticMapGenerator. */
+            initialize(args[0], args[1]);
+        } else {
+            initialize();
+        }
+        recordSessions(System.getProperty("bearmaps.record"));
+        if (RequestExecutor.ASYNC) {
+            threadPool(RequestExecutor.REQUEST_THREADS);
+        }
         staticFileLocation("/page");
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
         before((request, response) -> {
+            request.attribute(START_NANOS, System.nanoTime());
+            AdmissionLimiter limiter = RequestExecutor.limiter(request.pathInfo());
+            if (limiter != null) {
+                long admitted = limiter.acquire();
+                if (admitted < 0) {
+                    response.header("Retry-After", Long.toString(limiter.retryAfterSeconds()));
+                    halt(SERVICE_UNAVAILABLE, "Server busy - retry later.");
+                }
+                request.attribute(LIMITER, limiter);
+                request.attribute(ADMITTED_NANOS, admitted);
+            }
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Request-Method", "*");
             response.header("Access-Control-Allow-Headers", "*");
         });
+        /* Count and time every request, including those that were halted or threw. */
+        afterAfter((request, response) -> {
+            AdmissionLimiter limiter = request.attribute(LIMITER);
+            if (limiter != null) {
+                limiter.release(request.attribute(ADMITTED_NANOS));
+            }
+            Long start = request.attribute(START_NANOS);
+            if (start != null) {
+                Metrics.request(request.pathInfo(), start, response.status() >= 400);
+            }
+        });
 
         /* Define the raster endpoint for HTTP GET requests. I use anonymous functions to define
          * the request handlers. */
@@ -112,34 +194,113 @@ public class MapServer {
             /* The png image is written to the ByteArrayOutputStream */
             ByteArrayOutputStream os = new ByteArrayOutputStream();
             /* getMapRaster() does almost all the work for this API call */
+            long start = System.nanoTime();
             Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            Metrics.phase(Metrics.Phase.GET_MAP_RASTER, start);
 
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
 
             if (rasterSuccess) {
                 writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
             }
 
-            /* Encode response to Json */
-            Gson gson = new Gson();
-            return gson.toJson(rasteredImgParams);
+            /* Stream the response as Json, base64 encoding the image on the way. Streamed
+             * responses are committed and closed by the time their handlers return the raw
+             * response, so Spark serializes nothing after them. */
+            start = System.nanoTime();
+            try (JsonResponse json = JsonResponse.open(req, res, JSON_TYPE)) {
+                writeRaster(json, rasteredImgParams, rasterSuccess ? os.toByteArray() : null);
+            }
+            Metrics.phase(Metrics.Phase.JSON, start);
+            return res.raw();
         });
 
         /* Define the routing endpoint for HTTP GET requests. */
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
-            Map<String, Object> routeParams = new HashMap<>();
-            routeParams.put("routing_success", !route.isEmpty());
-            routeParams.put("directions_success", directions.length() > 0);
-            routeParams.put("directions", directions);
-            Gson gson = new Gson();
-            return gson.toJson(routeParams);
+            RoutingProfile profile = getProfileParam(req);
+            TravelMode mode = getModeParam(req);
+            RouteCache.Route found = RequestExecutor.cpu(() -> routeCache.route(
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), profile, mode));
+            route = found.path();
+            /* The route cache times the directions; formatting them is part of the response. */
+            long start = System.nanoTime();
+            String directions = getDirectionsText(found.directions());
+            /* map.js parses this response itself, so it keeps the default content type. */
+            try (JsonResponse json = JsonResponse.open(req, res, HTML_TYPE)) {
+                json.beginObject()
+                        .name("routing_success").value(!route.isEmpty())
+                        .name("directions_success").value(directions.length() > 0)
+                        .name("directions").value(directions)
+                        .endObject();
+            }
+            Metrics.phase(Metrics.Phase.JSON, start);
+            return res.raw();
+        });
+
+        /* Define the alternative routes endpoint: the best route and up to count - 1
+         * meaningfully different ones, each with its nodes, length and directions. */
+        get("/alternatives", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
+            int count = getCountParam(req);
+            RoutingProfile profile = getProfileParam(req);
+            TravelMode mode = getModeParam(req);
+            List<RouteCache.Route> routes = RequestExecutor.cpu(() -> Router.alternatives(
+                    graph, params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), count, profile, mode));
+            long start = System.nanoTime();
+            try (JsonResponse json = JsonResponse.open(req, res, JSON_TYPE)) {
+                writeAlternatives(json, routes);
+            }
+            Metrics.phase(Metrics.Phase.JSON, start);
+            return res.raw();
+        });
+
+        /* Define the distance matrix endpoint: sources and targets are lists of
+         * lon,lat pairs separated by semicolons. Costs are in miles, or in seconds with
+         * profile=fastest, and by car unless mode is walk or bike. */
+        get("/matrix", (req, res) -> {
+            double[][] sources = getLocationsParam(req, "sources");
+            double[][] targets = getLocationsParam(req, "targets");
+            RoutingProfile profile = getProfileParam(req);
+            TravelMode mode = getModeParam(req);
+            double[] distances = RequestExecutor.cpu(() -> Router.distanceMatrix(graph,
+                    sources[0], sources[1], targets[0], targets[1], profile, mode));
+            long start = System.nanoTime();
+            try (JsonResponse json = JsonResponse.open(req, res, JSON_TYPE)) {
+                json.beginObject()
+                        .name("sources").value(sources[0].length)
+                        .name("targets").value(targets[0].length)
+                        .name("distances").beginArray();
+                for (double d : distances) {
+                    json.value(d);
+                }
+                json.endArray().endObject();
+            }
+            Metrics.phase(Metrics.Phase.JSON, start);
+            return res.raw();
+        });
+
+        /* Define the isochrone endpoint: budgets is a list of distances in miles separated
+         * by commas, or of times in seconds with profile=fastest, and by car unless mode is
+         * walk or bike. */
+        get("/isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            double[] budgets = getBudgetsParam(req);
+            RoutingProfile profile = getProfileParam(req);
+            TravelMode mode = getModeParam(req);
+            Isochrone isochrone = RequestExecutor.cpu(() -> Router.isochrone(graph,
+                    params.get("lon"), params.get("lat"), budgets, profile, mode));
+            long start = System.nanoTime();
+            try (JsonResponse json = JsonResponse.open(req, res, JSON_TYPE)) {
+                writeIsochrone(json, isochrone);
+            }
+            Metrics.phase(Metrics.Phase.JSON, start);
+            return res.raw();
         });
 
         /* Define the API endpoint for clearing the current route. */
@@ -152,16 +313,38 @@ public class MapServer {
         get("/search", (req, res) -> {
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
-            Gson gson = new Gson();
-            /* Search for actual location data. */
-            if (reqParams.contains("full")) {
-                List<Map<String, Object>> data = getLocations(term);
-                return gson.toJson(data);
-            } else {
-                /* Search for prefix matching strings. */
-                List<String> matches = getLocationsByPrefix(term);
-                return gson.toJson(matches);
+            /* Search for actual location data, or else for prefix matching strings. */
+            String json = reqParams.contains("full") ? searchCache.fullSearch(term)
+                    : searchCache.prefixSearch(term);
+            JsonResponse.send(req, res, JSON_TYPE, json);
+            return res.raw();
+        });
+
+        /* Define the API endpoint for search cache statistics. */
+        get("/search_stats", (req, res) -> GSON.toJson(searchCache.stats()));
+
+        /* Define the metrics endpoint, in the Prometheus text format. */
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            Map<String, Object> gauges = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> e : searchCache.stats().entrySet()) {
+                gauges.put("bearmaps_search_cache_" + e.getKey(), e.getValue());
             }
+            for (Map.Entry<String, Object> e : routeCache.stats().entrySet()) {
+                gauges.put("bearmaps_route_cache_" + e.getKey(), e.getValue());
+            }
+            if (RequestExecutor.ADMISSION) {
+                for (AdmissionLimiter l : RequestExecutor.LIMITERS) {
+                    gauges.put(admissionSeries("limit", l), l.limit());
+                }
+                for (AdmissionLimiter l : RequestExecutor.LIMITERS) {
+                    gauges.put(admissionSeries("running", l), l.running());
+                }
+                for (AdmissionLimiter l : RequestExecutor.LIMITERS) {
+                    gauges.put(admissionSeries("rejected", l), l.rejected());
+                }
+            }
+            return Metrics.scrape(gauges);
         });
 
         /* Define map application redirect */
@@ -171,6 +354,221 @@ public class MapServer {
         });
     }
 
+    private static String admissionSeries(String name, AdmissionLimiter limiter) {
+        return "bearmaps_admission_" + name + "{endpoint=\"" + limiter.endpoint + "\"}";
+    }
+
+    /**
+     * Appends every API request to a file, for LoadGenerator to replay: one line per request,
+     * holding the client, the milliseconds since the server started and the request.
+     * @param path File to append to, or null to record nothing.
+     */
+    private static void recordSessions(String path) {
+        if (path == null) {
+            return;
+        }
+        PrintWriter log;
+        try {
+            log = new PrintWriter(new OutputStreamWriter(new FileOutputStream(path, true),
+                    StandardCharsets.UTF_8), true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        long start = System.currentTimeMillis();
+        before((req, res) -> {
+            String request = req.pathInfo();
+            if (request.equals("/raster") || request.equals("/route")
+                    || request.equals("/search") || request.equals("/clear_route")) {
+                if (req.queryString() != null) {
+                    request += "?" + req.queryString();
+                }
+                synchronized (log) {
+                    log.println(req.ip() + "\t" + (System.currentTimeMillis() - start) + "\t"
+                            + request);
+                }
+            }
+        });
+    }
+
+    /**
+     * Parses a list of locations such as "-122.26,37.87;-122.25,37.86".
+     * Uses Spark's halt() to halt if the list is missing, malformed or too long.
+     * @param req HTTP Request.
+     * @param param Name of the query parameter holding the list.
+     * @return The longitudes and the latitudes of the locations.
+     */
+    private static double[][] getLocationsParam(spark.Request req, String param) {
+        String value = req.queryParams(param);
+        if (value == null || value.isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] pairs = value.split(";");
+        if (pairs.length > MAX_MATRIX_LOCATIONS) {
+            halt(HALT_RESPONSE, "Too many locations - at most " + MAX_MATRIX_LOCATIONS + ".");
+        }
+        double[][] locations = new double[2][pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                locations[0][i] = Double.parseDouble(lonLat[0]);
+                locations[1][i] = Double.parseDouble(lonLat[1]);
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the routing profile of a request: shortest distance unless profile=fastest.
+     * Uses Spark's halt() to halt if the profile is unknown.
+     */
+    private static RoutingProfile getProfileParam(spark.Request req) {
+        String value = req.queryParams("profile");
+        if (value == null) {
+            return RoutingProfile.SHORTEST;
+        }
+        try {
+            return RoutingProfile.of(value);
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - profile is shortest or fastest.");
+            return null;
+        }
+    }
+
+    /**
+     * Returns the travel mode of a request: by car unless mode=walk or mode=bike.
+     * Uses Spark's halt() to halt if the mode is unknown.
+     */
+    private static TravelMode getModeParam(spark.Request req) {
+        String value = req.queryParams("mode");
+        if (value == null) {
+            return TravelMode.DRIVE;
+        }
+        try {
+            return TravelMode.of(value);
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - mode is drive, walk or bike.");
+            return null;
+        }
+    }
+
+    /**
+     * Returns how many routes an /alternatives request asks for.
+     * Uses Spark's halt() to halt if the count is malformed, below 1 or too large.
+     */
+    private static int getCountParam(spark.Request req) {
+        String value = req.queryParams("count");
+        if (value == null) {
+            return DEFAULT_ALTERNATIVES;
+        }
+        int count = 0;
+        try {
+            count = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            halt(HALT_RESPONSE, "Incorrect parameters - provide a whole number.");
+        }
+        if (count < 1 || count > MAX_ALTERNATIVES) {
+            halt(HALT_RESPONSE, "Incorrect parameters - count is 1 to " + MAX_ALTERNATIVES
+                    + ".");
+        }
+        return count;
+    }
+
+    /**
+     * Writes an /alternatives response: each route's node ids, length in miles, and
+     * directions.
+     */
+    private static void writeAlternatives(JsonResponse json, List<RouteCache.Route> routes)
+            throws IOException {
+        json.beginObject().name("routes").beginArray();
+        for (RouteCache.Route route : routes) {
+            List<Long> path = route.path();
+            json.beginObject().name("miles").value(Router.pathMiles(graph, path))
+                    .name("nodes").beginArray();
+            for (long v : path) {
+                json.value(v);
+            }
+            json.endArray().name("directions").beginArray();
+            for (Router.NavigationDirection d : route.directions()) {
+                json.value(d.toString());
+            }
+            json.endArray().endObject();
+        }
+        json.endArray().endObject();
+    }
+
+    /**
+     * Parses the budgets of an isochrone request.
+     * Uses Spark's halt() to halt if they are missing, malformed, negative or too many.
+     */
+    private static double[] getBudgetsParam(spark.Request req) {
+        String value = req.queryParams("budgets");
+        if (value == null || value.isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] parts = value.split(",");
+        if (parts.length > MAX_ISOCHRONE_BUDGETS) {
+            halt(HALT_RESPONSE, "Too many budgets - at most " + MAX_ISOCHRONE_BUDGETS + ".");
+        }
+        double[] budgets = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                budgets[i] = Double.parseDouble(parts[i]);
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            }
+            if (!(budgets[i] >= 0) || Double.isInfinite(budgets[i])) {
+                halt(HALT_RESPONSE, "Incorrect parameters - budgets must not be negative.");
+            }
+        }
+        return budgets;
+    }
+
+    /**
+     * Writes an /isochrone response: the budgets, the vertices within the largest one with
+     * their distances, how many of them are within each budget, and each budget's outline.
+     */
+    private static void writeIsochrone(JsonResponse json, Isochrone isochrone)
+            throws IOException {
+        json.beginObject().name("budgets").beginArray();
+        for (double b : isochrone.budgets) {
+            json.value(b);
+        }
+        json.endArray().name("vertices").beginArray();
+        for (long v : isochrone.vertices) {
+            json.value(v);
+        }
+        json.endArray().name("distances").beginArray();
+        for (double d : isochrone.distances) {
+            json.value(d);
+        }
+        json.endArray().name("counts").beginArray();
+        for (int c : isochrone.counts) {
+            json.value(c);
+        }
+        json.endArray().name("rings").beginArray();
+        for (List<double[]> rings : isochrone.rings) {
+            json.beginArray();
+            for (double[] ring : rings) {
+                json.beginArray();
+                for (int i = 0; i < ring.length; i += 2) {
+                    json.beginArray().value(ring[i]).value(ring[i + 1]).endArray();
+                }
+                json.endArray();
+            }
+            json.endArray();
+        }
+        json.endArray().endObject();
+    }
+
     /**
      * Validate & return a parameter map of the required request parameters.
      * Requires that all input parameters are doubles.
@@ -197,30 +595,97 @@ public class MapServer {
         return params;
     }
 
+    /**
+     * Writes a /raster response: the results of getMapRaster, the size of the image and the
+     * image itself, base64 encoded.
+     * @param png The PNG image, or null if rastering failed.
+     */
+    private static void writeRaster(JsonResponse json, Map<String, Object> rasteredImgParams,
+                                    byte[] png) throws IOException {
+        json.beginObject();
+        json.name("render_grid").beginArray();
+        for (String[] row : (String[][]) rasteredImgParams.get("render_grid")) {
+            json.beginArray();
+            for (String tile : row) {
+                json.value(tile);
+            }
+            json.endArray();
+        }
+        json.endArray();
+        for (String key : new String[] {"raster_ul_lon", "raster_ul_lat", "raster_lr_lon",
+            "raster_lr_lat"}) {
+            json.name(key).value((double) rasteredImgParams.get(key));
+        }
+        json.name("depth").value((int) rasteredImgParams.get("depth"));
+        json.name("query_success").value((boolean) rasteredImgParams.get("query_success"));
+        if (png != null) {
+            json.name("raster_width").value((int) rasteredImgParams.get("raster_width"));
+            json.name("raster_height").value((int) rasteredImgParams.get("raster_height"));
+            json.name("b64_encoded_image_data").base64Value(png, png.length);
+        }
+        json.endObject();
+    }
+
     /**
      * Writes the images corresponding to rasteredImgParams to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
      */
-    private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
+    static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
+                                          ByteArrayOutputStream os) {
+        RasterEvent event = new RasterEvent();
+        event.begin();
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
 
+        /* Read the tiles first; in async mode they are read in parallel. */
+        long start = System.nanoTime();
+        List<Callable<BufferedImage>> reads = new ArrayList<>();
+        for (String[] row : renderGrid) {
+            for (String name : row) {
+                reads.add(() -> getImage(imgRoot + name));
+            }
+        }
+        List<BufferedImage> tiles = RequestExecutor.io(reads);
+        long fetchNanos = System.nanoTime() - start;
+        Metrics.count(Metrics.Phase.TILE_FETCH, fetchNanos);
+
+        List<Long> currentRoute = route;
+        long encodeNanos = RequestExecutor.cpu(() -> drawAndEncode(rasteredImageParams, tiles,
+                numVertTiles, numHorizTiles, currentRoute, os));
+        event.end();
+        if (event.shouldCommit()) {
+            event.depth = (int) rasteredImageParams.get("depth");
+            event.tiles = numVertTiles * numHorizTiles;
+            event.fetchTime = fetchNanos;
+            event.encodeTime = encodeNanos;
+            event.bytes = os.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Draws the tiles, in row-major order, and the route onto one image and writes it to os
+     * as a PNG.
+     * @return Time spent encoding the PNG, in nanoseconds.
+     */
+    private static long drawAndEncode(Map<String, Object> rasteredImageParams,
+                                      List<BufferedImage> tiles, int numVertTiles,
+                                      int numHorizTiles, List<Long> route,
+                                      ByteArrayOutputStream os) {
+        long start = System.nanoTime();
         BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
                 numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
         Graphics graphic = img.getGraphics();
         int x = 0, y = 0;
 
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
-                }
+        for (BufferedImage tile : tiles) {
+            graphic.drawImage(tile, x, y, null);
+            x += MapServer.TILE_SIZE;
+            if (x >= img.getWidth()) {
+                x = 0;
+                y += MapServer.TILE_SIZE;
             }
         }
 
@@ -248,13 +713,16 @@ public class MapServer {
 
         rasteredImageParams.put("raster_width", img.getWidth());
         rasteredImageParams.put("raster_height", img.getHeight());
+        Metrics.phase(Metrics.Phase.COMPOSITE, start);
 
+        start = System.nanoTime();
         try {
             ImageIO.write(img, "png", os);
         } catch (IOException e) {
             e.printStackTrace();
         }
-
+        Metrics.phase(Metrics.Phase.PNG_ENCODE, start);
+        return System.nanoTime() - start;
     }
 
     private static BufferedImage getImage(String imgPath) {
@@ -307,7 +775,7 @@ public class MapServer {
             Map<String, Object> nodeInfo = new HashMap<>();
             nodeInfo.put("lat", graph.locLat(v));
             nodeInfo.put("lon", graph.locLon(v));
-            nodeInfo.put("name", locationName);
+            nodeInfo.put("name", graph.getName(v));
             nodeInfo.put("id", v);
             result.add(nodeInfo);
         }
@@ -336,11 +804,10 @@ public class MapServer {
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
-     * String to be passed to the frontend.
+     * Takes the directions of the route of this MapServer and converts them into an HTML
+     * friendly String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
-        List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
+    private static String getDirectionsText(List<Router.NavigationDirection> directions) {
         if (directions == null || directions.isEmpty()) {
           return "";
         }
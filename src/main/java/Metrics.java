@@ -0,0 +1,272 @@
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counts, error counts and latency histograms of the server's endpoints, plus timings
+ * of the phases inside them, rendered in the Prometheus text format for /metrics.
+ *
+ * Recording never takes a lock. Counters are {@link LongAdder}s, which stripe contended
+ * increments over several cells. Each thread records into its own {@link LatencyHistogram}s,
+ * registered once per thread, and a scrape adds up every thread's histograms; a scrape that
+ * races with a recording may miss that one value until the next scrape. Pools start and
+ * reap threads all the time, so the histograms of threads that have ended are folded into
+ * one retired set whenever a thread registers or a scrape runs: only live threads keep
+ * histograms of their own.
+ */
+public final class Metrics {
+    /** Endpoints with their own series; every other path is counted as "other". */
+    static final String[] ENDPOINTS = {"/raster", "/route", "/alternatives", "/matrix",
+        "/isochrone", "/clear_route", "/search", "/search_stats", "/metrics", "other"};
+
+    /** Timed phases of the endpoints, plus the number of nodes each route search settles. */
+    enum Phase {
+        CLOSEST("closest"),
+        ASTAR("astar"),
+        SETTLED_NODES("settled_nodes"),
+        DIRECTIONS("route_directions"),
+        ALTERNATIVES("alternatives"),
+        MATRIX("matrix"),
+        ISOCHRONE("isochrone"),
+        GET_MAP_RASTER("get_map_raster"),
+        TILE_FETCH("tile_fetch"),
+        COMPOSITE("composite"),
+        PNG_ENCODE("png_encode"),
+        JSON("json");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final double[] SECONDS_BUCKETS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025,
+        0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double[] COUNT_BUCKETS = {10, 100, 1000, 10000, 100000, 1000000};
+
+    private static final LongAdder[] REQUESTS = adders(ENDPOINTS.length);
+    private static final LongAdder[] ERRORS = adders(ENDPOINTS.length);
+    /**
+     * Histograms of the live threads that have recorded anything, endpoints first and then
+     * phases, and the sum of those of threads that have ended; both guarded by REGISTRY.
+     */
+    private static final List<Registration> REGISTRY = new ArrayList<>();
+    private static final LatencyHistogram[] RETIRED = histograms();
+    private static final ThreadLocal<LatencyHistogram[]> HISTOGRAMS = ThreadLocal.withInitial(
+        () -> {
+            LatencyHistogram[] h = histograms();
+            synchronized (REGISTRY) {
+                retireEnded();
+                REGISTRY.add(new Registration(Thread.currentThread(), h));
+            }
+            return h;
+        });
+
+    private Metrics() {
+    }
+
+    private static LatencyHistogram[] histograms() {
+        LatencyHistogram[] h = new LatencyHistogram[ENDPOINTS.length + PHASES.length];
+        for (int i = 0; i < h.length; i++) {
+            h[i] = new LatencyHistogram();
+        }
+        return h;
+    }
+
+    /**
+     * Folds the histograms of threads that have ended into the retired ones. Seeing that a
+     * thread is no longer alive happens after everything it did, so none of its values are
+     * lost. Callers must hold REGISTRY.
+     */
+    private static void retireEnded() {
+        for (Iterator<Registration> it = REGISTRY.iterator(); it.hasNext(); ) {
+            Registration r = it.next();
+            Thread t = r.thread.get();
+            if (t == null || !t.isAlive()) {
+                for (int i = 0; i < RETIRED.length; i++) {
+                    RETIRED[i].add(r.histograms[i]);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /** Returns the number of threads with histograms of their own. */
+    static int registeredThreads() {
+        synchronized (REGISTRY) {
+            retireEnded();
+            return REGISTRY.size();
+        }
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    static int endpointIndex(String path) {
+        for (int i = 0; i < ENDPOINTS.length - 1; i++) {
+            if (ENDPOINTS[i].equals(path)) {
+                return i;
+            }
+        }
+        return ENDPOINTS.length - 1;
+    }
+
+    /**
+     * Records a finished request.
+     * @param path Path of the request.
+     * @param startNanos {@link System#nanoTime} when the request arrived.
+     * @param error Whether the request failed.
+     */
+    public static void request(String path, long startNanos, boolean error) {
+        int i = endpointIndex(path);
+        REQUESTS[i].increment();
+        if (error) {
+            ERRORS[i].increment();
+        }
+        HISTOGRAMS.get()[i].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records the time spent in a phase.
+     * @param phase Phase that just finished.
+     * @param startNanos {@link System#nanoTime} when the phase started.
+     */
+    public static void phase(Phase phase, long startNanos) {
+        count(phase, System.nanoTime() - startNanos);
+    }
+
+    /** Records a value of a phase that counts something rather than taking time. */
+    public static void count(Phase phase, long value) {
+        HISTOGRAMS.get()[ENDPOINTS.length + phase.ordinal()].record(value);
+    }
+
+    /** Returns the sum of every thread's histograms, live or ended. */
+    private static LatencyHistogram[] merged() {
+        LatencyHistogram[] total = histograms();
+        synchronized (REGISTRY) {
+            retireEnded();
+            for (int i = 0; i < total.length; i++) {
+                total[i].add(RETIRED[i]);
+            }
+            for (Registration r : REGISTRY) {
+                for (int i = 0; i < total.length; i++) {
+                    total[i].add(r.histograms[i]);
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Renders every metric in the Prometheus text format.
+     * @param gauges Additional values to export, such as the search cache's statistics, by
+     *               metric name and labels. Series of one metric must be next to each other.
+     *               Values that are not numbers are skipped.
+     * @return The body of a /metrics response.
+     */
+    public static String scrape(Map<String, Object> gauges) {
+        LatencyHistogram[] histograms = merged();
+        StringBuilder sb = new StringBuilder(16384);
+
+        sb.append("# HELP bearmaps_requests_total Requests handled, by endpoint.\n");
+        sb.append("# TYPE bearmaps_requests_total counter\n");
+        for (int i = 0; i < ENDPOINTS.length; i++) {
+            sample(sb, "bearmaps_requests_total", "endpoint", ENDPOINTS[i], REQUESTS[i].sum());
+        }
+        sb.append("# HELP bearmaps_request_errors_total Requests that failed, by endpoint.\n");
+        sb.append("# TYPE bearmaps_request_errors_total counter\n");
+        for (int i = 0; i < ENDPOINTS.length; i++) {
+            sample(sb, "bearmaps_request_errors_total", "endpoint", ENDPOINTS[i],
+                    ERRORS[i].sum());
+        }
+
+        sb.append("# HELP bearmaps_request_duration_seconds Request latency, by endpoint.\n");
+        sb.append("# TYPE bearmaps_request_duration_seconds histogram\n");
+        for (int i = 0; i < ENDPOINTS.length; i++) {
+            histogram(sb, "bearmaps_request_duration_seconds", "endpoint", ENDPOINTS[i],
+                    histograms[i], SECONDS_BUCKETS, 1e9);
+        }
+
+        sb.append("# HELP bearmaps_phase_duration_seconds Time spent in each phase of a "
+                + "request.\n");
+        sb.append("# TYPE bearmaps_phase_duration_seconds histogram\n");
+        for (Phase p : PHASES) {
+            if (p != Phase.SETTLED_NODES) {
+                histogram(sb, "bearmaps_phase_duration_seconds", "phase", p.label,
+                        histograms[ENDPOINTS.length + p.ordinal()], SECONDS_BUCKETS, 1e9);
+            }
+        }
+        sb.append("# HELP bearmaps_route_settled_nodes Nodes settled by each route search.\n");
+        sb.append("# TYPE bearmaps_route_settled_nodes histogram\n");
+        histogram(sb, "bearmaps_route_settled_nodes", null, null,
+                histograms[ENDPOINTS.length + Phase.SETTLED_NODES.ordinal()], COUNT_BUCKETS, 1);
+
+        String lastName = null;
+        for (Map.Entry<String, Object> e : gauges.entrySet()) {
+            if (e.getValue() instanceof Number) {
+                /* Series of one gauge, such as name{endpoint="..."}, share a TYPE line. */
+                int brace = e.getKey().indexOf('{');
+                String name = brace < 0 ? e.getKey() : e.getKey().substring(0, brace);
+                if (!name.equals(lastName)) {
+                    sb.append("# TYPE ").append(name).append(" gauge\n");
+                    lastName = name;
+                }
+                sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String value,
+                               Object sample) {
+        sb.append(name);
+        if (label != null) {
+            sb.append('{').append(label).append("=\"").append(value).append("\"}");
+        }
+        sb.append(' ').append(sample).append('\n');
+    }
+
+    /** Appends a Prometheus histogram; recorded values are divided by scale. */
+    private static void histogram(StringBuilder sb, String name, String label, String value,
+                                  LatencyHistogram h, double[] buckets, double scale) {
+        String labels = label == null ? "" : label + "=\"" + value + "\",";
+        for (double le : buckets) {
+            sb.append(name).append("_bucket{").append(labels).append("le=\"")
+                    .append(format(le)).append("\"} ")
+                    .append(h.countAtOrBelow((long) (le * scale))).append('\n');
+        }
+        sb.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ")
+                .append(h.count()).append('\n');
+        String plain = label == null ? "" : "{" + label + "=\"" + value + "\"}";
+        sb.append(name).append("_sum").append(plain).append(' ')
+                .append(format(h.sum() / scale)).append('\n');
+        sb.append(name).append("_count").append(plain).append(' ')
+                .append(h.count()).append('\n');
+    }
+
+    private static String format(double d) {
+        return d == Math.rint(d) && Math.abs(d) < 1e15 ? Long.toString((long) d)
+                : Double.toString(d);
+    }
+
+    // A thread's histograms, holding the thread weakly so that registering never keeps it
+    private static class Registration {
+        final WeakReference<Thread> thread;
+        final LatencyHistogram[] histograms;
+
+        Registration(Thread thread, LatencyHistogram[] histograms) {
+            this.thread = new WeakReference<>(thread);
+            this.histograms = histograms;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only dictionary of named locations, stored off-heap in a memory-mapped file so that
+ * a large set of points of interest costs a handful of heap objects instead of one per
+ * location.
+ *
+ * Locations ("rows") are sorted by cleaned name, so all locations sharing a cleaned name
+ * form one run of consecutive rows. The file holds, in order:
+ * <ul>
+ *     <li>a header with the magic number, row count and name count, and the size,
+ *     modification time and path of the XML file the locations were parsed from and the
+ *     name of the normalizer that cleaned them,</li>
+ *     <li>the row columns: id (long), lon and lat (double), and the start of each row's
+ *     full name in the name pool (int, with one extra end offset),</li>
+ *     <li>the id index: every id in increasing order (long) and the row it is in (int),</li>
+ *     <li>the name table: the start of each distinct cleaned name in the key pool and the
+ *     first row with that name (both int, with one extra end offset),</li>
+ *     <li>the name pool (UTF-8 full names) and the key pool (ASCII cleaned names).</li>
+ * </ul>
+ * Each section is mapped as its own buffer, so only a single pool is limited to 2GB. Ids
+ * are looked up by binary search over the id index, and names and prefixes by binary search
+ * over the sorted name table, comparing the search term against the key pool in place; so
+ * mapping a dictionary reads nothing but its header, and builds nothing on the heap.
+ */
+public class NameDictionary {
+    private static final int MAGIC = 0xBEA7DC03;
+
+    private final int rowCount;
+    private final int nameCount;
+    private final LongBuffer ids;
+    private final DoubleBuffer lons;
+    private final DoubleBuffer lats;
+    private final IntBuffer nameStart;
+    private final LongBuffer sortedIds;
+    private final IntBuffer idRows;
+    private final IntBuffer keyStart;
+    private final IntBuffer firstRow;
+    private final ByteBuffer namePool;
+    private final ByteBuffer keyPool;
+
+    private NameDictionary(RandomAccessFile raf) throws IOException {
+        if (raf.length() < 4 || raf.readInt() != MAGIC) {
+            throw new IOException("Not a name dictionary file.");
+        }
+        rowCount = raf.readInt();
+        nameCount = raf.readInt();
+        /* Skip the source of the locations; see isBuiltFrom. */
+        raf.readLong();
+        raf.readLong();
+        raf.readUTF();
+        raf.readUTF();
+
+        FileChannel channel = raf.getChannel();
+        long pos = raf.getFilePointer();
+        ids = map(channel, pos, 8L * rowCount).asLongBuffer();
+        pos += 8L * rowCount;
+        lons = map(channel, pos, 8L * rowCount).asDoubleBuffer();
+        pos += 8L * rowCount;
+        lats = map(channel, pos, 8L * rowCount).asDoubleBuffer();
+        pos += 8L * rowCount;
+        nameStart = map(channel, pos, 4L * (rowCount + 1)).asIntBuffer();
+        pos += 4L * (rowCount + 1);
+        sortedIds = map(channel, pos, 8L * rowCount).asLongBuffer();
+        pos += 8L * rowCount;
+        idRows = map(channel, pos, 4L * rowCount).asIntBuffer();
+        pos += 4L * rowCount;
+        keyStart = map(channel, pos, 4L * (nameCount + 1)).asIntBuffer();
+        pos += 4L * (nameCount + 1);
+        firstRow = map(channel, pos, 4L * (nameCount + 1)).asIntBuffer();
+        pos += 4L * (nameCount + 1);
+        namePool = map(channel, pos, nameStart.get(rowCount));
+        pos += nameStart.get(rowCount);
+        keyPool = map(channel, pos, keyStart.get(nameCount));
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long pos, long size)
+            throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+    }
+
+    /**
+     * Maps an existing dictionary file.
+     * @param file A file written by {@link Builder#build(File)}.
+     * @return The dictionary.
+     * @throws IOException If the file cannot be mapped or is not a dictionary.
+     */
+    public static NameDictionary open(File file) throws IOException {
+        /* The mappings stay valid after the channel is closed. */
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return new NameDictionary(raf);
+        }
+    }
+
+    /**
+     * Returns whether a dictionary file was written from an XML file as it is now, with the
+     * given normalizer. Only the header is read, and nothing is mapped.
+     * @param file A dictionary file.
+     * @param source The XML file.
+     * @param normalizer The normalizer.
+     * @return False if the file was written from another XML file, from an older version of
+     * this one, or with another normalizer, or if it cannot be read or is not a dictionary.
+     */
+    public static boolean isBuiltFrom(File file, File source, NameNormalizer normalizer) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < 4 || raf.readInt() != MAGIC) {
+                return false;
+            }
+            raf.skipBytes(8);
+            return raf.readLong() == source.length()
+                    && raf.readLong() == source.lastModified()
+                    && raf.readUTF().equals(source.getAbsolutePath())
+                    && raf.readUTF().equals(normalizer.name());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Returns the number of locations. */
+    public int size() {
+        return rowCount;
+    }
+
+    /** Returns the number of distinct cleaned names. */
+    public int nameCount() {
+        return nameCount;
+    }
+
+    /**
+     * Returns the row of the location with the given id, the first if several have it.
+     * @param id Location id.
+     * @return Row index, or -1 if there is no location with that id.
+     */
+    public int row(long id) {
+        int i = firstAtLeast(sortedIds, rowCount, id);
+        return i < rowCount && sortedIds.get(i) == id ? idRows.get(i) : -1;
+    }
+
+    /** Returns the first of the n sorted ids that is at least id, or n if there is none. */
+    private static int firstAtLeast(LongBuffer sorted, int n, long id) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted.get(mid) < id) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public long id(int row) {
+        return ids.get(row);
+    }
+
+    public double lon(int row) {
+        return lons.get(row);
+    }
+
+    public double lat(int row) {
+        return lats.get(row);
+    }
+
+    /** Decodes the full name of the location in the given row. */
+    public String name(int row) {
+        return decode(namePool, nameStart.get(row), nameStart.get(row + 1),
+                StandardCharsets.UTF_8);
+    }
+
+    /** Decodes the cleaned name with the given index in the sorted name table. */
+    public String cleanedName(int nameIndex) {
+        return decode(keyPool, keyStart.get(nameIndex), keyStart.get(nameIndex + 1),
+                StandardCharsets.US_ASCII);
+    }
+
+    /** Returns the first row of the locations with the given cleaned name index. */
+    public int firstRow(int nameIndex) {
+        return firstRow.get(nameIndex);
+    }
+
+    /** Returns one past the last row of the locations with the given cleaned name index. */
+    public int endRow(int nameIndex) {
+        return firstRow.get(nameIndex + 1);
+    }
+
+    /**
+     * Returns the index in the sorted name table of a cleaned name.
+     * @param cleanedName Cleaned name to look up.
+     * @return Name index, or -1 if no location has that cleaned name.
+     */
+    public int findName(CharSequence cleanedName) {
+        int i = search(cleanedName, false, false);
+        return i < nameCount && compare(i, cleanedName, false) == 0 ? i : -1;
+    }
+
+    /** Returns the first name index whose cleaned name starts with the given cleaned prefix. */
+    public int firstNameWithPrefix(CharSequence cleanedPrefix) {
+        return search(cleanedPrefix, true, false);
+    }
+
+    /** Returns one past the last name index whose cleaned name starts with the given prefix. */
+    public int endNameWithPrefix(CharSequence cleanedPrefix) {
+        return search(cleanedPrefix, true, true);
+    }
+
+    /**
+     * Returns the first name index whose cleaned name sorts after s, or at or after s if not
+     * after. With prefix, a name that starts with s compares equal to it.
+     */
+    private int search(CharSequence s, boolean prefix, boolean after) {
+        int lo = 0;
+        int hi = nameCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mid, s, prefix);
+            if (c < 0 || after && c == 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // compares the cleaned name at an index with s, in the order the names were sorted in
+    private int compare(int nameIndex, CharSequence s, boolean prefix) {
+        int start = keyStart.get(nameIndex);
+        int length = keyStart.get(nameIndex + 1) - start;
+        int n = Math.min(length, s.length());
+        for (int k = 0; k < n; k++) {
+            int d = (keyPool.get(start + k) & 0xFF) - s.charAt(k);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return prefix && length >= s.length() ? 0 : length - s.length();
+    }
+
+    private static String decode(ByteBuffer pool, int start, int end, Charset charset) {
+        /* Absolute gets only, so concurrent readers never share a buffer position. */
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = pool.get(start + i);
+        }
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Collects locations while a graph is being parsed. The staged rows are kept in primitive
+     * arrays and are discarded once the dictionary file has been written.
+     */
+    public static class Builder {
+        private long[] ids = new long[16];
+        private double[] lons = new double[16];
+        private double[] lats = new double[16];
+        private final List<String> names = new ArrayList<>();
+        private final List<String> cleanedNames = new ArrayList<>();
+
+        /**
+         * Adds a location.
+         * @param id Location id.
+         * @param lon Longitude of the location.
+         * @param lat Latitude of the location.
+         * @param name Full name of the location.
+         * @param cleanedName Cleaned name of the location, ASCII only.
+         */
+        public void add(long id, double lon, double lat, String name, String cleanedName) {
+            int n = names.size();
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * n);
+                lons = Arrays.copyOf(lons, 2 * n);
+                lats = Arrays.copyOf(lats, 2 * n);
+            }
+            ids[n] = id;
+            lons[n] = lon;
+            lats[n] = lat;
+            names.add(name);
+            cleanedNames.add(cleanedName);
+        }
+
+        /**
+         * Writes the staged locations to file, recording no source, and maps it.
+         * @param file File to (over)write.
+         * @return The mapped dictionary.
+         * @throws IOException If the file cannot be written.
+         */
+        public NameDictionary build(File file) throws IOException {
+            return build(file, null, null);
+        }
+
+        /**
+         * Writes the staged locations to file and maps it.
+         * @param file File to (over)write.
+         * @param source The XML file the locations were parsed from, or null for none.
+         * @param normalizer The normalizer that cleaned their names, or null for none.
+         * @return The mapped dictionary.
+         * @throws IOException If the file cannot be written.
+         * @see #isBuiltFrom
+         */
+        public NameDictionary build(File file, File source, NameNormalizer normalizer)
+                throws IOException {
+            int n = names.size();
+            /* Stable sort, so locations sharing a name keep the order they were added in. */
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> cleanedNames.get(a).compareTo(cleanedNames.get(b)));
+
+            byte[][] nameBytes = new byte[n][];
+            List<byte[]> keyBytes = new ArrayList<>();
+            List<Integer> firstRows = new ArrayList<>();
+            long namePoolSize = 0;
+            for (int row = 0; row < n; row++) {
+                nameBytes[row] = names.get(order[row]).getBytes(StandardCharsets.UTF_8);
+                namePoolSize += nameBytes[row].length;
+                String cleaned = cleanedNames.get(order[row]);
+                if (row == 0 || !cleaned.equals(cleanedNames.get(order[row - 1]))) {
+                    keyBytes.add(cleaned.getBytes(StandardCharsets.US_ASCII));
+                    firstRows.add(row);
+                }
+            }
+            if (namePoolSize > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Location names do not fit in a 2GB pool.");
+            }
+
+            /* Rows of equal ids go in increasing order, so the first row of an id is found. */
+            long[] sortedIds = new long[n];
+            for (int row = 0; row < n; row++) {
+                sortedIds[row] = ids[order[row]];
+            }
+            Arrays.sort(sortedIds);
+            LongBuffer sorted = LongBuffer.wrap(sortedIds);
+            int[] idRows = new int[n];
+            Arrays.fill(idRows, -1);
+            for (int row = 0; row < n; row++) {
+                int i = firstAtLeast(sorted, n, ids[order[row]]);
+                while (idRows[i] >= 0) {
+                    i++;
+                }
+                idRows[i] = row;
+            }
+
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(n);
+                out.writeInt(keyBytes.size());
+                out.writeLong(source != null ? source.length() : -1);
+                out.writeLong(source != null ? source.lastModified() : -1);
+                out.writeUTF(source != null ? source.getAbsolutePath() : "");
+                out.writeUTF(normalizer != null ? normalizer.name() : "");
+                for (int row = 0; row < n; row++) {
+                    out.writeLong(ids[order[row]]);
+                }
+                for (int row = 0; row < n; row++) {
+                    out.writeDouble(lons[order[row]]);
+                }
+                for (int row = 0; row < n; row++) {
+                    out.writeDouble(lats[order[row]]);
+                }
+                int offset = 0;
+                for (int row = 0; row < n; row++) {
+                    out.writeInt(offset);
+                    offset += nameBytes[row].length;
+                }
+                out.writeInt(offset);
+                for (long id : sortedIds) {
+                    out.writeLong(id);
+                }
+                for (int row : idRows) {
+                    out.writeInt(row);
+                }
+                offset = 0;
+                for (byte[] key : keyBytes) {
+                    out.writeInt(offset);
+                    offset += key.length;
+                }
+                out.writeInt(offset);
+                for (int first : firstRows) {
+                    out.writeInt(first);
+                }
+                out.writeInt(n);
+                for (byte[] name : nameBytes) {
+                    out.write(name);
+                }
+                for (byte[] key : keyBytes) {
+                    out.write(key);
+                }
+            }
+            return open(file);
+        }
+    }
+}
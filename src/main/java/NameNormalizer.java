@@ -0,0 +1,95 @@
+import java.text.Normalizer;
+
+/**
+ * Normalizes location names into the "cleaned" form used as search keys: only the letters
+ * a-z and spaces survive, and letters are lowercased. This is the single-pass, table driven
+ * equivalent of {@code s.replaceAll("[^a-zA-Z ]", "").toLowerCase()}.
+ *
+ * Every char is mapped through a lookup table that either gives its cleaned replacement or
+ * {@link #DROP}. When Unicode folding is enabled, accented Latin letters are folded to their
+ * base letter (so "Caf&eacute;" cleans to "cafe" rather than "caf"); the folded forms are computed
+ * once when the class is loaded, so no call ever needs to decompose a string.
+ *
+ * Callers that only need to walk a cleaned key, such as the trie lookups in {@link TrieST},
+ * can use {@link #map(char)} directly and never allocate a cleaned string at all.
+ */
+public final class NameNormalizer {
+    /** Table value for chars that are removed by cleaning. */
+    static final char DROP = 0;
+
+    /** Size of the folding table, covering Latin-1 Supplement and Latin Extended-A. */
+    private static final int TABLE_SIZE = 0x180;
+
+    private static final char[] ASCII_TABLE = new char[TABLE_SIZE];
+    private static final char[] FOLDING_TABLE = new char[TABLE_SIZE];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ASCII_TABLE[c] = c;
+            ASCII_TABLE[c - 'a' + 'A'] = c;
+        }
+        ASCII_TABLE[' '] = ' ';
+        System.arraycopy(ASCII_TABLE, 0, FOLDING_TABLE, 0, 0x80);
+        for (char c = 0x80; c < TABLE_SIZE; c++) {
+            /* Decompose (e.g. an accented e -> 'e' + U+0301) and keep the base letter if it is ASCII. */
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            char base = decomposed.charAt(0);
+            FOLDING_TABLE[c] = base < 0x80 ? ASCII_TABLE[base] : DROP;
+        }
+    }
+
+    /** Matches the legacy regex behaviour: non-ASCII letters are dropped. */
+    public static final NameNormalizer ASCII = new NameNormalizer("ascii", ASCII_TABLE);
+
+    /** Folds accented Latin letters to their base letter before cleaning. */
+    public static final NameNormalizer FOLDING = new NameNormalizer("folding", FOLDING_TABLE);
+
+    private final String name;
+    private final char[] table;
+
+    private NameNormalizer(String name, char[] table) {
+        this.name = name;
+        this.table = table;
+    }
+
+    /** Returns the name of this normalizer, as recorded in the dictionaries it cleaned. */
+    String name() {
+        return name;
+    }
+
+    /**
+     * Maps a single char to its cleaned form.
+     * @param c Input char.
+     * @return The cleaned char, or {@link #DROP} if c is removed by cleaning.
+     */
+    char map(char c) {
+        return c < TABLE_SIZE ? table[c] : DROP;
+    }
+
+    /**
+     * Returns the cleaned form of s. If s is already clean, s itself is returned and nothing
+     * is allocated.
+     * @param s Input string.
+     * @return Cleaned string.
+     */
+    public String clean(String s) {
+        int n = s.length();
+        int i = 0;
+        while (i < n && s.charAt(i) != DROP && map(s.charAt(i)) == s.charAt(i)) {
+            i++;
+        }
+        if (i == n) {
+            return s;
+        }
+        char[] out = new char[n];
+        s.getChars(0, i, out, 0);
+        int len = i;
+        for (; i < n; i++) {
+            char c = map(s.charAt(i));
+            if (c != DROP) {
+                out[len++] = c;
+            }
+        }
+        return new String(out, 0, len);
+    }
+}
@@ -0,0 +1,37 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for drawing one raster in
+ * {@link MapServer#writeImagesToOutputStream}, recorded when it takes longer than the
+ * threshold (50 ms by default).
+ */
+@Name("bearmaps.Raster")
+@Label("Raster Image")
+@Category("BearMaps")
+@Description("Reading, compositing and encoding the tiles of one raster response")
+@Threshold("50 ms")
+class RasterEvent extends Event {
+    @Label("Depth")
+    int depth;
+
+    @Label("Tiles")
+    int tiles;
+
+    @Label("Tile Fetch Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long fetchTime;
+
+    @Label("Encode Time")
+    @Description("Time spent encoding the PNG")
+    @Timespan(Timespan.NANOSECONDS)
+    long encodeTime;
+
+    @Label("Encoded Bytes")
+    int bytes;
+}
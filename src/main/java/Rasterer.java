@@ -8,14 +8,11 @@ import java.util.Map;
  * not draw the output correctly.
  */
 public class Rasterer {
-    private Boolean query_success;
     private static final double ROOT_W = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
     private static final double ROOT_H = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
     private static final double ROOT_LONDPP = ROOT_W / MapServer.TILE_SIZE;
 
     public Rasterer() {
-        // YOUR CODE HERE
-        query_success = true;
     }
 
     /**
@@ -53,6 +50,9 @@ public class Rasterer {
         int[] x_range = getXrange(params.get("ullon"), params.get("lrlon"), depth);
         int[] y_range = getYrange(params.get("ullat"), params.get("lrlat"), depth);
         Map<String, Object> results = new HashMap<>();
+        /* Local rather than a field, so one bad query does not fail every later one and
+         * concurrent requests can share this Rasterer. */
+        boolean query_success = true;
 
         // Check for valid query box
         if (params.get("ullon") > params.get("lrlon") || params.get("lrlat") > params.get("ullat") ||
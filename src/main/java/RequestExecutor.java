@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execution mode of the server's request handlers, chosen with -Dbearmaps.executor.
+ *
+ * In the default "jetty" mode every handler runs start to finish on a Jetty request thread,
+ * as it always has. In "async" mode the handlers split their work by kind: CPU-heavy stages
+ * (A*, compositing and PNG encoding) run on a pool with one thread per core, so a burst of
+ * rasters cannot oversubscribe the CPUs, and tile reads run in parallel on a larger pool of
+ * I/O threads. Virtual threads would make the waiting request threads cheaper still, but the
+ * server is built for Java 8.
+ *
+ * With admission control on, /raster, /route and /search each get an
+ * {@link AdmissionLimiter}; /alternatives, /matrix and /isochrone share /route's, so slow
+ * rasters can only occupy a bounded and adaptive share of the request threads, and /search
+ * keystrokes go ahead of them.
+ */
+final class RequestExecutor {
+    static final boolean ASYNC = "async".equals(System.getProperty("bearmaps.executor"));
+    /** Admission control is on in async mode, or when -Dbearmaps.admission=true. */
+    static final boolean ADMISSION = ASYNC || Boolean.getBoolean("bearmaps.admission");
+    /** Request threads Jetty may start in async mode; most of them only wait. */
+    static final int REQUEST_THREADS = 256;
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService CPU = pool("bearmaps-cpu", CORES);
+    private static final ExecutorService IO = pool("bearmaps-io", 4 * CORES);
+
+    /**
+     * Admission limiters of /search, /route and /raster, in order of priority. Searches are
+     * cheap and typed a keystroke at a time, so they wait longest and go first.
+     */
+    private static final AdmissionLimiter SEARCH = new AdmissionLimiter("/search", 2,
+            8 * CORES, CORES, 64 * CORES, 50, 1000, 64 * CORES);
+    private static final AdmissionLimiter ROUTE = new AdmissionLimiter("/route", 1,
+            2 * CORES, 1, 16 * CORES, 500, 200, 4 * CORES, SEARCH);
+    private static final AdmissionLimiter RASTER = new AdmissionLimiter("/raster", 0,
+            2 * CORES, 1, 16 * CORES, 500, 200, 4 * CORES, SEARCH, ROUTE);
+    static final AdmissionLimiter[] LIMITERS = {SEARCH, ROUTE, RASTER};
+
+    private RequestExecutor() {
+    }
+
+    private static ExecutorService pool(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        /* Pool threads are only started while there is work, and are never more than
+         * threads; the queue is unbounded because admission control already bounds the work. */
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Returns the admission limiter of path when admission control is on, or null if the
+     * path runs unrestricted.
+     */
+    static AdmissionLimiter limiter(String path) {
+        if (!ADMISSION) {
+            return null;
+        }
+        switch (path) {
+            case "/raster":
+                return RASTER;
+            case "/route":
+            case "/alternatives":
+            case "/matrix":
+            case "/isochrone":
+                return ROUTE;
+            case "/search":
+                return SEARCH;
+            default:
+                return null;
+        }
+    }
+
+    /** Runs a CPU-heavy task on the CPU pool in async mode, or right here otherwise. */
+    static <T> T cpu(Callable<T> task) {
+        if (!ASYNC) {
+            return call(task);
+        }
+        return get(CPU.submit(task));
+    }
+
+    /** Runs I/O-bound tasks in parallel on the I/O pool in async mode, or in turn otherwise. */
+    static <T> List<T> io(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (!ASYNC) {
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(IO.submit(task));
+        }
+        for (Future<T> f : futures) {
+            results.add(get(f));
+        }
+        return results;
+    }
+
+    private static <T> T call(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
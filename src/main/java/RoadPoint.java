@@ -0,0 +1,37 @@
+/**
+ * A point partway along a road segment, where a location snapped to the road network lies.
+ * Searches treat it as a virtual vertex joined to both ends of its segment by the part of
+ * the segment's weight on each side.
+ */
+final class RoadPoint {
+    /** The edge of the segment, leading from v to w. */
+    final int edge;
+    /** Dense indexes of the segment's ends. */
+    final int v;
+    final int w;
+    /** How far along the segment from v to w the point lies, from 0 to 1. */
+    final double fraction;
+    final double lon;
+    final double lat;
+
+    /**
+     * Creates the point a fraction of the way along an edge.
+     * @param g The graph.
+     * @param v The dense index of the vertex the edge leads from.
+     * @param edge The edge.
+     * @param fraction How far along the edge the point lies, from 0 to 1.
+     */
+    RoadPoint(GraphDB g, int v, int edge, double fraction) {
+        this.edge = edge;
+        this.v = v;
+        this.w = g.edgeTarget(v, edge);
+        this.fraction = fraction;
+        lon = g.lonAt(v) + fraction * (g.lonAt(w) - g.lonAt(v));
+        lat = g.latAt(v) + fraction * (g.latAt(w) - g.latAt(v));
+    }
+
+    /** Returns the same segment's point at another fraction of the way along it. */
+    RoadPoint at(GraphDB g, double otherFraction) {
+        return new RoadPoint(g, v, edge, otherFraction);
+    }
+}
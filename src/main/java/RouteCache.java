@@ -0,0 +1,229 @@
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches routes and their directions, keyed by the road segments the endpoints snap to, where
+ * along them they lie, the routing profile and the travel mode. Positions along a segment
+ * are rounded to a {@value #STEPS_PER_SEGMENT}th of it, and the route is computed from the
+ * rounded points, so clicks a few feet apart share one entry and get exactly the same route.
+ * A hit skips both the A* search and the directions.
+ *
+ * Identical requests in flight at the same time share one computation: the first inserts a
+ * future and computes the route, and the others wait for it. A cache serves one graph, so a
+ * reloaded graph gets a new cache and nothing stale survives it.
+ *
+ * Like {@link SearchCache}, it holds at most {@code capacity} entries, evicts with the CLOCK
+ * (second chance) policy, and is safe to call concurrently.
+ */
+public class RouteCache {
+    /** Positions along a road segment that endpoints are rounded to, besides its start. */
+    private static final int STEPS_PER_SEGMENT = 16;
+
+    private final GraphDB g;
+    private final int capacity;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Key> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache for routes on the given graph.
+     * @param g The graph to route on.
+     * @param capacity Maximum number of cached routes.
+     */
+    public RouteCache(GraphDB g, int capacity) {
+        this.g = g;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the best route between the points on the roads closest to two locations, and
+     * its directions, computing them only if no equal request was cached or is in flight.
+     * @see Router#shortestRoadPath
+     */
+    public Route route(double stlon, double stlat, double destlon, double destlat,
+                       RoutingProfile profile, TravelMode mode) {
+        long start = System.nanoTime();
+        RoadPoint src = Router.snapToRoad(g, stlon, stlat, mode);
+        RoadPoint dest = Router.snapToRoad(g, destlon, destlat, mode);
+        Metrics.phase(Metrics.Phase.CLOSEST, start);
+
+        Key key = new Key(src.edge, step(src), dest.edge, step(dest), profile, mode);
+        Entry e = entries.get(key);
+        if (e == null) {
+            Entry mine = new Entry();
+            e = entries.putIfAbsent(key, mine);
+            if (e == null) {
+                misses.increment();
+                compute(key, mine, src.at(g, (double) key.srcStep / STEPS_PER_SEGMENT),
+                        dest.at(g, (double) key.destStep / STEPS_PER_SEGMENT));
+                return mine.future.join();
+            }
+        }
+        if (e.future.isDone()) {
+            hits.increment();
+        } else {
+            shared.increment();
+        }
+        e.referenced = true;
+        try {
+            return e.future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private static int step(RoadPoint p) {
+        return (int) Math.round(p.fraction * STEPS_PER_SEGMENT);
+    }
+
+    /** Computes the route of a new entry, and drops the entry again if that fails. */
+    private void compute(Key key, Entry e, RoadPoint src, RoadPoint dest) {
+        try {
+            List<Long> path = Router.shortestPath(g, src, dest, key.profile, key.mode);
+            long start = System.nanoTime();
+            List<Router.NavigationDirection> directions = Router.routeDirections(g, path);
+            Metrics.phase(Metrics.Phase.DIRECTIONS, start);
+            e.future.complete(new Route(path, directions));
+        } catch (RuntimeException | Error ex) {
+            entries.remove(key, e);
+            e.future.completeExceptionally(ex);
+            throw ex;
+        }
+        clock.offer(key);
+        if (size.incrementAndGet() > capacity) {
+            evict();
+        }
+    }
+
+    /** Removes one entry that has not been hit since the clock hand last passed it. */
+    private void evict() {
+        Key key;
+        while ((key = clock.poll()) != null) {
+            Entry e = entries.get(key);
+            if (e != null && e.referenced) {
+                e.referenced = false;
+                clock.offer(key);
+                continue;
+            }
+            if (e != null && entries.remove(key, e)) {
+                size.decrementAndGet();
+                evictions.increment();
+            }
+            return;
+        }
+    }
+
+    /**
+     * Returns the cache statistics: hits, misses, requests that shared a computation in
+     * flight, hit rate (counting shared requests as hits), evictions and the current number
+     * of entries.
+     * @return Map of statistic name to value.
+     */
+    public Map<String, Object> stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        long s = shared.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("shared", s);
+        stats.put("hit_rate", h + m + s == 0 ? 0.0 : (double) (h + s) / (h + m + s));
+        stats.put("evictions", evictions.sum());
+        stats.put("size", size.get());
+        stats.put("capacity", capacity);
+        return stats;
+    }
+
+    /** A cached route: its node ids, packed into an array, and its directions. */
+    public static class Route {
+        private final long[] path;
+        private final List<Router.NavigationDirection> directions;
+
+        Route(List<Long> path, List<Router.NavigationDirection> directions) {
+            this.path = new long[path.size()];
+            int i = 0;
+            for (long v : path) {
+                this.path[i++] = v;
+            }
+            this.directions = directions;
+        }
+
+        /** Returns the node ids of the route, as a read-only view of the packed array. */
+        public List<Long> path() {
+            return new AbstractList<Long>() {
+                @Override
+                public Long get(int i) {
+                    return path[i];
+                }
+
+                @Override
+                public int size() {
+                    return path.length;
+                }
+            };
+        }
+
+        /** Returns the directions of the route, which callers must not modify. */
+        public List<Router.NavigationDirection> directions() {
+            return directions;
+        }
+    }
+
+    // The snapped segments and rounded positions of a route's ends, its profile and mode
+    private static class Key {
+        final int srcEdge;
+        final int srcStep;
+        final int destEdge;
+        final int destStep;
+        final RoutingProfile profile;
+        final TravelMode mode;
+
+        Key(int srcEdge, int srcStep, int destEdge, int destStep, RoutingProfile profile,
+            TravelMode mode) {
+            this.srcEdge = srcEdge;
+            this.srcStep = srcStep;
+            this.destEdge = destEdge;
+            this.destStep = destStep;
+            this.profile = profile;
+            this.mode = mode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return srcEdge == k.srcEdge && srcStep == k.srcStep && destEdge == k.destEdge
+                    && destStep == k.destStep && profile == k.profile && mode == k.mode;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = (srcEdge * 31 + srcStep) * 31 + destEdge;
+            return ((h * 31 + destStep) * 31 + profile.ordinal()) * 31 + mode.ordinal();
+        }
+    }
+
+    // A route being computed or already computed
+    private static class Entry {
+        final CompletableFuture<Route> future = new CompletableFuture<>();
+        volatile boolean referenced;
+    }
+}
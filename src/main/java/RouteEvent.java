@@ -0,0 +1,43 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for one {@link Router#shortestPath} search. Only searches slower than
+ * the threshold (20 ms unless the recording's settings say otherwise) are recorded, and the
+ * fields are filled in only for those, so the event costs next to nothing when disabled.
+ */
+@Name("bearmaps.Route")
+@Label("Route Search")
+@Category("BearMaps")
+@Description("A shortest path search between two points of the map")
+@Threshold("20 ms")
+class RouteEvent extends Event {
+    @Label("Source Node")
+    long src;
+
+    @Label("Destination Node")
+    long dest;
+
+    @Label("Settled Nodes")
+    @Description("Nodes taken off the A* fringe")
+    int settledNodes;
+
+    @Label("Profile")
+    @Description("What the search minimised, such as SHORTEST or FASTEST")
+    String profile;
+
+    @Label("Mode")
+    @Description("How the route is travelled, such as DRIVE, WALK or BIKE")
+    String mode;
+
+    @Label("Path Nodes")
+    int pathNodes;
+
+    @Label("Path Length")
+    @Description("Length of the path in miles, or 0 if there is none")
+    double pathMiles;
+}
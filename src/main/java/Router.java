@@ -1,6 +1,7 @@
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 /**
  * This class provides a shortestPath method for finding routes between two points
@@ -11,6 +12,18 @@ import java.util.regex.Pattern;
  * down to the priority you use to order your vertices.
  */
 public class Router {
+    /** Way id used while no way is shared by the last two nodes. */
+    private static final int NO_WAY = -1;
+    /** Sources searched in turn by each fork-join task of a distance matrix. */
+    private static final int MATRIX_SOURCES_PER_TASK = 4;
+    /** Longest an alternative route may be, as a multiple of the best route's cost. */
+    private static final double MAX_STRETCH = 1.25;
+    /** Most an alternative may share with each route chosen before it, as a fraction of the
+     * best route's cost. */
+    private static final double MAX_SHARING = 0.8;
+    /** Shortest plateau an alternative's via-vertex may end, as a fraction of the best
+     * route's cost; shorter plateaus mean detours that are not locally optimal. */
+    private static final double MIN_PLATEAU = 0.2;
 
     /**
      * Return a List of longs representing the shortest path from the node
@@ -25,66 +38,570 @@ public class Router {
      */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        /* Initialize structures to get shortest path */
-        Map<Long, Long> edgeTo = new HashMap<>();
-        Map<Long, Double> distTo = new HashMap<>();
-        Set<Long> visited = new HashSet<>();
-        List<Long> route = new LinkedList<>();
-        long src = g.closest(stlon, stlat);
-        long dest = g.closest(destlon, destlat);
-        PriorityQueue<Long> fringe = new PriorityQueue<Long>(new Comparator<Long>() {
-            @Override
-            public int compare(Long w, Long v) {
-                double wCost = distTo.get(w) + g.distance(w, dest);
-                double vCost = distTo.get(v) + g.distance(v, dest);
-                if (wCost < vCost) {
-                    return -1;
+        return shortestPath(g, stlon, stlat, destlon, destlat, RoutingProfile.SHORTEST,
+                TravelMode.DRIVE);
+    }
+
+    /**
+     * Return a List of longs representing the best path under a routing profile in a mode of
+     * travel, from the node closest to a start location to the node closest to the
+     * destination location. Only nodes and roads the mode may use are considered.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param profile What the path minimises.
+     * @param mode How the path is travelled.
+     * @return A list of node id's in the order visited on the path, or an empty list if the
+     * destination cannot be reached.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat,
+                                          RoutingProfile profile, TravelMode mode) {
+        long start = System.nanoTime();
+        int src = snap(g, stlon, stlat, mode);
+        int dest = snap(g, destlon, destlat, mode);
+        Metrics.phase(Metrics.Phase.CLOSEST, start);
+        return shortestPath(g, src, dest, profile, mode);
+    }
+
+    /**
+     * Return the best path under a routing profile in a mode of travel between two vertices.
+     * Vertices in different connected components are rejected without a search.
+     * @param g The graph to use.
+     * @param src The dense index of the start vertex, as returned by {@link #snap}.
+     * @param dest The dense index of the destination vertex.
+     * @param profile What the path minimises.
+     * @param mode How the path is travelled.
+     * @return A list of node id's in the order visited on the path, or an empty list if the
+     * destination cannot be reached.
+     */
+    static List<Long> shortestPath(GraphDB g, int src, int dest, RoutingProfile profile,
+                                   TravelMode mode) {
+        RouteEvent event = new RouteEvent();
+        event.begin();
+
+        /* A* search algorithm */
+        long start = System.nanoTime();
+        if (!g.connected(src, dest, mode)) {
+            commit(event, g, src, dest, profile, mode, 0, new LinkedList<>());
+            return new LinkedList<>();
+        }
+        int settled;
+        List<Long> route;
+        try (DijkstraSearch search = DijkstraSearch.acquire(g)) {
+            settled = search.runTo(src, dest, profile, mode);
+            route = search.pathTo(dest);
+        }
+        Metrics.phase(Metrics.Phase.ASTAR, start);
+        Metrics.count(Metrics.Phase.SETTLED_NODES, settled);
+        commit(event, g, src, dest, profile, mode, settled, route);
+        return route;
+    }
+
+    /**
+     * Return a List of longs representing the best path under a routing profile in a mode of
+     * travel between the points closest to two locations on the roads the mode may use.
+     * Unlike {@link #shortestPath}, a location beside a long road with few nodes is snapped
+     * onto the road itself, so the path does not start or end with a detour to a node behind
+     * it: the search starts from both ends of the start's road segment, at the cost of the
+     * part of the segment on each side, and finishes through whichever end of the
+     * destination's segment is cheaper.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param profile What the path minimises.
+     * @param mode How the path is travelled.
+     * @return A list of node id's in the order visited on the path, from one end of the
+     * start's segment to one end of the destination's, or an empty list if the destination
+     * cannot be reached.
+     */
+    public static List<Long> shortestRoadPath(GraphDB g, double stlon, double stlat,
+                                              double destlon, double destlat,
+                                              RoutingProfile profile, TravelMode mode) {
+        long start = System.nanoTime();
+        RoadPoint src = snapToRoad(g, stlon, stlat, mode);
+        RoadPoint dest = snapToRoad(g, destlon, destlat, mode);
+        Metrics.phase(Metrics.Phase.CLOSEST, start);
+        return shortestPath(g, src, dest, profile, mode);
+    }
+
+    /**
+     * Return the best path under a routing profile in a mode of travel between two points on
+     * roads, as returned by {@link #snapToRoad}. Points in different connected components
+     * are rejected without a search.
+     * @see #shortestRoadPath
+     */
+    static List<Long> shortestPath(GraphDB g, RoadPoint src, RoadPoint dest,
+                                   RoutingProfile profile, TravelMode mode) {
+        RouteEvent event = new RouteEvent();
+        event.begin();
+
+        long start = System.nanoTime();
+        if (!g.connected(src.v, dest.v, mode)) {
+            commit(event, g, src.v, dest.v, profile, mode, 0, new LinkedList<>());
+            return new LinkedList<>();
+        }
+        int settled;
+        List<Long> route;
+        try (DijkstraSearch search = DijkstraSearch.acquire(g)) {
+            settled = search.runTo(src, dest, profile, mode);
+            double direct = Math.abs(src.fraction - dest.fraction)
+                    * g.weights(profile, mode)[src.edge] * g.weightScale(profile, mode);
+            if (src.edge == dest.edge && direct <= search.endCost()) {
+                /* Both points are on one segment, and staying on it is best. */
+                route = new LinkedList<>();
+                if (src.fraction < dest.fraction) {
+                    route.add(g.id(src.v));
+                    route.add(g.id(src.w));
+                } else if (src.fraction > dest.fraction) {
+                    route.add(g.id(src.w));
+                    route.add(g.id(src.v));
+                } else {
+                    route.add(g.id(src.fraction < 0.5 ? src.v : src.w));
                 }
-                if (wCost > vCost) {
-                    return 1;
+            } else {
+                route = search.end() < 0 ? new LinkedList<>() : search.pathTo(search.end());
+            }
+        }
+        Metrics.phase(Metrics.Phase.ASTAR, start);
+        Metrics.count(Metrics.Phase.SETTLED_NODES, settled);
+        commit(event, g, src.v, dest.v, profile, mode, settled, route);
+        return route;
+    }
+
+    /** Fills in and commits a route event, if it was slow enough to be recorded. */
+    private static void commit(RouteEvent event, GraphDB g, int src, int dest,
+                               RoutingProfile profile, TravelMode mode, int settled,
+                               List<Long> route) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.src = g.id(src);
+            event.dest = g.id(dest);
+            event.profile = profile.name();
+            event.mode = mode.name();
+            event.settledNodes = settled;
+            event.pathNodes = route.size();
+            event.pathMiles = pathMiles(g, route);
+            event.commit();
+        }
+    }
+
+    /**
+     * Return the best route and a few meaningfully different alternatives between the nodes
+     * closest to two locations, by road distance.
+     * @see #alternatives(GraphDB, double, double, double, double, int, RoutingProfile,
+     * TravelMode)
+     */
+    public static List<RouteCache.Route> alternatives(GraphDB g, double stlon, double stlat,
+                                                      double destlon, double destlat,
+                                                      int maxRoutes) {
+        return alternatives(g, stlon, stlat, destlon, destlat, maxRoutes,
+                RoutingProfile.SHORTEST, TravelMode.DRIVE);
+    }
+
+    /**
+     * Return the best route and a few meaningfully different alternatives under a routing
+     * profile in a mode of travel, with the plateau method: one search tree grows from the
+     * start and one from the destination, each up to {@value #MAX_STRETCH} times the best
+     * route's cost. A plateau is a run of edges that both trees share, and the route through
+     * it is locally optimal along its length; each plateau long enough gives a candidate,
+     * the start's tree to its end and the destination's tree from there. Candidates are taken
+     * cheapest first, skipping those that share too much with a route already chosen. No
+     * search runs besides the two trees.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param maxRoutes The most routes to return, counting the best one.
+     * @param profile What the routes minimise.
+     * @param mode How the routes are travelled.
+     * @return The routes with their directions, best first, or an empty list if the
+     * destination cannot be reached.
+     */
+    public static List<RouteCache.Route> alternatives(GraphDB g, double stlon, double stlat,
+                                                      double destlon, double destlat,
+                                                      int maxRoutes, RoutingProfile profile,
+                                                      TravelMode mode) {
+        if (maxRoutes < 1) {
+            throw new IllegalArgumentException("Ask for at least one route.");
+        }
+        long start = System.nanoTime();
+        int src = snap(g, stlon, stlat, mode);
+        int dest = snap(g, destlon, destlat, mode);
+        Metrics.phase(Metrics.Phase.CLOSEST, start);
+
+        start = System.nanoTime();
+        List<int[]> chosen = new ArrayList<>();
+        if (g.connected(src, dest, mode)) {
+            try (DijkstraSearch fwd = DijkstraSearch.acquire(g);
+                 DijkstraSearch bwd = DijkstraSearch.acquire(g)) {
+                fwd.runUntil(src, dest, profile, mode);
+                double best = fwd.distTo(dest);
+                double limit = MAX_STRETCH * best;
+                int settled = fwd.extendWithin(limit);
+                Metrics.count(Metrics.Phase.SETTLED_NODES,
+                        settled + bwd.runWithin(dest, limit, profile, mode));
+                chosen.add(viaPath(fwd, bwd, dest));
+                chooseAlternatives(g, fwd, settled, bwd, best, maxRoutes, profile, mode, chosen);
+            }
+        }
+        Metrics.phase(Metrics.Phase.ALTERNATIVES, start);
+
+        start = System.nanoTime();
+        List<RouteCache.Route> routes = new ArrayList<>(chosen.size());
+        for (int[] path : chosen) {
+            List<Long> ids = new ArrayList<>(path.length);
+            for (int v : path) {
+                ids.add(g.id(v));
+            }
+            /* A route that starts where it ends has no directions. */
+            List<NavigationDirection> directions = routeDirections(g, ids);
+            routes.add(new RouteCache.Route(ids,
+                    directions != null ? directions : new ArrayList<>()));
+        }
+        Metrics.phase(Metrics.Phase.DIRECTIONS, start);
+        return routes;
+    }
+
+    /**
+     * Adds to chosen, cheapest first, the routes through the ends of long enough plateaus
+     * that share little enough with every route chosen before them.
+     */
+    private static void chooseAlternatives(GraphDB g, DijkstraSearch fwd, int fwdSettled,
+                                           DijkstraSearch bwd, double best, int maxRoutes,
+                                           RoutingProfile profile, TravelMode mode,
+                                           List<int[]> chosen) {
+        int n = 0;
+        int[] vias = new int[16];
+        double[] costs = new double[16];
+        for (int i = 0; i < fwdSettled; i++) {
+            int v = fwd.settled(i);
+            double cost = fwd.distTo(v) + bwd.distTo(v);
+            if (cost > MAX_STRETCH * best || !plateauEdge(fwd, bwd, fwd.parent(v), v)
+                    || plateauEdge(fwd, bwd, v, bwd.parent(v))) {
+                /* Too long, or not the end of a plateau. */
+                continue;
+            }
+            int a = v;
+            while (plateauEdge(fwd, bwd, fwd.parent(a), a)) {
+                a = fwd.parent(a);
+            }
+            if (fwd.distTo(v) - fwd.distTo(a) < MIN_PLATEAU * best) {
+                continue;
+            }
+            if (n == vias.length) {
+                vias = Arrays.copyOf(vias, 2 * n);
+                costs = Arrays.copyOf(costs, 2 * n);
+            }
+            vias[n] = v;
+            costs[n++] = cost;
+        }
+        int[] order = sortByCost(costs, n);
+
+        double[] weights = g.weights(profile, mode);
+        double scale = g.weightScale(profile, mode);
+        /* The edges of each chosen route, sorted for binary search. */
+        List<int[]> chosenEdges = new ArrayList<>();
+        for (int[] path : chosen) {
+            int[] edges = pathEdges(g, path, weights, mode);
+            Arrays.sort(edges);
+            chosenEdges.add(edges);
+        }
+        for (int k = 0; k < n && chosen.size() < maxRoutes; k++) {
+            int[] path = viaPath(fwd, bwd, vias[order[k]]);
+            int[] edges = pathEdges(g, path, weights, mode);
+            if (edges == null) {
+                /* The two trees meet in a U-turn: the path visits a vertex twice. */
+                continue;
+            }
+            boolean distinct = true;
+            for (int[] other : chosenEdges) {
+                double shared = 0;
+                for (int e : edges) {
+                    if (Arrays.binarySearch(other, e) >= 0) {
+                        shared += weights[e] * scale;
+                    }
+                }
+                if (shared > MAX_SHARING * best) {
+                    distinct = false;
+                    break;
                 }
-                return 0;
             }
-        });
+            if (distinct) {
+                chosen.add(path);
+                Arrays.sort(edges);
+                chosenEdges.add(edges);
+            }
+        }
+    }
+
+    /**
+     * Returns the indexes of the first n costs, which must not be negative, in increasing
+     * order of cost; equal costs keep their order.
+     */
+    private static int[] sortByCost(double[] costs, int n) {
+        /* Sort by cost rounded to a float, whose bits sort as it does when it is not
+         * negative, with the index below it; then put equal floats in exact order. */
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (long) Float.floatToIntBits((float) costs[i]) << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            int c = (int) keys[i];
+            int j = i;
+            while (j > 0 && costs[order[j - 1]] > costs[c]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = c;
+        }
+        return order;
+    }
 
-        /* Add initial values to edgeTo, distTo, and fringe */
-        for (long v : g.vertices()) {
-            distTo.put(v, Double.POSITIVE_INFINITY);
-            edgeTo.put(v, (long) -117);
+    /**
+     * Returns whether u-v is an edge of both trees: leading from u to v in fwd's, and from v
+     * to u in bwd's, which grows from the other end.
+     */
+    private static boolean plateauEdge(DijkstraSearch fwd, DijkstraSearch bwd, int u, int v) {
+        return u >= 0 && v >= 0 && fwd.distTo(v) < Double.POSITIVE_INFINITY
+                && bwd.distTo(u) < Double.POSITIVE_INFINITY
+                && fwd.parent(v) == u && bwd.parent(u) == v;
+    }
+
+    /** Returns the path along fwd's tree from its source to v, then bwd's from v to its own. */
+    private static int[] viaPath(DijkstraSearch fwd, DijkstraSearch bwd, int v) {
+        int head = 0;
+        for (int x = v; x >= 0; x = fwd.parent(x)) {
+            head++;
+        }
+        int tail = 0;
+        for (int x = bwd.parent(v); x >= 0; x = bwd.parent(x)) {
+            tail++;
+        }
+        int[] path = new int[head + tail];
+        int i = head;
+        for (int x = v; x >= 0; x = fwd.parent(x)) {
+            path[--i] = x;
+        }
+        i = head;
+        for (int x = bwd.parent(v); x >= 0; x = bwd.parent(x)) {
+            path[i++] = x;
         }
-        distTo.replace(src, 0.0);
-        edgeTo.put(src, (long) 0);
-        fringe.add(src);
+        return path;
+    }
 
-        /* A* search algorithm */
-        while (!fringe.isEmpty()) {
-            long curr = fringe.poll();
-            if (curr == dest) {
-                break;
+    /**
+     * Returns the edges of a path: between each two consecutive vertices, the cheapest edge
+     * open to a mode, by its index from the lower of the two; or null if the path visits a
+     * vertex twice.
+     */
+    private static int[] pathEdges(GraphDB g, int[] path, double[] weights, TravelMode mode) {
+        int[] visited = path.clone();
+        Arrays.sort(visited);
+        for (int k = 1; k < visited.length; k++) {
+            if (visited[k] == visited[k - 1]) {
+                return null;
+            }
+        }
+        int[] edges = new int[Math.max(0, path.length - 1)];
+        for (int k = 1; k < path.length; k++) {
+            int v = Math.min(path[k - 1], path[k]);
+            int w = Math.max(path[k - 1], path[k]);
+            int cheapest = -1;
+            for (int e = g.firstEdge(v); e < g.firstEdge(v + 1); e++) {
+                if (g.edgeTarget(v, e) == w && (g.edgeModes(e) & mode.bit) != 0
+                        && (cheapest < 0 || weights[e] < weights[cheapest])) {
+                    cheapest = e;
+                }
+            }
+            edges[k - 1] = cheapest;
+        }
+        return edges;
+    }
+
+    /** Returns the length of a path in miles. */
+    static double pathMiles(GraphDB g, List<Long> route) {
+        double miles = 0;
+        int prev = -1;
+        for (long v : route) {
+            int curr = g.index(v);
+            if (prev >= 0) {
+                miles += g.edgeLength(prev, curr);
+            }
+            prev = curr;
+        }
+        return miles;
+    }
+
+    /**
+     * Return the road distances in miles from every source location to every target
+     * location.
+     * @see #distanceMatrix(GraphDB, double[], double[], double[], double[], RoutingProfile,
+     * TravelMode)
+     */
+    public static double[] distanceMatrix(GraphDB g, double[] srcLons, double[] srcLats,
+                                          double[] destLons, double[] destLats) {
+        return distanceMatrix(g, srcLons, srcLats, destLons, destLats, RoutingProfile.SHORTEST,
+                TravelMode.DRIVE);
+    }
+
+    /**
+     * Return the costs under a routing profile in a mode of travel, such as road distances in
+     * miles, from every source location to every target location. Each location is snapped
+     * to its closest vertex once, and then one Dijkstra search runs from each source until it
+     * has settled every target in the source's connected component; targets in other
+     * components are never searched for. The searches run in
+     * parallel on the common fork-join pool, a few sources per task, each task taking a
+     * {@link DijkstraSearch} from the shared pool and returning it when done.
+     * @param g The graph to use.
+     * @param srcLons The longitudes of the sources.
+     * @param srcLats The latitudes of the sources.
+     * @param destLons The longitudes of the targets.
+     * @param destLats The latitudes of the targets.
+     * @param profile What the costs measure.
+     * @param mode How the routes are travelled.
+     * @return The costs in row-major order: the cost from source i to target j is at
+     * i * destLons.length + j. Targets that cannot be reached are infinitely far away.
+     */
+    public static double[] distanceMatrix(GraphDB g, double[] srcLons, double[] srcLats,
+                                          double[] destLons, double[] destLats,
+                                          RoutingProfile profile, TravelMode mode) {
+        if (srcLons.length != srcLats.length || destLons.length != destLats.length) {
+            throw new IllegalArgumentException("Every location needs a lon and a lat.");
+        }
+        long start = System.nanoTime();
+        int[] sources = snap(g, srcLons, srcLats, mode);
+        int[] targets = snap(g, destLons, destLats, mode);
+        Metrics.phase(Metrics.Phase.CLOSEST, start);
+
+        start = System.nanoTime();
+        boolean[] isTarget = new boolean[g.vertexCount()];
+        int[] targetsIn = new int[g.componentCount(mode)];
+        for (int t : targets) {
+            /* Searches skip shape vertices, so they wait for both ends of the chain instead. */
+            int[] ends = g.isShapeVertex(t)
+                    ? new int[] {g.chainTarget(g.chainOf(t)),
+                        g.chainTarget(g.chainReverse(g.chainOf(t)))}
+                    : new int[] {t};
+            for (int v : ends) {
+                if (!isTarget[v]) {
+                    isTarget[v] = true;
+                    targetsIn[g.component(v, mode)]++;
+                }
             }
-            if (!visited.contains(curr)) {
-                visited.add(curr);
-                for (long neighbor : g.adjacent(curr)) {
-                    double distance = distTo.get(curr) + g.distance(curr, neighbor);
-                    if (distance < distTo.get(neighbor)) {
-                        distTo.put(neighbor, distance);
-                        edgeTo.put(neighbor, curr);
-                        fringe.add(neighbor);
+        }
+        int m = targets.length;
+        double[] matrix = new double[sources.length * m];
+        int tasks = (sources.length + MATRIX_SOURCES_PER_TASK - 1) / MATRIX_SOURCES_PER_TASK;
+        IntStream.range(0, tasks).parallel().forEach(task -> {
+            int end = Math.min(sources.length, (task + 1) * MATRIX_SOURCES_PER_TASK);
+            try (DijkstraSearch search = DijkstraSearch.acquire(g)) {
+                for (int i = task * MATRIX_SOURCES_PER_TASK; i < end; i++) {
+                    int remaining = targetsIn[g.component(sources[i], mode)];
+                    search.run(sources[i], isTarget, remaining, profile, mode);
+                    for (int j = 0; j < m; j++) {
+                        matrix[i * m + j] = search.distToTarget(targets[j]);
                     }
                 }
             }
+        });
+        Metrics.phase(Metrics.Phase.MATRIX, start);
+        return matrix;
+    }
+
+    /**
+     * Return everything within several road distances of a location.
+     * @see #isochrone(GraphDB, double, double, double[], RoutingProfile, TravelMode)
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double[] budgets) {
+        return isochrone(g, lon, lat, budgets, RoutingProfile.SHORTEST, TravelMode.DRIVE);
+    }
+
+    /**
+     * Return everything within several budgets of a location, such as road distances in
+     * miles or travel times in seconds: the vertices, and an outline for each budget. One
+     * Dijkstra search runs from the closest vertex, and stops at the largest budget.
+     * @param g The graph to use.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @param budgets The budgets in the profile's unit, in any order.
+     * @param profile What the budgets measure.
+     * @param mode How the budgets are travelled.
+     * @return The isochrone, with the budgets in increasing order.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double[] budgets,
+                                      RoutingProfile profile, TravelMode mode) {
+        if (budgets.length == 0) {
+            throw new IllegalArgumentException("An isochrone needs at least one budget.");
+        }
+        double[] sorted = budgets.clone();
+        Arrays.sort(sorted);
+        if (!(sorted[0] >= 0) || Double.isInfinite(sorted[sorted.length - 1])) {
+            throw new IllegalArgumentException("Budgets must be finite and not negative.");
         }
+        long start = System.nanoTime();
+        int src = snap(g, lon, lat, mode);
+        Metrics.phase(Metrics.Phase.CLOSEST, start);
+        start = System.nanoTime();
+        double maxBudget = sorted[sorted.length - 1];
+        Isochrone isochrone;
+        try (DijkstraSearch search = DijkstraSearch.acquire(g)) {
+            int settled = search.runWithin(src, maxBudget, profile, mode);
+            isochrone = new Isochrone(g, search, settled, sorted,
+                    maxBudget / g.costPerMile(profile, mode), mode);
+        }
+        Metrics.phase(Metrics.Phase.ISOCHRONE, start);
+        return isochrone;
+    }
 
-        /* Get path to destination. */
-        for (long e = dest; e != 0; e = edgeTo.get(e)) {
-            route.add(0, e);
+    /** Returns the dense index of the vertex a mode may use closest to each location. */
+    private static int[] snap(GraphDB g, double[] lons, double[] lats, TravelMode mode) {
+        int[] snapped = new int[lons.length];
+        for (int i = 0; i < lons.length; i++) {
+            snapped[i] = snap(g, lons[i], lats[i], mode);
         }
+        return snapped;
+    }
 
-        return route;
+    /**
+     * Returns the point on a road a mode may use closest to a location.
+     * throw an IllegalArgumentException if the mode may use no road of the graph
+     */
+    static RoadPoint snapToRoad(GraphDB g, double lon, double lat, TravelMode mode) {
+        RoadPoint p = g.closestRoad(lon, lat, mode);
+        if (p == null) {
+            throw new IllegalArgumentException("The graph has no roads for "
+                    + mode.name().toLowerCase() + ".");
+        }
+        return p;
+    }
+
+    /**
+     * Returns the dense index of the vertex a mode may use closest to a location.
+     * throw an IllegalArgumentException if the mode may use no vertex of the graph
+     */
+    static int snap(GraphDB g, double lon, double lat, TravelMode mode) {
+        int v = g.closest(lon, lat, mode);
+        if (v < 0) {
+            throw new IllegalArgumentException("The graph has no vertices for "
+                    + mode.name().toLowerCase() + ".");
+        }
+        return v;
     }
 
     /**
      * Create the list of directions corresponding to a route on the graph.
+     * Edge lengths are the graph's precomputed ones.
+     * Ways are compared by their interned ids, and each step is recorded as a
+     * (direction, way id, distance) triple; NavigationDirection objects and their way
+     * names are only created once the whole route has been walked.
      * @param g The graph to use.
      * @param route The route to translate into directions. Each element
      *              corresponds to a node from the graph in the route.
@@ -92,26 +609,42 @@ public class Router {
      * route.
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
-        List<NavigationDirection> result = new ArrayList<>();
-        long startNode = route.get(0);
-        double distance = 0;
-        double relativeBearing = 0;
-        double prevBearing = g.bearing(route.get(0), route.get(1));
-        int currentDirection = NavigationDirection.START;
-        String currentWay = "";
-
         if (route.size() < 2) {
             return null;
         }
+        /* The route's vertices by dense index; legs[i] is the length of the edge from
+         * nodes[i - 1] to nodes[i]. */
+        int[] nodes = new int[route.size()];
+        double[] legs = new double[route.size()];
+        int n = 0;
+        int prev = -1;
+        for (long v : route) {
+            int curr = g.index(v);
+            if (curr < 0) {
+                throw new IllegalArgumentException("Vertex " + v + " is not in the graph.");
+            }
+            if (n > 0) {
+                legs[n] = g.edgeLength(prev, curr);
+            }
+            nodes[n++] = curr;
+            prev = curr;
+        }
 
-        for (int i = 1; i < route.size(); i++) {
-            long prevNode = route.get(i - 1);
-            long currNode = route.get(i);
-            double currBearing = g.bearing(prevNode, currNode);
+        Steps steps = new Steps();
+        int startNode = nodes[0];
+        double distance = 0;
+        double relativeBearing = 0;
+        double prevBearing = bearing(g, nodes[0], nodes[1]);
+        int currentDirection = NavigationDirection.START;
+        int currentWay = NO_WAY;
+
+        for (int i = 1; i < n; i++) {
+            int prevNode = nodes[i - 1];
+            int currNode = nodes[i];
+            double currBearing = bearing(g, prevNode, currNode);
             relativeBearing = currBearing - prevBearing;
-            //System.out.println(relativeBearing);
 
-            /* Get name of the current way */
+            /* Get id of the current way */
             if (prevNode == startNode) {
                 currentWay = getCurrentWay(g, prevNode, currNode);
             }
@@ -119,46 +652,102 @@ public class Router {
                 prevBearing = currBearing;
             }
 
-            if (g.getWayNames(currNode).contains(currentWay) && i != route.size() - 1) {
-                distance += g.distance(prevNode, currNode);
+            if (currentWay != NO_WAY && g.onWay(currNode, currentWay) && i != n - 1) {
+                distance += legs[i];
                 continue;
             }
 
             /* Add last stretch of distance if reached last node */
-            if (i == route.size() - 1) {
-                distance += g.distance(prevNode, currNode);
+            if (i == n - 1) {
+                distance += legs[i];
             }
 
-            /* Get distance traveled along current way and add nav direction to result */
-            NavigationDirection turn = new NavigationDirection();
-            turn.direction = currentDirection;
-            turn.distance = distance;
-            turn.way = currentWay;
-            result.add(turn);
+            /* Record distance traveled along current way */
+            steps.add(currentDirection, currentWay, distance);
 
             /* Start the next way and get direction to turn */
             startNode = currNode;
-            distance = g.distance(prevNode, currNode);
+            distance = legs[i];
             currentDirection = getDirection(relativeBearing);
         }
-        return result;
+        return steps.toDirections(g);
+    }
+
+    /** Returns the initial bearing from one vertex to another, given their dense indexes. */
+    private static double bearing(GraphDB g, int v, int w) {
+        return GraphDB.bearing(g.lonAt(v), g.latAt(v), g.lonAt(w), g.latAt(w));
     }
 
     /**
+     * Walks the sorted way rows of both vertices in step, without copying them.
      * @param g The graph to use
-     * @param v Previous vertex to check
-     * @param w Current vertex to check for current way
-     * @return current way
+     * @param v Dense index of the previous vertex to check
+     * @param w Dense index of the current vertex to check for current way
+     * @return id of the current way, or NO_WAY
      */
-    private static String getCurrentWay(GraphDB g, long v, long w) {
-        for (String a : g.getWayNames(v)) {
-            for (String b : g.getWayNames(w)) {
-                if (a.equals(b)) {
-                    return a;
+    private static int getCurrentWay(GraphDB g, int v, int w) {
+        int shared = NO_WAY;
+        int i = g.firstWay(v);
+        int j = g.firstWay(w);
+        int endA = g.firstWay(v + 1);
+        int endB = g.firstWay(w + 1);
+        while (i < endA && j < endB) {
+            int a = g.wayAt(i);
+            int b = g.wayAt(j);
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else if (shared == NO_WAY) {
+                shared = a;
+                i++;
+                j++;
+            } else {
+                /* Rare: several shared ways. Pick the first in name set order, as always. */
+                for (String name : g.getWayNames(g.id(v))) {
+                    for (int k = g.firstWay(w); k < endB; k++) {
+                        if (g.wayName(g.wayAt(k)).equals(name)) {
+                            return g.wayAt(k);
+                        }
+                    }
                 }
             }
         }
-        return "";
+        return shared;
+    }
+
+    /**
+     * Directions as parallel primitive columns, grown as steps are added.
+     */
+    private static class Steps {
+        private int size = 0;
+        private int[] directions = new int[8];
+        private int[] ways = new int[8];
+        private double[] distances = new double[8];
+
+        void add(int direction, int way, double distance) {
+            if (size == directions.length) {
+                directions = Arrays.copyOf(directions, 2 * size);
+                ways = Arrays.copyOf(ways, 2 * size);
+                distances = Arrays.copyOf(distances, 2 * size);
+            }
+            directions[size] = direction;
+            ways[size] = way;
+            distances[size] = distance;
+            size++;
+        }
+
+        List<NavigationDirection> toDirections(GraphDB g) {
+            List<NavigationDirection> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                NavigationDirection turn = new NavigationDirection();
+                turn.direction = directions[i];
+                turn.distance = distances[i];
+                turn.way = ways[i] == NO_WAY ? "" : g.wayName(ways[i]);
+                result.add(turn);
+            }
+            return result;
+        }
     }
 
     /**
@@ -0,0 +1,26 @@
+/**
+ * What a route minimises. Every profile has its own edge weights, precomputed by
+ * {@link GraphDB} when the graph is built, so choosing one per request costs nothing.
+ */
+public enum RoutingProfile {
+    /** Shortest road distance; weights and costs are in miles. */
+    SHORTEST,
+    /**
+     * Shortest travel time at each road's speed limit, or the usual speed of its highway class
+     * where it has none; weights and costs are in seconds.
+     */
+    FASTEST;
+
+    /**
+     * Returns the profile with a name in any case, such as "fastest".
+     * throw an IllegalArgumentException if there is no such profile
+     */
+    static RoutingProfile of(String name) {
+        for (RoutingProfile p : values()) {
+            if (p.name().equalsIgnoreCase(name)) {
+                return p;
+            }
+        }
+        throw new IllegalArgumentException("Unknown routing profile " + name + ".");
+    }
+}
@@ -0,0 +1,202 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.Gson;
+
+/**
+ * Caches serialized /search responses, keyed by the search mode and the cleaned search term.
+ *
+ * Autocomplete requests arrive one keystroke at a time ("t", "te", "tel", ...), so prefix
+ * results are also kept as the sorted list of cleaned keys that produced them. A miss for
+ * "tel" first looks for a cached shorter prefix such as "te" and filters its keys, which is
+ * much cheaper than walking the trie from the root and collecting its whole subtree.
+ *
+ * The cache holds at most {@code capacity} entries and evicts with the CLOCK (second chance)
+ * policy: entries are queued in insertion order and an entry that was hit since it was last
+ * examined gets requeued instead of evicted. All operations are safe to call concurrently.
+ */
+public class SearchCache {
+    private final GraphDB g;
+    private final Gson gson;
+    private final int capacity;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder derived = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache for searches against the given graph.
+     * @param g The graph to search.
+     * @param gson The Gson instance used to serialize responses.
+     * @param capacity Maximum number of cached responses.
+     */
+    public SearchCache(GraphDB g, Gson gson, int capacity) {
+        this.g = g;
+        this.gson = gson;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the serialized list of full names of locations whose cleaned name starts with
+     * the cleaned term.
+     * @param term Raw search term.
+     * @return Json array of location names.
+     */
+    public String prefixSearch(String term) {
+        String cleaned = g.cleanName(term);
+        String key = "p:" + cleaned;
+        Entry e = lookup(key);
+        if (e != null) {
+            return e.json;
+        }
+        String[] keys = derive(cleaned);
+        if (keys == null) {
+            List<String> found = g.cleanedKeysWithPrefix(cleaned);
+            keys = found.toArray(new String[0]);
+        } else {
+            derived.increment();
+        }
+        List<String> names = new ArrayList<>(keys.length);
+        for (String k : keys) {
+            names.add(g.nameOf(k));
+        }
+        e = new Entry(gson.toJson(names), keys);
+        insert(key, e);
+        return e.json;
+    }
+
+    /**
+     * Returns the serialized location data of all locations whose cleaned name equals the
+     * cleaned term, in the format of {@link MapServer#getLocations(String)}.
+     * @param term Raw search term.
+     * @return Json array of location objects.
+     */
+    public String fullSearch(String term) {
+        String key = "f:" + g.cleanName(term);
+        Entry e = lookup(key);
+        if (e != null) {
+            return e.json;
+        }
+        List<Map<String, Object>> result = new LinkedList<>();
+        for (long v : g.getLocations(term)) {
+            Map<String, Object> nodeInfo = new HashMap<>();
+            nodeInfo.put("lat", g.locLat(v));
+            nodeInfo.put("lon", g.locLon(v));
+            nodeInfo.put("name", g.getName(v));
+            nodeInfo.put("id", v);
+            result.add(nodeInfo);
+        }
+        e = new Entry(gson.toJson(result), null);
+        insert(key, e);
+        return e.json;
+    }
+
+    /**
+     * Filters the keys of the longest cached proper prefix of cleaned, if there is one. The
+     * empty prefix matches every name, so it is never used.
+     * @return The sorted cleaned keys starting with cleaned, or null if nothing was cached.
+     */
+    private String[] derive(String cleaned) {
+        for (int len = cleaned.length() - 1; len > 0; len--) {
+            Entry shorter = entries.get("p:" + cleaned.substring(0, len));
+            if (shorter == null) {
+                continue;
+            }
+            shorter.referenced = true;
+            /* Keys are sorted, so the matches form one contiguous run. */
+            String[] keys = shorter.keys;
+            int lo = Arrays.binarySearch(keys, cleaned);
+            if (lo < 0) {
+                lo = -lo - 1;
+            }
+            int hi = lo;
+            while (hi < keys.length && keys[hi].startsWith(cleaned)) {
+                hi++;
+            }
+            return Arrays.copyOfRange(keys, lo, hi);
+        }
+        return null;
+    }
+
+    private Entry lookup(String key) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        e.referenced = true;
+        return e;
+    }
+
+    private void insert(String key, Entry e) {
+        if (entries.putIfAbsent(key, e) != null) {
+            return;
+        }
+        clock.offer(key);
+        if (size.incrementAndGet() > capacity) {
+            evict();
+        }
+    }
+
+    /** Removes one entry that has not been hit since the clock hand last passed it. */
+    private void evict() {
+        String key;
+        while ((key = clock.poll()) != null) {
+            Entry e = entries.get(key);
+            if (e != null && e.referenced) {
+                e.referenced = false;
+                clock.offer(key);
+                continue;
+            }
+            if (e != null && entries.remove(key, e)) {
+                size.decrementAndGet();
+                evictions.increment();
+            }
+            return;
+        }
+    }
+
+    /**
+     * Returns the cache statistics: hits, misses, hit rate, responses derived from a shorter
+     * prefix, evictions and the current number of entries.
+     * @return Map of statistic name to value.
+     */
+    public Map<String, Object> stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hit_rate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("derived", derived.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("size", size.get());
+        stats.put("capacity", capacity);
+        return stats;
+    }
+
+    // A cached response; keys is the sorted list of cleaned keys for prefix searches
+    private static class Entry {
+        final String json;
+        final String[] keys;
+        volatile boolean referenced;
+
+        Entry(String json, String[] keys) {
+            this.json = json;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+import java.util.Arrays;
+
+/**
+ * An R-tree over the graph's road segments, for finding the segment closest to a point and
+ * the point on it closest to that point.
+ *
+ * The tree is bulk-loaded once with Sort-Tile-Recursive: at each level the boxes are sorted
+ * into vertical slices by the x of their centres, each slice by y, and runs of
+ * {@value #FANOUT} become the nodes of the next level up. Everything lives in primitive
+ * arrays: the segments' edges in leaf order, and for each level the nodes' bounding boxes
+ * and the first of their children in the level below. The tree is never modified after it is
+ * built, so any number of threads may query it at once.
+ *
+ * Distances are measured after scaling longitudes by the cosine of the graph's middle
+ * latitude, which keeps them in proportion across a city-sized map.
+ */
+final class SegmentIndex {
+    /** Children of each node, and segments of each leaf. */
+    private static final int FANOUT = 16;
+
+    private final GraphDB g;
+    private final double xScale;
+    /** Edge of each segment, from its lower index to its higher one, in leaf order. */
+    private final int[] segments;
+    /** The lower index of each segment, which the edge leads from. */
+    private final int[] sources;
+    /** For each level, leaves first: min x, min y, max x, max y of each node. */
+    private final double[][] boxes;
+    /** For each level, leaves first: the first child of each node in the level below. */
+    private final int[][] firstChild;
+    /** For each level, leaves first: the number of nodes. */
+    private final int[] counts;
+
+    /**
+     * Bulk-loads the segments of a graph whose vertices have been numbered.
+     * @param g The graph.
+     */
+    SegmentIndex(GraphDB g) {
+        this.g = g;
+        int n = g.vertexCount();
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minLat = Math.min(minLat, g.latAt(i));
+            maxLat = Math.max(maxLat, g.latAt(i));
+        }
+        xScale = n == 0 ? 1 : Math.cos(Math.toRadians((minLat + maxLat) / 2));
+
+        /* Each road appears once, as the edge from its lower index to its higher one. */
+        int count = 0;
+        for (int v = 0; v < n; v++) {
+            for (int e = g.firstEdge(v); e < g.firstEdge(v + 1); e++) {
+                if (v < g.edgeTarget(v, e)) {
+                    count++;
+                }
+            }
+        }
+        double[] box = new double[4 * count];
+        int[] edges = new int[count];
+        int[] from = new int[count];
+        count = 0;
+        for (int v = 0; v < n; v++) {
+            for (int e = g.firstEdge(v); e < g.firstEdge(v + 1); e++) {
+                int w = g.edgeTarget(v, e);
+                if (v < w) {
+                    edges[count] = e;
+                    from[count] = v;
+                    box[4 * count] = Math.min(x(v), x(w));
+                    box[4 * count + 1] = Math.min(g.latAt(v), g.latAt(w));
+                    box[4 * count + 2] = Math.max(x(v), x(w));
+                    box[4 * count + 3] = Math.max(g.latAt(v), g.latAt(w));
+                    count++;
+                }
+            }
+        }
+
+        int[] order = strOrder(box, count);
+        segments = new int[count];
+        sources = new int[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = edges[order[i]];
+            sources[i] = from[order[i]];
+        }
+        box = permute(box, order);
+
+        /* Group each level's boxes into nodes, then sort the nodes for the level above. */
+        int levels = 1;
+        for (int c = count; c > FANOUT; c = (c + FANOUT - 1) / FANOUT) {
+            levels++;
+        }
+        boxes = new double[levels][];
+        firstChild = new int[levels][];
+        counts = new int[levels];
+        for (int level = 0; level < levels; level++) {
+            int nodes = Math.max(1, (count + FANOUT - 1) / FANOUT);
+            double[] nodeBox = new double[4 * nodes];
+            int[] first = new int[nodes];
+            for (int k = 0; k < nodes; k++) {
+                first[k] = k * FANOUT;
+                Arrays.fill(nodeBox, 4 * k, 4 * k + 2, Double.POSITIVE_INFINITY);
+                Arrays.fill(nodeBox, 4 * k + 2, 4 * k + 4, Double.NEGATIVE_INFINITY);
+                for (int c = k * FANOUT; c < Math.min(count, (k + 1) * FANOUT); c++) {
+                    nodeBox[4 * k] = Math.min(nodeBox[4 * k], box[4 * c]);
+                    nodeBox[4 * k + 1] = Math.min(nodeBox[4 * k + 1], box[4 * c + 1]);
+                    nodeBox[4 * k + 2] = Math.max(nodeBox[4 * k + 2], box[4 * c + 2]);
+                    nodeBox[4 * k + 3] = Math.max(nodeBox[4 * k + 3], box[4 * c + 3]);
+                }
+            }
+            if (level + 1 < levels) {
+                /* Sorting this level's nodes carries their children's ranges along. */
+                int[] nodeOrder = strOrder(nodeBox, nodes);
+                nodeBox = permute(nodeBox, nodeOrder);
+                int[] sorted = new int[nodes];
+                for (int k = 0; k < nodes; k++) {
+                    sorted[k] = first[nodeOrder[k]];
+                }
+                first = sorted;
+            }
+            boxes[level] = nodeBox;
+            firstChild[level] = first;
+            counts[level] = nodes;
+            box = nodeBox;
+            count = nodes;
+        }
+    }
+
+    /** Returns the x of a vertex: its longitude, scaled to the units of latitude. */
+    private double x(int v) {
+        return g.lonAt(v) * xScale;
+    }
+
+    /**
+     * Returns the order that tiles boxes Sort-Tile-Recursive style: into about sqrt(n / FANOUT)
+     * vertical slices by centre x, each of them sorted by centre y.
+     */
+    private static int[] strOrder(double[] box, int n) {
+        int[] order = new int[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            xs[i] = box[4 * i] + box[4 * i + 2];
+            ys[i] = box[4 * i + 1] + box[4 * i + 3];
+        }
+        sortByKey(order, 0, n, xs);
+        int leaves = (n + FANOUT - 1) / FANOUT;
+        int slices = (int) Math.ceil(Math.sqrt(leaves));
+        int perSlice = slices * FANOUT;
+        for (int start = 0; start < n; start += perSlice) {
+            sortByKey(order, start, Math.min(n, start + perSlice), ys);
+        }
+        return order;
+    }
+
+    /**
+     * Sorts order[from, to) by the keys of its elements, keeping elements with equal keys in
+     * the order they were in.
+     */
+    private static void sortByKey(int[] order, int from, int to, double[] key) {
+        /* Sort by key rounded to a float, with the element's place below it; then put equal
+         * floats in exact order. Flipping the magnitude bits of negative floats makes their
+         * bits sort as signed ints in the order the floats do. */
+        int n = to - from;
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            int bits = Float.floatToIntBits((float) key[order[from + i]]);
+            bits ^= (bits >> 31) & Integer.MAX_VALUE;
+            packed[i] = (long) bits << 32 | i;
+        }
+        Arrays.sort(packed);
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++) {
+            int c = order[from + (int) packed[i]];
+            int j = i;
+            while (j > 0 && Double.compare(key[sorted[j - 1]], key[c]) > 0) {
+                sorted[j] = sorted[j - 1];
+                j--;
+            }
+            sorted[j] = c;
+        }
+        System.arraycopy(sorted, 0, order, from, n);
+    }
+
+    private static double[] permute(double[] box, int[] order) {
+        double[] result = new double[box.length];
+        for (int i = 0; i < order.length; i++) {
+            System.arraycopy(box, 4 * order[i], result, 4 * i, 4);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the point closest to a location on any road a mode may use, optionally only
+     * among the roads of one of the mode's connected components.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @param mode The mode of travel.
+     * @param component The {@link GraphDB#component} to keep to, or -1 for any.
+     * @return The point, or null if the mode may use no such road.
+     */
+    RoadPoint closest(double lon, double lat, TravelMode mode, int component) {
+        Nearest nearest = new Nearest(lon * xScale, lat, mode, component);
+        search(boxes.length - 1, 0, nearest);
+        if (nearest.edge < 0) {
+            return null;
+        }
+        return new RoadPoint(g, nearest.source, nearest.edge, nearest.fraction);
+    }
+
+    /** Searches a node's children, closest box first, skipping those too far to matter. */
+    private void search(int level, int node, Nearest nearest) {
+        int lowerCount = level == 0 ? segments.length : counts[level - 1];
+        int first = firstChild[level][node];
+        int last = Math.min(lowerCount, first + FANOUT);
+        if (level == 0) {
+            for (int s = first; s < last; s++) {
+                nearest.offer(g, sources[s], segments[s], xScale);
+            }
+            return;
+        }
+        double[] childBox = boxes[level - 1];
+        int n = last - first;
+        int[] children = new int[n];
+        double[] dists = new double[n];
+        for (int k = 0; k < n; k++) {
+            /* Insertion sort by distance to the box; there are at most FANOUT children. */
+            int c = first + k;
+            double d = boxDistance(childBox, c, nearest.x, nearest.y);
+            int j = k;
+            while (j > 0 && dists[j - 1] > d) {
+                children[j] = children[j - 1];
+                dists[j] = dists[j - 1];
+                j--;
+            }
+            children[j] = c;
+            dists[j] = d;
+        }
+        for (int k = 0; k < n && dists[k] < nearest.dist; k++) {
+            search(level - 1, children[k], nearest);
+        }
+    }
+
+    /** Returns the squared distance from a point to box i, or 0 if the point is inside. */
+    private static double boxDistance(double[] box, int i, double x, double y) {
+        double dx = Math.max(0, Math.max(box[4 * i] - x, x - box[4 * i + 2]));
+        double dy = Math.max(0, Math.max(box[4 * i + 1] - y, y - box[4 * i + 3]));
+        return dx * dx + dy * dy;
+    }
+
+    // The closest segment found so far by one query
+    private static class Nearest {
+        final double x;
+        final double y;
+        final TravelMode mode;
+        final int component;
+        double dist = Double.POSITIVE_INFINITY;
+        int source;
+        int edge = -1;
+        double fraction;
+
+        Nearest(double x, double y, TravelMode mode, int component) {
+            this.x = x;
+            this.y = y;
+            this.mode = mode;
+            this.component = component;
+        }
+
+        // projects the point onto segment e from v, and keeps it if it is the closest yet
+        void offer(GraphDB g, int v, int e, double xScale) {
+            if ((g.edgeModes(e) & mode.bit) == 0
+                    || component >= 0 && g.component(v, mode) != component) {
+                return;
+            }
+            int w = g.edgeTarget(v, e);
+            double x1 = g.lonAt(v) * xScale;
+            double y1 = g.latAt(v);
+            double dx = g.lonAt(w) * xScale - x1;
+            double dy = g.latAt(w) - y1;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0
+                    : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+            double px = x1 + t * dx - x;
+            double py = y1 + t * dy - y;
+            double d = px * px + py * py;
+            if (d < dist) {
+                dist = d;
+                source = v;
+                edge = e;
+                fraction = t;
+            }
+        }
+    }
+}
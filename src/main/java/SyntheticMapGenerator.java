@@ -0,0 +1,374 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates synthetic OpenStreetMap road networks, and matching tile pyramids, for testing
+ * how the server scales beyond Berkeley without downloading real map data.
+ *
+ * The network is a jittered grid of intersections. Every {@link #ARTERIAL_SPACING}th row and
+ * column is an arterial road (primary or secondary, with a maxspeed), and the lines between
+ * them are residential streets, split into ways of a few blocks with the odd missing block
+ * and the odd footway or service road. Roughly one node in {@link #PLACE_ODDS} is a named
+ * place. Nothing is kept in memory per node: coordinates are a pure function of the seed and
+ * the grid position, so 50M node networks can be written on a laptop.
+ *
+ * Tiles follow the same contract as the Berkeley images: the root tile d0_x0_y0.png covers
+ * the bounding box, and tile dD_xX_yY is the (X, Y) tile of the 2^D by 2^D grid at depth D.
+ *
+ * Usage: {@code java SyntheticMapGenerator [--nodes N] [--seed S] [--out DIR]
+ * [--tile-depth D] [--bounds ullon,ullat,lrlon,lrlat]}. This writes DIR/synthetic.osm.xml
+ * and, unless D is negative, the tiles of depths 0 to D into DIR/imgs/.
+ */
+public class SyntheticMapGenerator {
+    /** Every ARTERIAL_SPACING-th row and column is an arterial road. */
+    static final int ARTERIAL_SPACING = 10;
+    /** One node in PLACE_ODDS gets a name. */
+    static final int PLACE_ODDS = 20;
+    private static final long FIRST_NODE_ID = 100000000L;
+
+    private static final String[] STREET_NAMES = {"Oak", "Maple", "Cedar", "Pine", "Elm",
+        "Walnut", "Spruce", "Willow", "Hillside", "Lake", "Park", "Vine", "Grove", "Chestnut",
+        "Laurel", "Magnolia"};
+    private static final String[] STREET_TYPES = {"Street", "Avenue", "Way", "Road", "Lane"};
+    private static final String[] ARTERIAL_NAMES = {"Shattuck", "Telegraph", "College",
+        "University", "Ashby", "San Pablo", "Sacramento", "Martin Luther King Jr"};
+    private static final String[] PLACE_NAMES = {"Caf\u00e9", "Library", "Top Dog", "Tacos",
+        "Market", "Pharmacy", "Bakery", "Bank", "Theater", "Station", "Pizzeria", "Books",
+        "Hardware", "Laundromat", "Noodle House", "Park", "School", "Post Office"};
+
+    private final int rows;
+    private final int cols;
+    private final long seed;
+    private final double ullon;
+    private final double ullat;
+    private final double lrlon;
+    private final double lrlat;
+
+    /**
+     * Creates a generator for a network of about numNodes nodes.
+     * @param numNodes Target number of nodes, at least 4.
+     * @param seed Seed; the same seed and size always produce the same map.
+     * @param ullon Upper left longitude of the bounding box.
+     * @param ullat Upper left latitude of the bounding box.
+     * @param lrlon Lower right longitude of the bounding box.
+     * @param lrlat Lower right latitude of the bounding box.
+     */
+    public SyntheticMapGenerator(long numNodes, long seed, double ullon, double ullat,
+                                 double lrlon, double lrlat) {
+        if (numNodes < 4) {
+            throw new IllegalArgumentException("Need at least 4 nodes, got " + numNodes);
+        }
+        this.rows = (int) Math.round(Math.sqrt(numNodes));
+        this.cols = (int) ((numNodes + rows - 1) / rows);
+        this.seed = seed;
+        this.ullon = ullon;
+        this.ullat = ullat;
+        this.lrlon = lrlon;
+        this.lrlat = lrlat;
+    }
+
+    /** Creates a generator for the bounding box of the Berkeley root tile. */
+    public SyntheticMapGenerator(long numNodes, long seed) {
+        this(numNodes, seed, MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT);
+    }
+
+    /** Returns the number of nodes written by {@link #writeOsm}. */
+    public long numNodes() {
+        return (long) rows * cols;
+    }
+
+    long nodeId(int r, int c) {
+        return FIRST_NODE_ID + (long) r * cols + c;
+    }
+
+    /** Longitude of node (r, c): its column's position plus up to a fifth of a block. */
+    double lon(int r, int c) {
+        double jitter = (unit(mix(r, c, 1)) - 0.5) * 0.4;
+        return ullon + (c + 0.5 + jitter) * (lrlon - ullon) / cols;
+    }
+
+    /** Latitude of node (r, c); row 0 is the northernmost row. */
+    double lat(int r, int c) {
+        double jitter = (unit(mix(r, c, 2)) - 0.5) * 0.4;
+        return ullat - (r + 0.5 + jitter) * (ullat - lrlat) / rows;
+    }
+
+    private long mix(long r, long c, long salt) {
+        long h = seed * 0x9E3779B97F4A7C15L + r * 0xC2B2AE3D27D4EB4FL + c * 0x165667B19E3779F9L
+                + salt;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static double unit(long h) {
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Writes the network as OSM XML: all nodes first, then all ways.
+     * @param file File to (over)write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeOsm(File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<osm version=\"0.6\" generator=\"SyntheticMapGenerator\">\n");
+            out.write(String.format("<bounds minlat=\"%s\" minlon=\"%s\" maxlat=\"%s\" "
+                    + "maxlon=\"%s\"/>\n", lrlat, ullon, ullat, lrlon));
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    writeNode(out, r, c);
+                }
+            }
+            Random random = new Random(seed);
+            long[] wayId = {1};
+            for (int r = 0; r < rows; r++) {
+                writeLine(out, random, wayId, r, true);
+            }
+            for (int c = 0; c < cols; c++) {
+                writeLine(out, random, wayId, c, false);
+            }
+            out.write("</osm>\n");
+        }
+    }
+
+    private void writeNode(Writer out, int r, int c) throws IOException {
+        out.write("<node id=\"");
+        out.write(Long.toString(nodeId(r, c)));
+        out.write("\" lat=\"");
+        out.write(Double.toString(lat(r, c)));
+        out.write("\" lon=\"");
+        out.write(Double.toString(lon(r, c)));
+        long h = mix(r, c, 3);
+        if (Long.remainderUnsigned(h, PLACE_ODDS) == 0) {
+            String name = PLACE_NAMES[(int) Long.remainderUnsigned(h >>> 8, PLACE_NAMES.length)]
+                    + " " + (1 + Long.remainderUnsigned(h >>> 24, 200));
+            out.write("\"><tag k=\"name\" v=\"");
+            out.write(name);
+            out.write("\"/></node>\n");
+        } else {
+            out.write("\"/>\n");
+        }
+    }
+
+    /**
+     * Writes the ways along one row (horizontal) or column. Arterials are one way each;
+     * streets are split into ways every few blocks, with a few missing blocks.
+     */
+    private void writeLine(Writer out, Random random, long[] wayId, int line,
+                           boolean horizontal) throws IOException {
+        int length = horizontal ? cols : rows;
+        boolean arterial = line % ARTERIAL_SPACING == 0;
+        String name;
+        String tags;
+        if (arterial) {
+            int k = line / ARTERIAL_SPACING;
+            name = ARTERIAL_NAMES[k % ARTERIAL_NAMES.length]
+                    + (horizontal ? " Boulevard " : " Avenue ") + k;
+            tags = k % 3 == 0 ? tags("primary", "35 mph") : tags("secondary", "30 mph");
+        } else {
+            name = STREET_NAMES[line % STREET_NAMES.length] + " "
+                    + STREET_TYPES[(line / STREET_NAMES.length) % STREET_TYPES.length] + " "
+                    + line;
+            tags = tags("residential", "25 mph");
+        }
+
+        List<Long> way = new ArrayList<>();
+        int blocks = 0;
+        for (int i = 0; i < length; i++) {
+            way.add(horizontal ? nodeId(line, i) : nodeId(i, line));
+            blocks++;
+            if (i == length - 1) {
+                break;
+            }
+            if (!arterial && random.nextInt(40) == 0) {
+                /* A missing block: end this way without connecting to the next node. */
+                writeWay(out, wayId, way, name, tags);
+                way = new ArrayList<>();
+                blocks = 0;
+            } else if (!arterial && blocks > 3 + random.nextInt(8)) {
+                /* Split the street, sometimes into a path or an alley for a few blocks. */
+                writeWay(out, wayId, way, name, tags);
+                long last = way.get(way.size() - 1);
+                way = new ArrayList<>();
+                way.add(last);
+                blocks = 0;
+                int kind = random.nextInt(30);
+                if (kind == 0) {
+                    tags = tags("footway", null);
+                } else if (kind == 1) {
+                    tags = tags("service", null);
+                } else {
+                    tags = tags("residential", "25 mph");
+                }
+            }
+        }
+        writeWay(out, wayId, way, name, tags);
+    }
+
+    private static String tags(String highway, String maxspeed) {
+        return "<tag k=\"highway\" v=\"" + highway + "\"/>"
+                + (maxspeed == null ? "" : "<tag k=\"maxspeed\" v=\"" + maxspeed + "\"/>");
+    }
+
+    private static void writeWay(Writer out, long[] wayId, List<Long> way, String name,
+                                 String tags) throws IOException {
+        if (way.size() < 2) {
+            return;
+        }
+        out.write("<way id=\"");
+        out.write(Long.toString(wayId[0]++));
+        out.write("\">");
+        for (long id : way) {
+            out.write("<nd ref=\"");
+            out.write(Long.toString(id));
+            out.write("\"/>");
+        }
+        out.write(tags);
+        out.write("<tag k=\"name\" v=\"");
+        out.write(name);
+        out.write("\"/></way>\n");
+    }
+
+    /**
+     * Writes every tile of depths 0 to maxDepth.
+     * @param dir Folder for the tiles.
+     * @param maxDepth Deepest depth to write; the server uses at most 7.
+     * @throws IOException If a tile cannot be written.
+     */
+    public void writeTiles(File dir, int maxDepth) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            for (int x = 0; x < (1 << depth); x++) {
+                for (int y = 0; y < (1 << depth); y++) {
+                    ImageIO.write(tile(depth, x, y), "png", new File(dir, tileName(depth, x, y)));
+                }
+            }
+        }
+    }
+
+    static String tileName(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y" + y + ".png";
+    }
+
+    /**
+     * Draws one tile: the blocks between the roads, every arterial, and the streets once the
+     * tile is zoomed in far enough for them to be a few pixels apart.
+     */
+    BufferedImage tile(int depth, int x, int y) {
+        int size = MapServer.TILE_SIZE;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(new Color(238, 234, 226));
+        g.fillRect(0, 0, size, size);
+
+        /* Grid coordinates (in columns and rows) covered by this tile. */
+        double colsPerTile = (double) cols / (1 << depth);
+        double rowsPerTile = (double) rows / (1 << depth);
+        double c0 = x * colsPerTile;
+        double r0 = y * rowsPerTile;
+        double pxPerCol = size / colsPerTile;
+        double pxPerRow = size / rowsPerTile;
+        boolean showStreets = Math.min(pxPerCol, pxPerRow) >= 4;
+        int step = showStreets ? 1 : ARTERIAL_SPACING;
+
+        /* Roads widen as the tile zooms in, up to about a tenth of a block. */
+        float width = (float) Math.max(1, Math.min(12, Math.min(pxPerCol, pxPerRow) / 10));
+        g.setStroke(new BasicStroke(width));
+        for (int c = (int) Math.ceil(c0 - 0.5) / step * step; c + 0.5 <= c0 + colsPerTile;
+             c += step) {
+            if (c >= 0 && c < cols && (showStreets || c % ARTERIAL_SPACING == 0)) {
+                int px = (int) ((c + 0.5 - c0) * pxPerCol);
+                g.setColor(c % ARTERIAL_SPACING == 0 ? new Color(252, 214, 164)
+                        : new Color(255, 255, 255));
+                g.drawLine(px, 0, px, size);
+            }
+        }
+        for (int r = (int) Math.ceil(r0 - 0.5) / step * step; r + 0.5 <= r0 + rowsPerTile;
+             r += step) {
+            if (r >= 0 && r < rows && (showStreets || r % ARTERIAL_SPACING == 0)) {
+                int py = (int) ((r + 0.5 - r0) * pxPerRow);
+                g.setColor(r % ARTERIAL_SPACING == 0 ? new Color(252, 214, 164)
+                        : new Color(255, 255, 255));
+                g.drawLine(0, py, size, py);
+            }
+        }
+        g.dispose();
+        return img;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long nodes = 10000;
+        long seed = 61;
+        File out = new File("synthetic");
+        int tileDepth = 7;
+        double[] bounds = {MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON,
+            MapServer.ROOT_LRLAT};
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--nodes":
+                    nodes = Long.parseLong(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--out":
+                    out = new File(args[i + 1]);
+                    break;
+                case "--tile-depth":
+                    tileDepth = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--bounds":
+                    String[] parts = args[i + 1].split(",");
+                    for (int k = 0; k < 4; k++) {
+                        bounds[k] = Double.parseDouble(parts[k]);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (!out.isDirectory() && !out.mkdirs()) {
+            throw new IOException("Could not create " + out);
+        }
+
+        SyntheticMapGenerator generator = new SyntheticMapGenerator(nodes, seed,
+                bounds[0], bounds[1], bounds[2], bounds[3]);
+        File osm = new File(out, "synthetic.osm.xml");
+        long start = System.currentTimeMillis();
+        generator.writeOsm(osm);
+        System.out.println("Wrote " + generator.numNodes() + " nodes to " + osm + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        if (tileDepth >= 0) {
+            File imgs = new File(out, "imgs");
+            start = System.currentTimeMillis();
+            generator.writeTiles(imgs, tileDepth);
+            System.out.println("Wrote tiles of depths 0-" + tileDepth + " to " + imgs + " in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        }
+        System.out.println("Bounds: ROOT_ULLON = " + bounds[0] + ", ROOT_ULLAT = " + bounds[1]
+                + ", ROOT_LRLON = " + bounds[2] + ", ROOT_LRLAT = " + bounds[3]);
+    }
+}
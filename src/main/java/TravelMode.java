@@ -0,0 +1,37 @@
+/**
+ * How a route is travelled. One graph serves every mode: each edge carries a bitmask of the
+ * modes allowed on it, and searches skip the edges whose bit for their mode is clear.
+ */
+public enum TravelMode {
+    /** By car, on the roads the server has always routed over. */
+    DRIVE(0),
+    /** On foot, at 3 mph. */
+    WALK(3),
+    /** By bicycle, at 12 mph. */
+    BIKE(12);
+
+    /** Every mode's bit. */
+    static final int ALL = 0b111;
+
+    /** This mode's bit in an edge's mask. */
+    final int bit = 1 << ordinal();
+    /** Speed in mph when travelling in this mode, or 0 to use the edge's own speed. */
+    final int speedMph;
+
+    TravelMode(int speedMph) {
+        this.speedMph = speedMph;
+    }
+
+    /**
+     * Returns the mode with a name in any case, such as "walk".
+     * throw an IllegalArgumentException if there is no such mode
+     */
+    static TravelMode of(String name) {
+        for (TravelMode m : values()) {
+            if (m.name().equalsIgnoreCase(name)) {
+                return m;
+            }
+        }
+        throw new IllegalArgumentException("Unknown travel mode " + name + ".");
+    }
+}
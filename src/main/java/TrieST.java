@@ -40,7 +40,7 @@ public class TrieST<Value> {
         if (key == null) throw new IllegalArgumentException("argument to get() is null");
         Node x = get(root, key, 0);
         if (x == null) return null;
-        return (Value) x.val;
+        return value(x);
     }
 
     /**
@@ -56,6 +56,39 @@ public class TrieST<Value> {
         return get(key) != null;
     }
 
+    /**
+     * Returns the value associated with the cleaned form of the given key. The key is cleaned
+     * char by char while walking the trie, so no cleaned copy of it is ever built.
+     *
+     * @param key the raw key
+     * @param normalizer the normalizer that produced the stored keys
+     * @return the value associated with the cleaned key, or {@code null} if there is none
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     */
+    public Value get(CharSequence key, NameNormalizer normalizer) {
+        if (key == null) throw new IllegalArgumentException("argument to get() is null");
+        Node x = walk(key, normalizer);
+        if (x == null) return null;
+        return value(x);
+    }
+
+    // only put() stores values, and it only stores Values, so the cast cannot fail
+    @SuppressWarnings("unchecked")
+    private Value value(Node x) {
+        return (Value) x.val;
+    }
+
+    // walks from the root along the cleaned chars of key
+    private Node walk(CharSequence key, NameNormalizer normalizer) {
+        Node x = root;
+        for (int i = 0; x != null && i < key.length(); i++) {
+            char c = normalizer.map(key.charAt(i));
+            if (c == NameNormalizer.DROP) continue;
+            x = x.next[c];
+        }
+        return x;
+    }
+
     private Node get(Node x, String key, int d) {
         if (x == null) return null;
         if (d == key.length()) return x;
@@ -133,6 +166,28 @@ public class TrieST<Value> {
         return results;
     }
 
+    /**
+     * Returns the values of all keys that start with the cleaned form of {@code prefix},
+     * in the same order as {@link #keysWithPrefix(String)} returns their keys.
+     *
+     * @param prefix the raw prefix
+     * @param normalizer the normalizer that produced the stored keys
+     * @return the values of all matching keys, as an iterable
+     */
+    public Iterable<Value> valuesWithPrefix(CharSequence prefix, NameNormalizer normalizer) {
+        List<Value> results = new ArrayList<>();
+        collectValues(walk(prefix, normalizer), results);
+        return results;
+    }
+
+    private void collectValues(Node x, List<Value> results) {
+        if (x == null) return;
+        if (x.val != null) results.add(value(x));
+        for (char c = 0; c < R; c++) {
+            collectValues(x.next[c], results);
+        }
+    }
+
     private void collect(Node x, StringBuilder prefix, Queue<String> results) {
         if (x == null) return;
         if (x.val != null) results.add(prefix.toString());
@@ -0,0 +1,73 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Writes small OSM files for tests and loads them into graphs. Nodes are numbered from 1 in
+ * the order they are added, so ways can refer to them by that number.
+ */
+class OsmFixture {
+    private final StringBuilder xml = new StringBuilder("<osm>\n");
+    private int nodes;
+
+    /** Adds nodes, each a {lon, lat} pair. */
+    OsmFixture nodes(double[][] lonLats) {
+        for (double[] p : lonLats) {
+            node(p[0], p[1], null);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a node.
+     * @param name Its name, or null for none.
+     */
+    OsmFixture node(double lon, double lat, String name) {
+        nodes++;
+        xml.append("<node id=\"").append(nodes).append("\" lat=\"").append(lat)
+                .append("\" lon=\"").append(lon).append("\">");
+        if (name != null) {
+            tag("name", name);
+        }
+        xml.append("</node>\n");
+        return this;
+    }
+
+    /**
+     * Adds a way.
+     * @param id Its id.
+     * @param highway Its highway class.
+     * @param name Its name, or null for none.
+     * @param refs The numbers of its nodes, in order.
+     */
+    OsmFixture way(int id, String highway, String name, int... refs) {
+        xml.append("<way id=\"").append(id).append("\">\n");
+        for (int ref : refs) {
+            xml.append("<nd ref=\"").append(ref).append("\"/>\n");
+        }
+        tag("highway", highway);
+        if (name != null) {
+            tag("name", name);
+        }
+        xml.append("</way>\n");
+        return this;
+    }
+
+    private void tag(String k, String v) {
+        xml.append("<tag k=\"").append(k).append("\" v=\"").append(v).append("\"/>");
+    }
+
+    /**
+     * Writes the file to a temporary file deleted on exit, and loads it.
+     * @param prefix Prefix of the temporary file's name.
+     */
+    GraphDB load(String prefix) throws IOException {
+        File osm = File.createTempFile(prefix, ".osm.xml");
+        osm.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(osm, "UTF-8")) {
+            out.print(xml);
+            out.println("</osm>");
+        }
+        return new GraphDB(osm.getPath());
+    }
+}
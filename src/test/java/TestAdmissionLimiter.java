@@ -0,0 +1,80 @@
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks AdmissionLimiter's queueing, rejection, priorities and limit adjustment.
+ */
+public class TestAdmissionLimiter {
+    @Test
+    public void testQueueBoundsAndDeadline() throws Exception {
+        AdmissionLimiter limiter = new AdmissionLimiter("/raster", 0, 2, 1, 8, 1000, 100, 1);
+        long a = limiter.acquire();
+        long b = limiter.acquire();
+        assertTrue(a >= 0 && b >= 0);
+
+        /* A third request waits for a turn while a fourth finds the queue full... */
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            if (limiter.acquire() >= 0) {
+                admitted.countDown();
+            }
+        });
+        waiter.start();
+        Thread.sleep(20);
+        assertEquals(-1, limiter.acquire());
+        limiter.release(a);
+        assertTrue(admitted.await(10, TimeUnit.SECONDS));
+
+        /* ...and one that waits past its deadline is rejected. */
+        long start = System.nanoTime();
+        assertEquals(-1, limiter.acquire());
+        assertTrue(System.nanoTime() - start >= 90000000L);
+        assertEquals(2, limiter.rejected());
+    }
+
+    @Test
+    public void testAimd() {
+        AdmissionLimiter limiter = new AdmissionLimiter("/route", 0, 4, 1, 6, 50, 0, 0);
+        for (int i = 0; i < 100; i++) {
+            limiter.release(limiter.acquire());
+        }
+        assertEquals(6, limiter.limit(), 1e-9);
+
+        /* Slow requests cut the limit by a tenth, once per target interval. */
+        long slow = System.nanoTime() - 100000000L;
+        limiter.acquire();
+        limiter.release(slow);
+        assertEquals(5.4, limiter.limit(), 1e-9);
+        limiter.acquire();
+        limiter.release(slow);
+        assertEquals(5.4, limiter.limit(), 1e-9);
+    }
+
+    @Test
+    public void testHigherPriorityGoesFirst() throws Exception {
+        AdmissionLimiter search = new AdmissionLimiter("/search", 1, 1, 1, 1, 1000, 5000, 10);
+        AdmissionLimiter raster = new AdmissionLimiter("/raster", 0, 4, 1, 4, 1000, 50, 10,
+                search);
+        long s = search.acquire();
+        assertTrue(raster.acquire() >= 0);
+
+        /* While a search waits, rasters are held back even though they have room. */
+        CountDownLatch searched = new CountDownLatch(1);
+        new Thread(() -> {
+            if (search.acquire() >= 0) {
+                searched.countDown();
+            }
+        }).start();
+        Thread.sleep(20);
+        assertEquals(-1, raster.acquire());
+        search.release(s);
+        assertTrue(searched.await(10, TimeUnit.SECONDS));
+        assertTrue(raster.acquire() >= 0);
+        assertEquals(1, raster.rejected());
+    }
+}
@@ -0,0 +1,203 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the bends in roads are contracted into chains between junctions, and that
+ * searches over the chains find the same routes and distances as over every edge.
+ */
+public class TestChains {
+    private static final double[][] NODES = {
+        {-122.250, 37.870}, {-122.248, 37.871}, {-122.246, 37.869}, {-122.244, 37.870},
+        {-122.242, 37.870}, {-122.244, 37.872}, {-122.245, 37.874}, {-122.240, 37.868},
+        {-122.243, 37.866}, {-122.248, 37.867}, {-122.246, 37.876}, {-122.248, 37.877},
+        {-122.230, 37.870}, {-122.229, 37.871}, {-122.228, 37.870},
+    };
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        if (graph != null) {
+            return;
+        }
+        graph = new OsmFixture().nodes(NODES)
+                /* 2 and 3 are bends, and 4 a junction. */
+                .way(100, "residential", "A Street", 1, 2, 3, 4, 5)
+                .way(101, "residential", "B Street", 4, 6, 7)
+                /* 8 has two neighbours, but the street changes its name there. */
+                .way(102, "residential", "C Street", 5, 8)
+                .way(103, "residential", "D Street", 8, 9)
+                .way(104, "residential", "E Street", 9, 10, 1)
+                /* 11 has two neighbours, but only one of its roads can be driven. */
+                .way(105, "footway", null, 7, 11)
+                .way(106, "residential", null, 11, 12)
+                /* A ring of bends, one of which becomes its junction. */
+                .way(107, "residential", "Ring Road", 13, 14, 15, 13)
+                .load("chains");
+    }
+
+    private static int vertex(long id) {
+        return graph.index(id);
+    }
+
+    @Test
+    public void testContraction() {
+        for (long id : new long[] {2, 3, 6, 10}) {
+            assertTrue("" + id, graph.isShapeVertex(vertex(id)));
+        }
+        for (long id : new long[] {1, 4, 5, 7, 8, 9, 11, 12}) {
+            assertFalse("" + id, graph.isShapeVertex(vertex(id)));
+        }
+        int ringJunctions = 0;
+        for (long id : new long[] {13, 14, 15}) {
+            ringJunctions += graph.isShapeVertex(vertex(id)) ? 0 : 1;
+        }
+        assertEquals(1, ringJunctions);
+
+        /* Every edge is on exactly one chain, which runs from junction to junction. */
+        int[] covered = new int[graph.firstEdge(graph.vertexCount())];
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            for (int c = graph.firstChain(v); c < graph.firstChain(v + 1); c++) {
+                assertFalse(graph.isShapeVertex(v));
+                assertFalse(graph.isShapeVertex(graph.chainTarget(c)));
+                int from = v;
+                double miles = 0;
+                for (int k = graph.firstChainEdge(c); k < graph.firstChainEdge(c + 1); k++) {
+                    int e = graph.chainEdge(k);
+                    assertTrue(e >= graph.firstEdge(from) && e < graph.firstEdge(from + 1));
+                    assertEquals(graph.chainModes(c), graph.edgeModes(e));
+                    covered[e]++;
+                    miles += graph.edgeWeight(e);
+                    from = graph.edgeTarget(e);
+                }
+                assertEquals(graph.chainTarget(c), from);
+                assertEquals(miles, graph.chainWeights(RoutingProfile.SHORTEST,
+                        TravelMode.DRIVE)[c], 1e-12);
+                int r = graph.chainReverse(c);
+                if (r >= 0) {
+                    assertEquals(c, graph.chainReverse(r));
+                    assertEquals(v, graph.chainTarget(r));
+                }
+            }
+        }
+        int[] once = new int[covered.length];
+        Arrays.fill(once, 1);
+        assertTrue(Arrays.equals(once, covered));
+    }
+
+    @Test
+    public void testSearchesMatchEdges() {
+        int n = graph.vertexCount();
+        for (TravelMode mode : TravelMode.values()) {
+            for (RoutingProfile profile : RoutingProfile.values()) {
+                for (int s = 0; s < n; s++) {
+                    if (!graph.allowsVertex(s, mode)) {
+                        continue;
+                    }
+                    double[] expected = edgeDistances(s, profile, mode);
+                    for (int t = 0; t < n; t++) {
+                        if (!graph.allowsVertex(t, mode)) {
+                            continue;
+                        }
+                        List<Long> path = Router.shortestPath(graph, s, t, profile, mode);
+                        if (expected[t] == Double.POSITIVE_INFINITY) {
+                            assertTrue(path.isEmpty());
+                            continue;
+                        }
+                        assertEquals(graph.id(s), (long) path.get(0));
+                        assertEquals(graph.id(t), (long) path.get(path.size() - 1));
+                        assertEquals(expected[t], cost(path, profile, mode), 1e-9);
+                    }
+
+                    try (DijkstraSearch search = DijkstraSearch.acquire(graph)) {
+                        int settled = search.runWithin(s, Double.MAX_VALUE, profile, mode);
+                        int reachable = 0;
+                        for (int t = 0; t < n; t++) {
+                            reachable += expected[t] < Double.POSITIVE_INFINITY ? 1 : 0;
+                            assertEquals(expected[t], search.distTo(t), 1e-9);
+                        }
+                        assertEquals(reachable, settled);
+                        for (int i = 1; i < settled; i++) {
+                            assertTrue(search.distTo(search.settled(i - 1))
+                                    <= search.distTo(search.settled(i)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatrixToBends() {
+        double[] lons = new double[NODES.length];
+        double[] lats = new double[NODES.length];
+        for (int i = 0; i < NODES.length; i++) {
+            lons[i] = NODES[i][0];
+            lats[i] = NODES[i][1];
+        }
+        double[] matrix = Router.distanceMatrix(graph, lons, lats, lons, lats);
+        for (int i = 0; i < NODES.length; i++) {
+            double[] expected = edgeDistances(vertex(i + 1), RoutingProfile.SHORTEST,
+                    TravelMode.DRIVE);
+            for (int j = 0; j < NODES.length; j++) {
+                assertEquals(expected[vertex(j + 1)], matrix[i * NODES.length + j], 1e-9);
+            }
+        }
+    }
+
+    /** Returns the distances from s by Dijkstra's algorithm over every edge. */
+    private static double[] edgeDistances(int s, RoutingProfile profile, TravelMode mode) {
+        int n = graph.vertexCount();
+        double[] weights = graph.weights(profile, mode);
+        double scale = graph.weightScale(profile, mode);
+        double[] dist = new double[n];
+        boolean[] done = new boolean[n];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        dist[s] = 0;
+        while (true) {
+            int v = -1;
+            for (int i = 0; i < n; i++) {
+                if (!done[i] && dist[i] < Double.POSITIVE_INFINITY
+                        && (v < 0 || dist[i] < dist[v])) {
+                    v = i;
+                }
+            }
+            if (v < 0) {
+                return dist;
+            }
+            done[v] = true;
+            for (int e = graph.firstEdge(v); e < graph.firstEdge(v + 1); e++) {
+                int w = graph.edgeTarget(e);
+                if ((graph.edgeModes(e) & mode.bit) != 0) {
+                    dist[w] = Math.min(dist[w], dist[v] + weights[e] * scale);
+                }
+            }
+        }
+    }
+
+    /** Returns the cost of a path, which must follow edges open to the mode. */
+    private static double cost(List<Long> path, RoutingProfile profile, TravelMode mode) {
+        double[] weights = graph.weights(profile, mode);
+        double scale = graph.weightScale(profile, mode);
+        double total = 0;
+        for (int i = 1; i < path.size(); i++) {
+            int v = vertex(path.get(i - 1));
+            int w = vertex(path.get(i));
+            double best = Double.POSITIVE_INFINITY;
+            for (int e = graph.firstEdge(v); e < graph.firstEdge(v + 1); e++) {
+                if (graph.edgeTarget(e) == w && (graph.edgeModes(e) & mode.bit) != 0) {
+                    best = Math.min(best, weights[e] * scale);
+                }
+            }
+            assertTrue(best < Double.POSITIVE_INFINITY);
+            total += best;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,116 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a compactly stored graph has the same vertices and edges as one stored plainly,
+ * its coordinates to within the fixed-point precision, and that routes over it cost the same.
+ */
+public class TestCompactGraph {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static final int NUM_NODES = 2500;
+    private static GraphDB plain;
+    private static GraphDB compact;
+
+    @Before
+    public void setUp() throws Exception {
+        if (plain != null) {
+            return;
+        }
+        File osm = File.createTempFile("synthetic", ".osm.xml");
+        osm.deleteOnExit();
+        new SyntheticMapGenerator(NUM_NODES, 61).writeOsm(osm);
+        plain = new GraphDB(osm.getPath(), NameNormalizer.ASCII, false);
+        compact = new GraphDB(osm.getPath(), NameNormalizer.ASCII, true);
+    }
+
+    @Test
+    public void testCoordinates() {
+        assertFalse(plain.isCompact());
+        assertTrue(compact.isCompact());
+        assertEquals(plain.vertexCount(), compact.vertexCount());
+        for (int i = 0; i < plain.vertexCount(); i++) {
+            assertEquals(plain.id(i), compact.id(i));
+            assertEquals(plain.lonAt(i), compact.lonAt(i), 0.5 / GraphDB.FIXED_POINT + 1e-12);
+            assertEquals(plain.latAt(i), compact.latAt(i), 0.5 / GraphDB.FIXED_POINT + 1e-12);
+        }
+
+        /* OSM files have seven decimals, which fixed point keeps exactly. */
+        GraphDB tiny = new GraphDB(OSM_DB_PATH_TINY, NameNormalizer.ASCII, false);
+        GraphDB tinyCompact = new GraphDB(OSM_DB_PATH_TINY, NameNormalizer.ASCII, true);
+        for (int i = 0; i < tiny.vertexCount(); i++) {
+            assertEquals(tiny.lon(tiny.id(i)), tinyCompact.lon(tiny.id(i)), 0);
+            assertEquals(tiny.lat(tiny.id(i)), tinyCompact.lat(tiny.id(i)), 0);
+        }
+    }
+
+    @Test
+    public void testAdjacency() {
+        int[] row = new int[compact.maxDegree()];
+        for (int v = 0; v < plain.vertexCount(); v++) {
+            assertEquals(plain.firstEdge(v), compact.firstEdge(v));
+            int degree = compact.targets(v, row);
+            assertEquals(plain.firstEdge(v + 1) - plain.firstEdge(v), degree);
+            for (int k = 0; k < degree; k++) {
+                int e = plain.firstEdge(v) + k;
+                assertEquals(plain.edgeTarget(e), row[k]);
+                assertEquals(plain.edgeTarget(e), compact.edgeTarget(v, e));
+                assertEquals(plain.edgeTarget(e), compact.edgeTarget(e));
+                assertEquals(plain.edgeWeight(e), compact.edgeWeight(e), 0);
+                assertEquals(plain.edgeModes(e), compact.edgeModes(e));
+            }
+        }
+    }
+
+    @Test
+    public void testRoutesMatch() {
+        Random random = new Random(61);
+        int n = plain.vertexCount();
+        for (int i = 0; i < 50; i++) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            for (RoutingProfile profile : RoutingProfile.values()) {
+                List<Long> expected = Router.shortestPath(plain, s, t, profile, TravelMode.DRIVE);
+                List<Long> path = Router.shortestPath(compact, s, t, profile, TravelMode.DRIVE);
+                assertEquals(cost(expected, profile), cost(path, profile), 1e-9);
+            }
+
+            try (DijkstraSearch expected = DijkstraSearch.acquire(plain);
+                 DijkstraSearch search = DijkstraSearch.acquire(compact)) {
+                int settled =
+                        expected.runWithin(s, 0.5, RoutingProfile.SHORTEST, TravelMode.WALK);
+                assertEquals(settled,
+                        search.runWithin(s, 0.5, RoutingProfile.SHORTEST, TravelMode.WALK));
+                for (int v = 0; v < n; v++) {
+                    assertEquals(expected.distTo(v), search.distTo(v), 1e-9);
+                }
+            }
+        }
+    }
+
+    /** Returns the cost of a path over the plain graph's edges. */
+    private static double cost(List<Long> path, RoutingProfile profile) {
+        double[] weights = plain.weights(profile, TravelMode.DRIVE);
+        double scale = plain.weightScale(profile, TravelMode.DRIVE);
+        double total = 0;
+        for (int i = 1; i < path.size(); i++) {
+            int v = plain.index(path.get(i - 1));
+            int w = plain.index(path.get(i));
+            double best = Double.POSITIVE_INFINITY;
+            for (int e = plain.firstEdge(v); e < plain.firstEdge(v + 1); e++) {
+                if (plain.edgeTarget(e) == w) {
+                    best = Math.min(best, weights[e] * scale);
+                }
+            }
+            total += best;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,90 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks connected component labelling on a map with a main road, a stray fragment of road
+ * and a footway: routes between components fail without a search, and snapping can keep to
+ * the largest component.
+ */
+public class TestComponents {
+    /* Nodes 1 to 4 are the main road, 5 and 6 the fragment, and 7 ends the footway from 4. */
+    private static final double[][] NODES = {
+        {-122.25, 37.87}, {-122.24, 37.87}, {-122.23, 37.87}, {-122.22, 37.87},
+        {-122.25, 37.90}, {-122.24, 37.90}, {-122.21, 37.87},
+    };
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        if (graph != null) {
+            return;
+        }
+        graph = new OsmFixture().nodes(NODES)
+                .way(10, "residential", null, 1, 2, 3, 4)
+                .way(11, "residential", null, 5, 6)
+                .way(12, "footway", null, 4, 7)
+                .load("components");
+    }
+
+    private static int vertex(long id) {
+        return graph.index(id);
+    }
+
+    @Test
+    public void testLabels() {
+        assertEquals(2, graph.componentCount(TravelMode.DRIVE));
+        assertEquals(2, graph.componentCount(TravelMode.WALK));
+        assertTrue(graph.connected(vertex(1), vertex(4), TravelMode.DRIVE));
+        assertTrue(graph.connected(vertex(5), vertex(6), TravelMode.DRIVE));
+        assertFalse(graph.connected(vertex(1), vertex(5), TravelMode.DRIVE));
+        assertEquals(-1, graph.component(vertex(7), TravelMode.DRIVE));
+        assertFalse(graph.connected(vertex(1), vertex(7), TravelMode.DRIVE));
+        assertTrue(graph.connected(vertex(1), vertex(7), TravelMode.WALK));
+    }
+
+    @Test
+    public void testUnreachable() {
+        double[] main = NODES[0];
+        double[] fragment = NODES[4];
+        assertTrue(Router.shortestPath(graph, main[0], main[1], fragment[0], fragment[1])
+                .isEmpty());
+        assertTrue(Router.shortestRoadPath(graph, main[0], main[1], fragment[0], fragment[1],
+                RoutingProfile.SHORTEST, TravelMode.DRIVE).isEmpty());
+        assertTrue(Router.alternatives(graph, main[0], main[1], fragment[0], fragment[1], 3)
+                .isEmpty());
+
+        double[] matrix = Router.distanceMatrix(graph,
+                new double[] {main[0], fragment[0]}, new double[] {main[1], fragment[1]},
+                new double[] {NODES[3][0], NODES[5][0]}, new double[] {NODES[3][1], NODES[5][1]});
+        assertTrue(matrix[0] > 0 && matrix[0] < Double.POSITIVE_INFINITY);
+        assertEquals(Double.POSITIVE_INFINITY, matrix[1], 0);
+        assertEquals(Double.POSITIVE_INFINITY, matrix[2], 0);
+        assertTrue(matrix[3] > 0 && matrix[3] < Double.POSITIVE_INFINITY);
+    }
+
+    @Test
+    public void testSnapToLargestComponent() {
+        double[] main = NODES[0];
+        double[] fragment = NODES[5];
+        graph.snapToLargestComponent(true);
+        try {
+            List<Long> path = Router.shortestPath(graph, main[0], main[1], fragment[0],
+                    fragment[1]);
+            assertEquals(Arrays.asList(1L, 2L), path);
+            RoadPoint p = graph.closestRoad(fragment[0], fragment[1], TravelMode.DRIVE);
+            assertTrue(graph.connected(p.v, vertex(1), TravelMode.DRIVE));
+            assertFalse(Router.shortestRoadPath(graph, main[0], main[1], fragment[0],
+                    fragment[1], RoutingProfile.SHORTEST, TravelMode.DRIVE).isEmpty());
+        } finally {
+            graph.snapToLargestComponent(false);
+        }
+        assertEquals(6L, graph.closest(fragment[0], fragment[1]));
+    }
+}
@@ -0,0 +1,82 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that DijkstraSearch keeps a bounded pool of searches however many threads come
+ * and go, and that pooled searches hold no graph.
+ */
+public class TestDijkstraSearch {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        GraphDB g = new GraphDB(OSM_DB_PATH_TINY);
+        int threads = 4 * DijkstraSearch.POOL_SIZE;
+        CountDownLatch acquired = new CountDownLatch(threads);
+        CountDownLatch done = new CountDownLatch(1);
+        List<DijkstraSearch> searches = new ArrayList<>();
+        List<Thread> running = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                try (DijkstraSearch search = DijkstraSearch.acquire(g)) {
+                    synchronized (searches) {
+                        searches.add(search);
+                    }
+                    search.runWithin(0, Double.MAX_VALUE, RoutingProfile.SHORTEST,
+                            TravelMode.DRIVE);
+                    acquired.countDown();
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            running.add(thread);
+        }
+        acquired.await();
+        /* Every request in flight has a search of its own. */
+        assertEquals(threads, searches.stream().distinct().count());
+        done.countDown();
+        for (Thread thread : running) {
+            thread.join();
+        }
+
+        assertEquals(DijkstraSearch.POOL_SIZE, DijkstraSearch.pooled());
+        for (DijkstraSearch search : searches) {
+            assertNull(search.graph());
+        }
+        try (DijkstraSearch search = DijkstraSearch.acquire(g)) {
+            assertTrue(searches.contains(search));
+            assertSame(g, search.graph());
+        }
+    }
+
+    @Test
+    public void testOtherGraphGetsNewSearch() throws Exception {
+        GraphDB tiny = new GraphDB(OSM_DB_PATH_TINY);
+        File osm = File.createTempFile("synthetic", ".osm.xml");
+        osm.deleteOnExit();
+        new SyntheticMapGenerator(2500, 61).writeOsm(osm);
+        GraphDB synthetic = new GraphDB(osm.getPath());
+
+        DijkstraSearch pooled;
+        try (DijkstraSearch search = DijkstraSearch.acquire(tiny)) {
+            pooled = search;
+        }
+        try (DijkstraSearch search = DijkstraSearch.acquire(synthetic)) {
+            assertNotSame(pooled, search);
+            assertSame(synthetic, search.graph());
+            search.runWithin(0, 1, RoutingProfile.SHORTEST, TravelMode.DRIVE);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.Test;
 import java.util.HashSet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * created by hug 4/9/2018
@@ -80,4 +81,82 @@ public class TestGraphBuildingTiny {
                 + "especially if your actual value is 46",
                 55L, graphTiny.closest(lon, lat));
     }
+
+    @Test
+    public void testSpeeds() {
+        assertEquals(25, GraphBuildingHandler.speedMph("residential", "25 mph"));
+        assertEquals(35, GraphBuildingHandler.speedMph("primary", "35mph"));
+        assertEquals(31, GraphBuildingHandler.speedMph("primary", "50"));
+        assertEquals(31, GraphBuildingHandler.speedMph("primary", "50 km/h"));
+        assertEquals(40, GraphBuildingHandler.speedMph("primary", "signals"));
+        assertEquals(40, GraphBuildingHandler.speedMph("primary", null));
+        assertEquals(65, GraphBuildingHandler.speedMph("motorway", "0"));
+        assertEquals(25, GraphBuildingHandler.speedMph("unknown", null));
+    }
+
+    @Test
+    public void testModes() {
+        int drive = TravelMode.DRIVE.bit;
+        int walk = TravelMode.WALK.bit;
+        int bike = TravelMode.BIKE.bit;
+        assertEquals(drive | walk | bike,
+                GraphBuildingHandler.modes("residential", null, null, null));
+        assertEquals(drive, GraphBuildingHandler.modes("motorway", null, null, null));
+        assertEquals(walk, GraphBuildingHandler.modes("footway", null, null, null));
+        assertEquals(walk | bike, GraphBuildingHandler.modes("footway", null, null, "yes"));
+        assertEquals(walk | bike, GraphBuildingHandler.modes("cycleway", null, null, null));
+        assertEquals(bike, GraphBuildingHandler.modes("cycleway", null, "no", null));
+        assertEquals(drive, GraphBuildingHandler.modes("residential", "private", null, null));
+        assertEquals(drive | walk,
+                GraphBuildingHandler.modes("residential", "no", "designated", null));
+        assertEquals(0, GraphBuildingHandler.modes("footway", "private", null, null));
+        assertEquals(0, GraphBuildingHandler.modes("construction", null, null, null));
+        assertEquals(0, GraphBuildingHandler.modes(null, null, "yes", "yes"));
+    }
+
+    @Test
+    public void testHilbertIndex() {
+        /* The first 4096 positions fill the 64 by 64 corner, one step at a time. */
+        int side = 64;
+        int[][] cells = new int[side * side][];
+        for (int x = 0; x < side; x++) {
+            for (int y = 0; y < side; y++) {
+                int d = GraphDB.hilbertIndex(x, y);
+                assertTrue(d < cells.length && cells[d] == null);
+                cells[d] = new int[] {x, y};
+            }
+        }
+        for (int d = 1; d < cells.length; d++) {
+            assertEquals(1, Math.abs(cells[d][0] - cells[d - 1][0])
+                    + Math.abs(cells[d][1] - cells[d - 1][1]));
+        }
+        int last = (1 << GraphDB.HILBERT_BITS) - 1;
+        assertEquals(0, GraphDB.hilbertIndex(0, 0));
+        assertEquals((1 << 2 * GraphDB.HILBERT_BITS) - 1, GraphDB.hilbertIndex(last, 0));
+    }
+
+    @Test
+    public void testVerticesInCurveOrder() {
+        int n = graphTiny.vertexCount();
+        double minLon = Double.POSITIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, graphTiny.index(graphTiny.id(i)));
+            minLon = Math.min(minLon, graphTiny.lonAt(i));
+            minLat = Math.min(minLat, graphTiny.latAt(i));
+            maxLon = Math.max(maxLon, graphTiny.lonAt(i));
+            maxLat = Math.max(maxLat, graphTiny.latAt(i));
+        }
+        int last = (1 << GraphDB.HILBERT_BITS) - 1;
+        int previous = -1;
+        for (int i = 0; i < n; i++) {
+            int x = (int) ((graphTiny.lonAt(i) - minLon) * (last / (maxLon - minLon)));
+            int y = (int) ((graphTiny.latAt(i) - minLat) * (last / (maxLat - minLat)));
+            int d = GraphDB.hilbertIndex(x, y);
+            assertTrue(d >= previous);
+            previous = d;
+        }
+    }
 }
@@ -0,0 +1,79 @@
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that JsonResponse writes the same JSON as Gson for the server's response shapes, and
+ * that it negotiates content encodings.
+ */
+public class TestJsonResponse {
+    private static final Gson GSON = new Gson();
+
+    @Test
+    public void testMatchesGson() throws Exception {
+        String directions = "Start on \"Bancroft Way\" & <Telegraph> for 0.42 miles.\n"
+                + "Turn left on Caf\u00e9 Rd\t\u2028\u0001 'x'=y\\z";
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("routing_success", true);
+        expected.put("directions_success", false);
+        expected.put("directions", directions);
+        expected.put("grid", new String[][] {{"img/1.png", "img/2.png"}, {}});
+        expected.put("lon", -122.2998046875);
+        expected.put("depth", 3L);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JsonResponse json = new JsonResponse(bytes)) {
+            json.beginObject()
+                    .name("routing_success").value(true)
+                    .name("directions_success").value(false)
+                    .name("directions").value(directions)
+                    .name("grid").beginArray()
+                    .beginArray().value("img/1.png").value("img/2.png").endArray()
+                    .beginArray().endArray()
+                    .endArray()
+                    .name("lon").value(-122.2998046875)
+                    .name("depth").value(3L)
+                    .endObject();
+        }
+        assertEquals(GSON.toJson(expected), new String(bytes.toByteArray(),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBase64() throws Exception {
+        Random random = new Random(38);
+        for (int length : new int[] {0, 1, 2, 3, 3 * 4096, 3 * 4096 + 1, 100000}) {
+            byte[] data = new byte[length + 5];
+            random.nextBytes(data);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (JsonResponse json = new JsonResponse(bytes)) {
+                json.beginArray().base64Value(data, length).value(1L).endArray();
+            }
+            byte[] prefix = new byte[length];
+            System.arraycopy(data, 0, prefix, 0, length);
+            assertEquals("[\"" + Base64.getEncoder().encodeToString(prefix) + "\",1]",
+                    new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testChooseEncoding() {
+        assertEquals("identity", JsonResponse.chooseEncoding(null));
+        assertEquals("identity", JsonResponse.chooseEncoding(""));
+        assertEquals("identity", JsonResponse.chooseEncoding("br, identity"));
+        assertEquals("gzip", JsonResponse.chooseEncoding("gzip, deflate, br"));
+        assertEquals("gzip", JsonResponse.chooseEncoding("deflate;q=0.5, GZIP"));
+        assertEquals("deflate", JsonResponse.chooseEncoding("gzip;q=0, deflate"));
+        assertEquals("deflate", JsonResponse.chooseEncoding("gzip; q=0.0, deflate;q=0.1"));
+        assertEquals("gzip", JsonResponse.chooseEncoding("*"));
+        assertEquals("identity", JsonResponse.chooseEncoding("*;q=0"));
+    }
+}
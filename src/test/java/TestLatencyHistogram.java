@@ -0,0 +1,45 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks LatencyHistogram's percentiles against exact percentiles of the recorded values.
+ */
+public class TestLatencyHistogram {
+    @Test
+    public void testPercentiles() {
+        Random random = new Random(117);
+        long[] values = new long[100000];
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            /* Log-normal, like request latencies: mostly around 1ms with a long tail. */
+            values[i] = (long) Math.exp(13.8 + 1.5 * random.nextGaussian());
+            (i % 2 == 0 ? a : b).record(values[i]);
+        }
+        a.add(b);
+        Arrays.sort(values);
+        assertEquals(values.length, a.count());
+        assertEquals(values[values.length - 1], a.max());
+        for (double p : new double[] {1, 50, 90, 99, 99.9, 100}) {
+            long expected = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            assertEquals(expected, a.valueAtPercentile(p), expected * 0.016);
+        }
+        assertEquals(Arrays.stream(values).average().getAsDouble(), a.mean(), 1e-6 * a.mean());
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            h.record(i);
+        }
+        assertEquals(49, h.valueAtPercentile(50));
+        assertEquals(100, h.countAtOrBelow(127));
+        assertEquals(10, h.countAtOrBelow(9));
+        assertEquals(0, new LatencyHistogram().valueAtPercentile(99));
+    }
+}
@@ -0,0 +1,63 @@
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs random operations against LongIntMap and LongObjectMap and checks them against a
+ * HashMap. Keys are drawn from a small range so that puts, overwrites and removals collide.
+ */
+public class TestLongMaps {
+    private static final int NUM_OPS = 200000;
+
+    @Test
+    public void testLongIntMap() {
+        Random random = new Random(117);
+        LongIntMap map = new LongIntMap(4, -1);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < NUM_OPS; i++) {
+            long key = 53000000L + random.nextInt(5000) * 7;
+            int value = random.nextInt(1000);
+            map.put(key, value);
+            expected.put(key, value);
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = 53000000L - 10; key < 53000000L + 5000 * 7; key++) {
+            assertEquals((int) expected.getOrDefault(key, -1), map.get(key));
+        }
+    }
+
+    @Test
+    public void testLongObjectMap() {
+        Random random = new Random(61);
+        LongObjectMap<String> map = new LongObjectMap<>(4);
+        Map<Long, String> expected = new HashMap<>();
+        for (int i = 0; i < NUM_OPS; i++) {
+            long key = random.nextInt(3000) - 1000;
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                String value = Integer.toString(random.nextInt());
+                map.put(key, value);
+                expected.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = -1000; key < 2000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        Set<Long> keys = new HashSet<>();
+        for (long key : map.keys()) {
+            keys.add(key);
+        }
+        assertEquals(expected.keySet(), keys);
+        assertNull(map.get(Long.MAX_VALUE));
+    }
+}
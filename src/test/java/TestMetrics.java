@@ -0,0 +1,79 @@
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that Metrics adds up what many threads record and renders it in the Prometheus text
+ * format.
+ */
+public class TestMetrics {
+    private static long sample(String scrape, String series) {
+        for (String line : scrape.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return (long) Double.parseDouble(line.substring(series.length() + 1));
+            }
+        }
+        throw new AssertionError(series + " not in scrape");
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        String before = Metrics.scrape(Collections.emptyMap());
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    Metrics.request("/clear_route", System.nanoTime(), i % 10 == 0);
+                    Metrics.count(Metrics.Phase.SETTLED_NODES, 50);
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+        String after = Metrics.scrape(Collections.singletonMap("bearmaps_test_gauge", 7));
+
+        String[] series = {"bearmaps_requests_total{endpoint=\"/clear_route\"}",
+            "bearmaps_request_errors_total{endpoint=\"/clear_route\"}",
+            "bearmaps_request_duration_seconds_count{endpoint=\"/clear_route\"}",
+            "bearmaps_request_duration_seconds_bucket{endpoint=\"/clear_route\",le=\"+Inf\"}",
+            "bearmaps_route_settled_nodes_bucket{le=\"100\"}",
+            "bearmaps_route_settled_nodes_bucket{le=\"10\"}"};
+        long[] expected = {8000, 800, 8000, 8000, 8000, 0};
+        for (int i = 0; i < series.length; i++) {
+            assertEquals(series[i], expected[i],
+                    sample(after, series[i]) - sample(before, series[i]));
+        }
+        assertEquals(7, sample(after, "bearmaps_test_gauge"));
+    }
+
+    @Test
+    public void testEndedThreadsAreRetired() throws Exception {
+        String series = "bearmaps_request_duration_seconds_count{endpoint=\"/search_stats\"}";
+        long before = sample(Metrics.scrape(Collections.emptyMap()), series);
+        for (int t = 0; t < 50; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10; i++) {
+                    Metrics.request("/search_stats", System.nanoTime(), false);
+                }
+            });
+            thread.start();
+            thread.join();
+            /* Each thread retires the ones before it when it registers. */
+            assertTrue(Metrics.registeredThreads() <= 2);
+        }
+        assertEquals(500, sample(Metrics.scrape(Collections.emptyMap()), series) - before);
+        assertTrue(Metrics.registeredThreads() <= 1);
+    }
+
+    @Test
+    public void testUnknownPathsAreOther() {
+        assertEquals(Metrics.ENDPOINTS.length - 1, Metrics.endpointIndex("/map.html"));
+        assertEquals(0, Metrics.endpointIndex("/raster"));
+    }
+}
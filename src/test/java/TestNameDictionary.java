@@ -0,0 +1,171 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that NameDictionary reads back what its Builder wrote, finds locations by id, name
+ * and prefix, and that GraphDB can load a prebuilt dictionary instead of writing one, but
+ * rewrites one written from another XML file or with another normalizer.
+ */
+public class TestNameDictionary {
+    private static final String[] NAMES = {"Top Dog", "Caf\u00e9 Strada", "Cafe Milano",
+        "\u00c9cole Bilingue", "TOP DOG!", "Crepes A Go Go", "\u6771\u4eac Sushi", ""};
+
+    private static NameDictionary build() throws Exception {
+        NameDictionary.Builder builder = new NameDictionary.Builder();
+        for (int i = 0; i < NAMES.length; i++) {
+            builder.add(100 + i, -122.0 - i, 37.0 + i, NAMES[i],
+                    NameNormalizer.FOLDING.clean(NAMES[i]));
+        }
+        File file = File.createTempFile("names", ".dict");
+        file.deleteOnExit();
+        builder.build(file);
+        return NameDictionary.open(file);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        NameDictionary dict = build();
+        assertEquals(NAMES.length, dict.size());
+        /* "Top Dog" and "TOP DOG!" share a cleaned name. */
+        assertEquals(NAMES.length - 1, dict.nameCount());
+        for (int i = 0; i < NAMES.length; i++) {
+            int row = dict.row(100 + i);
+            assertEquals(100 + i, dict.id(row));
+            assertEquals(-122.0 - i, dict.lon(row), 0);
+            assertEquals(37.0 + i, dict.lat(row), 0);
+            assertEquals(NAMES[i], dict.name(row));
+        }
+        assertEquals(-1, dict.row(99));
+        assertEquals(-1, dict.row(100 + NAMES.length));
+        assertEquals(-1, dict.row(Long.MIN_VALUE));
+        for (int name = 1; name < dict.nameCount(); name++) {
+            assertTrue(dict.cleanedName(name - 1).compareTo(dict.cleanedName(name)) < 0);
+        }
+    }
+
+    @Test
+    public void testRepeatedIds() throws Exception {
+        NameDictionary.Builder builder = new NameDictionary.Builder();
+        builder.add(7, 0, 0, "Zoo", "zoo");
+        builder.add(-3, 0, 0, "Bar", "bar");
+        builder.add(7, 0, 0, "Arch", "arch");
+        File file = File.createTempFile("names", ".dict");
+        file.deleteOnExit();
+        NameDictionary dict = builder.build(file);
+        /* Rows are in name order, and an id in several rows finds the first. */
+        assertEquals("Arch", dict.name(dict.row(7)));
+        assertEquals("Bar", dict.name(dict.row(-3)));
+        assertEquals(-1, dict.row(0));
+    }
+
+    @Test
+    public void testFindName() throws Exception {
+        NameDictionary dict = build();
+        int name = dict.findName("top dog");
+        assertEquals("top dog", dict.cleanedName(name));
+        assertEquals(2, dict.endRow(name) - dict.firstRow(name));
+        /* Locations sharing a name keep the order they were added in. */
+        assertEquals(100, dict.id(dict.firstRow(name)));
+        assertEquals(104, dict.id(dict.firstRow(name) + 1));
+
+        assertEquals("\u00c9cole Bilingue",
+                dict.name(dict.firstRow(dict.findName("ecole bilingue"))));
+        assertEquals(" sushi", dict.cleanedName(dict.findName(" sushi")));
+        assertEquals("", dict.cleanedName(dict.findName("")));
+        assertEquals(-1, dict.findName("top"));
+        assertEquals(-1, dict.findName("top dogs"));
+        assertEquals(-1, dict.findName("zzz"));
+    }
+
+    @Test
+    public void testPrefix() throws Exception {
+        NameDictionary dict = build();
+        assertEquals(names(dict, "caf"), list("cafe milano", "cafe strada"));
+        assertEquals(names(dict, "c"), list("cafe milano", "cafe strada", "crepes a go go"));
+        assertEquals(names(dict, "cafe s"), list("cafe strada"));
+        assertEquals(names(dict, "cafes"), list());
+        assertEquals(names(dict, "zz"), list());
+        assertEquals(names(dict, "").size(), dict.nameCount());
+    }
+
+    @Test
+    public void testPrebuiltDictionary() throws Exception {
+        File osm = File.createTempFile("synthetic", ".osm.xml");
+        osm.deleteOnExit();
+        new SyntheticMapGenerator(2500, 61).writeOsm(osm);
+        File file = new File(osm.getPath() + ".dict");
+        file.deleteOnExit();
+        assertFalse(file.exists());
+
+        GraphDB written = new GraphDB(osm.getPath(), NameNormalizer.ASCII, false, file);
+        assertTrue(file.exists());
+        long modified = file.lastModified();
+        GraphDB mapped = new GraphDB(osm.getPath(), NameNormalizer.ASCII, false, file);
+        assertEquals(modified, file.lastModified());
+
+        List<String> keys = written.keysWithPrefix("");
+        assertFalse(keys.isEmpty());
+        assertEquals(keys, mapped.keysWithPrefix(""));
+        for (String key : keys) {
+            assertEquals(written.getLocations(key), mapped.getLocations(key));
+        }
+    }
+
+    @Test
+    public void testStaleDictionaryIsRewritten() throws Exception {
+        File osm = File.createTempFile("synthetic", ".osm.xml");
+        osm.deleteOnExit();
+        new SyntheticMapGenerator(2500, 61).writeOsm(osm);
+        File file = new File(osm.getPath() + ".dict");
+        file.deleteOnExit();
+
+        new GraphDB(osm.getPath(), NameNormalizer.ASCII, false, file);
+        assertTrue(NameDictionary.isBuiltFrom(file, osm, NameNormalizer.ASCII));
+        assertFalse(NameDictionary.isBuiltFrom(file, osm, NameNormalizer.FOLDING));
+        new GraphDB(osm.getPath(), NameNormalizer.FOLDING, false, file);
+        assertTrue(NameDictionary.isBuiltFrom(file, osm, NameNormalizer.FOLDING));
+
+        /* Another map written over the same XML file. */
+        new SyntheticMapGenerator(1000, 7).writeOsm(osm);
+        assertTrue(osm.setLastModified(osm.lastModified() + 2000));
+        assertFalse(NameDictionary.isBuiltFrom(file, osm, NameNormalizer.FOLDING));
+        GraphDB rewritten = new GraphDB(osm.getPath(), NameNormalizer.FOLDING, false, file);
+        assertTrue(NameDictionary.isBuiltFrom(file, osm, NameNormalizer.FOLDING));
+        GraphDB fresh = new GraphDB(osm.getPath(), NameNormalizer.FOLDING, false, null);
+        List<String> keys = fresh.keysWithPrefix("");
+        assertEquals(keys, rewritten.keysWithPrefix(""));
+        for (String key : keys) {
+            assertEquals(fresh.getLocations(key), rewritten.getLocations(key));
+        }
+
+        /* A dictionary that records no source is never taken for one built from it. */
+        NameDictionary.Builder builder = new NameDictionary.Builder();
+        builder.add(1, 0, 0, "Zoo", "zoo");
+        builder.build(file);
+        assertFalse(NameDictionary.isBuiltFrom(file, osm, NameNormalizer.FOLDING));
+    }
+
+    private static List<String> names(NameDictionary dict, String prefix) {
+        List<String> result = new ArrayList<>();
+        int end = dict.endNameWithPrefix(prefix);
+        for (int name = dict.firstNameWithPrefix(prefix); name < end; name++) {
+            result.add(dict.cleanedName(name));
+        }
+        return result;
+    }
+
+    private static List<String> list(String... names) {
+        List<String> result = new ArrayList<>();
+        for (String name : names) {
+            result.add(name);
+        }
+        return result;
+    }
+}
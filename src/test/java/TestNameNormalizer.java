@@ -0,0 +1,56 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that NameNormalizer matches the legacy regex cleaning and that TrieST can be
+ * walked with raw, uncleaned keys.
+ */
+public class TestNameNormalizer {
+    private static final String[] NAMES = {"Top Dog", "Top-Dog", "  Caf\u00e9 Strada!", "7-Eleven",
+        "McDonald's", "\u00c0\u00c9\u00ce\u00d5\u00dc \u00df", "", "\u0000a", "Bear\tMaps"};
+
+    @Test
+    public void testMatchesRegexCleaning() {
+        for (String name : NAMES) {
+            String expected = name.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+            assertEquals(expected, NameNormalizer.ASCII.clean(name));
+            assertEquals(expected, GraphDB.cleanString(name));
+        }
+    }
+
+    @Test
+    public void testCleanInputIsNotCopied() {
+        String clean = "top dog";
+        assertSame(clean, NameNormalizer.ASCII.clean(clean));
+        assertSame(clean, NameNormalizer.FOLDING.clean(clean));
+    }
+
+    @Test
+    public void testFolding() {
+        assertEquals("caf strada", NameNormalizer.ASCII.clean("Caf\u00e9 Strada"));
+        assertEquals("cafe strada", NameNormalizer.FOLDING.clean("Caf\u00e9 Strada"));
+        assertEquals("aeiou ", NameNormalizer.FOLDING.clean("\u00c0\u00c9\u00ce\u00d5\u00dc \u00df"));
+    }
+
+    @Test
+    public void testTrieWalkWithRawKeys() {
+        TrieST<Integer> st = new TrieST<>();
+        st.put(NameNormalizer.FOLDING.clean("Caf\u00e9 Strada"), 1);
+        st.put(NameNormalizer.FOLDING.clean("Cafe Milano"), 2);
+        st.put(NameNormalizer.FOLDING.clean("Top Dog"), 3);
+
+        assertEquals(Integer.valueOf(1), st.get("CAF\u00c9 STRADA!", NameNormalizer.FOLDING));
+        assertNull(st.get("Cafe", NameNormalizer.FOLDING));
+        int count = 0;
+        int sum = 0;
+        for (int v : st.valuesWithPrefix("Ca-f", NameNormalizer.FOLDING)) {
+            count++;
+            sum += v;
+        }
+        assertEquals(2, count);
+        assertEquals(3, sum);
+    }
+}
@@ -0,0 +1,17 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that RequestExecutor runs tasks in place, in order, outside async mode.
+ */
+public class TestRequestExecutor {
+    @Test
+    public void testTasksRunInOrder() {
+        assertEquals(Arrays.asList(1, 2, 3), RequestExecutor.io(Arrays.asList(
+            () -> 1, () -> 2, () -> 3)));
+        assertEquals("done", RequestExecutor.cpu(() -> "done"));
+    }
+}
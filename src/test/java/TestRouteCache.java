@@ -0,0 +1,91 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that RouteCache answers like an uncached search, that nearby endpoints share an
+ * entry, that concurrent identical requests share one search, and that it stays within its
+ * capacity.
+ */
+public class TestRouteCache {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static GraphDB graphTiny;
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphTiny == null) {
+            graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        }
+    }
+
+    @Test
+    public void testMatchesRouter() {
+        RouteCache cache = new RouteCache(graphTiny, 100);
+        for (int i = 0; i < 2; i++) {
+            RouteCache.Route route = cache.route(0.25, 38.3, 0.55, 38.4,
+                    RoutingProfile.SHORTEST, TravelMode.DRIVE);
+            List<Long> expected = Router.shortestRoadPath(graphTiny, 0.25, 38.3, 0.55, 38.4,
+                    RoutingProfile.SHORTEST, TravelMode.DRIVE);
+            assertEquals(expected, route.path());
+            assertEquals(Router.routeDirections(graphTiny, expected).toString(),
+                    route.directions().toString());
+        }
+        /* Points a little apart snap to the same places on the same roads. */
+        cache.route(0.2503, 38.3001, 0.5498, 38.4, RoutingProfile.SHORTEST, TravelMode.DRIVE);
+        assertEquals(2L, cache.stats().get("hits"));
+        assertEquals(1L, cache.stats().get("misses"));
+
+        cache.route(0.25, 38.3, 0.55, 38.4, RoutingProfile.FASTEST, TravelMode.DRIVE);
+        cache.route(0.25, 38.3, 0.55, 38.4, RoutingProfile.SHORTEST, TravelMode.WALK);
+        assertEquals(3L, cache.stats().get("misses"));
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        RouteCache cache = new RouteCache(graphTiny, 100);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch ready = new CountDownLatch(threads);
+        List<Future<RouteCache.Route>> routes = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            routes.add(pool.submit(() -> {
+                ready.countDown();
+                ready.await();
+                return cache.route(0.1, 38.9, 0.6, 38.6, RoutingProfile.SHORTEST,
+                        TravelMode.DRIVE);
+            }));
+        }
+        List<Long> expected = Router.shortestRoadPath(graphTiny, 0.1, 38.9, 0.6, 38.6,
+                RoutingProfile.SHORTEST, TravelMode.DRIVE);
+        for (Future<RouteCache.Route> f : routes) {
+            assertEquals(expected, f.get().path());
+        }
+        pool.shutdown();
+        assertEquals(1L, cache.stats().get("misses"));
+        assertEquals((long) threads - 1,
+                (long) cache.stats().get("hits") + (long) cache.stats().get("shared"));
+    }
+
+    @Test
+    public void testCapacity() {
+        RouteCache cache = new RouteCache(graphTiny, 4);
+        int n = graphTiny.vertexCount();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                cache.route(graphTiny.lonAt(i), graphTiny.latAt(i), graphTiny.lonAt(j),
+                        graphTiny.latAt(j), RoutingProfile.SHORTEST, TravelMode.DRIVE);
+            }
+        }
+        assertTrue((int) cache.stats().get("size") <= 4);
+        assertEquals((long) n * n - 4, cache.stats().get("evictions"));
+    }
+}
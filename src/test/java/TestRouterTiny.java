@@ -2,9 +2,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by hug, 4/9/2018. Basic tests for A* on the tiny graph.
@@ -63,4 +68,282 @@ public class TestRouterTiny {
         expected.add(55L);
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void testDistanceMatrixMatchesShortestPaths() {
+        List<Long> vertices = new ArrayList<>();
+        for (long v : graphTiny.vertices()) {
+            vertices.add(v);
+        }
+        int n = vertices.size();
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            lons[i] = graphTiny.lon(vertices.get(i));
+            lats[i] = graphTiny.lat(vertices.get(i));
+        }
+        double[] matrix = Router.distanceMatrix(graphTiny, lons, lats, lons, lats);
+        assertEquals(n * n, matrix.length);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                List<Long> path = Router.shortestPath(graphTiny, lons[i], lats[i],
+                        lons[j], lats[j]);
+                double expected = 0;
+                for (int k = 1; k < path.size(); k++) {
+                    expected += graphTiny.distance(path.get(k - 1), path.get(k));
+                }
+                assertEquals(expected, matrix[i * n + j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testDistanceMatrixShape() {
+        double[] matrix = Router.distanceMatrix(graphTiny, new double[] {0.2, 0.6},
+                new double[] {38.2, 38.6}, new double[] {0.1, 0.1, 0.2},
+                new double[] {38.1, 38.1, 38.2});
+        assertEquals(6, matrix.length);
+        assertEquals(matrix[0], matrix[1], 0);
+        assertEquals(0, matrix[2], 0);
+        assertEquals(graphTiny.distance(22, 11), matrix[0], 1e-9);
+    }
+
+    @Test
+    public void testIsochrone() {
+        double[] budgets = {10, 0.0, 1000};
+        Isochrone iso = Router.isochrone(graphTiny, 0.2, 38.2, budgets);
+        assertArrayEquals(new double[] {0.0, 10, 1000}, iso.budgets, 0);
+        assertEquals(22L, iso.vertices[0]);
+        assertEquals(1, iso.counts[0]);
+
+        double[] lons = new double[iso.vertices.length];
+        double[] lats = new double[iso.vertices.length];
+        for (int i = 0; i < iso.vertices.length; i++) {
+            lons[i] = graphTiny.lon(iso.vertices[i]);
+            lats[i] = graphTiny.lat(iso.vertices[i]);
+        }
+        double[] matrix = Router.distanceMatrix(graphTiny, new double[] {0.2},
+                new double[] {38.2}, lons, lats);
+        for (int k = 0; k < budgets.length; k++) {
+            for (int i = 0; i < iso.vertices.length; i++) {
+                assertEquals(matrix[i], iso.distances[i], 1e-9);
+                assertEquals(i < iso.counts[k], iso.distances[i] <= iso.budgets[k]);
+            }
+            /* Every vertex within the budget is inside the outline. */
+            for (int i = 0; i < iso.counts[k]; i++) {
+                assertTrue(inside(iso.rings.get(k), lons[i], lats[i]));
+            }
+        }
+        assertEquals(graphTiny.vertexCount(), iso.counts[2]);
+    }
+
+    /** Even-odd test against every ring; returns whether (x, y) is inside. */
+    private static boolean inside(List<double[]> rings, double x, double y) {
+        boolean in = false;
+        for (double[] ring : rings) {
+            assertEquals(ring[0], ring[ring.length - 2], 0);
+            assertEquals(ring[1], ring[ring.length - 1], 0);
+            for (int i = 0; i + 3 < ring.length; i += 2) {
+                double x1 = ring[i], y1 = ring[i + 1], x2 = ring[i + 2], y2 = ring[i + 3];
+                if ((y1 > y) != (y2 > y) && x < x1 + (y - y1) * (x2 - x1) / (y2 - y1)) {
+                    in = !in;
+                }
+            }
+        }
+        return in;
+    }
+
+    @Test
+    public void testFastestMatchesAllPairs() {
+        /* Floyd-Warshall over travel times in seconds. */
+        int n = graphTiny.vertexCount();
+        double[][] best = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(best[i], Double.POSITIVE_INFINITY);
+            best[i][i] = 0;
+            for (int e = graphTiny.firstEdge(i); e < graphTiny.firstEdge(i + 1); e++) {
+                double seconds = graphTiny.edgeWeight(e) / graphTiny.edgeSpeed(e) * 3600;
+                int j = graphTiny.edgeTarget(e);
+                best[i][j] = Math.min(best[i][j], seconds);
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    best[i][j] = Math.min(best[i][j], best[i][k] + best[k][j]);
+                }
+            }
+        }
+
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            lons[i] = graphTiny.lonAt(i);
+            lats[i] = graphTiny.latAt(i);
+        }
+        double[] matrix = Router.distanceMatrix(graphTiny, lons, lats, lons, lats,
+                RoutingProfile.FASTEST, TravelMode.DRIVE);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                assertEquals(best[i][j], matrix[i * n + j], 1e-6);
+                List<Long> path = Router.shortestPath(graphTiny, lons[i], lats[i], lons[j],
+                        lats[j], RoutingProfile.FASTEST, TravelMode.DRIVE);
+                double seconds = 0;
+                for (int k = 1; k < path.size(); k++) {
+                    int v = graphTiny.index(path.get(k - 1));
+                    int w = graphTiny.index(path.get(k));
+                    seconds += graphTiny.edgeLength(v, w) / speed(v, w) * 3600;
+                }
+                assertEquals(best[i][j], seconds, 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testWalkingTakesDistanceAtWalkingSpeed() {
+        int n = graphTiny.vertexCount();
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            lons[i] = graphTiny.lonAt(i);
+            lats[i] = graphTiny.latAt(i);
+        }
+        double[] miles = Router.distanceMatrix(graphTiny, lons, lats, lons, lats);
+        double[] seconds = Router.distanceMatrix(graphTiny, lons, lats, lons, lats,
+                RoutingProfile.FASTEST, TravelMode.WALK);
+        for (int i = 0; i < n * n; i++) {
+            assertEquals(miles[i] / TravelMode.WALK.speedMph * 3600, seconds[i], 1e-6);
+        }
+    }
+
+    @Test
+    public void testAlternatives() {
+        int n = graphTiny.vertexCount();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double[] ends = {graphTiny.lonAt(i), graphTiny.latAt(i), graphTiny.lonAt(j),
+                    graphTiny.latAt(j)};
+                List<Long> best = Router.shortestPath(graphTiny, ends[0], ends[1], ends[2],
+                        ends[3]);
+                List<RouteCache.Route> routes = Router.alternatives(graphTiny, ends[0],
+                        ends[1], ends[2], ends[3], 3);
+                assertTrue(routes.size() >= 1 && routes.size() <= 3);
+                assertEquals(best, routes.get(0).path());
+                double miles = Router.pathMiles(graphTiny, best);
+                for (RouteCache.Route route : routes) {
+                    List<Long> path = route.path();
+                    assertEquals(best.get(0), path.get(0));
+                    assertEquals(best.get(best.size() - 1), path.get(path.size() - 1));
+                    assertEquals(path.size(), new HashSet<>(path).size());
+                    assertTrue(Router.pathMiles(graphTiny, path) <= 1.25 * miles + 1e-9);
+                }
+                assertEquals(1, Router.alternatives(graphTiny, ends[0], ends[1], ends[2],
+                        ends[3], 1).size());
+            }
+        }
+    }
+
+    @Test
+    public void testAlternativesFromAVertexToItself() {
+        List<RouteCache.Route> routes = Router.alternatives(graphTiny, 0.2, 38.2, 0.2, 38.2, 3);
+        assertEquals(1, routes.size());
+        assertEquals(1, routes.get(0).path().size());
+        assertTrue(routes.get(0).directions().isEmpty());
+    }
+
+    @Test
+    public void testClosestRoadMatchesAllSegments() {
+        Random random = new Random(46);
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < graphTiny.vertexCount(); v++) {
+            minLat = Math.min(minLat, graphTiny.latAt(v));
+            maxLat = Math.max(maxLat, graphTiny.latAt(v));
+        }
+        double xScale = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+        for (int k = 0; k < 1000; k++) {
+            double lon = random.nextDouble() * 1.2 - 0.1;
+            double lat = 37.9 + random.nextDouble() * 1.2;
+            RoadPoint p = graphTiny.closestRoad(lon, lat, TravelMode.DRIVE);
+            double best = Double.POSITIVE_INFINITY;
+            for (int v = 0; v < graphTiny.vertexCount(); v++) {
+                for (int e = graphTiny.firstEdge(v); e < graphTiny.firstEdge(v + 1); e++) {
+                    int w = graphTiny.edgeTarget(e);
+                    for (int s = 0; s <= 1000; s++) {
+                        double t = s / 1000.0;
+                        double x = graphTiny.lonAt(v) + t * (graphTiny.lonAt(w)
+                                - graphTiny.lonAt(v));
+                        double y = graphTiny.latAt(v) + t * (graphTiny.latAt(w)
+                                - graphTiny.latAt(v));
+                        best = Math.min(best, Math.hypot((x - lon) * xScale, y - lat));
+                    }
+                }
+            }
+            double found = Math.hypot((p.lon - lon) * xScale, p.lat - lat);
+            assertTrue(found <= best + 1e-12);
+            assertEquals(best, found, 1e-3);
+        }
+    }
+
+    @Test
+    public void testShortestRoadPath() {
+        int n = graphTiny.vertexCount();
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            lons[i] = graphTiny.lonAt(i);
+            lats[i] = graphTiny.latAt(i);
+        }
+        double[] miles = Router.distanceMatrix(graphTiny, lons, lats, lons, lats);
+        Random random = new Random(46);
+        for (int k = 0; k < 200; k++) {
+            RoadPoint[] ends = new RoadPoint[2];
+            for (int i = 0; i < 2; i++) {
+                ends[i] = graphTiny.closestRoad(random.nextDouble() * 1.2 - 0.1,
+                        37.9 + random.nextDouble() * 1.2, TravelMode.DRIVE);
+            }
+            RoadPoint src = ends[0];
+            RoadPoint dest = ends[1];
+            /* Best over both ends of both segments, or straight along a shared one. */
+            double expected = Double.POSITIVE_INFINITY;
+            if (src.edge == dest.edge) {
+                expected = Math.abs(src.fraction - dest.fraction) * graphTiny.edgeWeight(src.edge);
+            }
+            for (int a : new int[] {src.v, src.w}) {
+                for (int b : new int[] {dest.v, dest.w}) {
+                    expected = Math.min(expected, partial(src, a) + miles[a * n + b]
+                            + partial(dest, b));
+                }
+            }
+            List<Long> path = Router.shortestPath(graphTiny, src, dest,
+                    RoutingProfile.SHORTEST, TravelMode.DRIVE);
+            int first = graphTiny.index(path.get(0));
+            int last = graphTiny.index(path.get(path.size() - 1));
+            double actual;
+            if (src.edge == dest.edge && path.size() <= 2 && (first == src.v || first == src.w)
+                    && (last == src.v || last == src.w)) {
+                /* Along the shared segment; going round by its ends is never shorter. */
+                actual = Math.abs(src.fraction - dest.fraction) * graphTiny.edgeWeight(src.edge);
+            } else {
+                actual = partial(src, first) + Router.pathMiles(graphTiny, path)
+                        + partial(dest, last);
+            }
+            assertEquals(expected, actual, 1e-9);
+        }
+    }
+
+    /** Returns the miles from a road point to one end of its segment. */
+    private static double partial(RoadPoint p, int end) {
+        double length = graphTiny.edgeWeight(p.edge);
+        return end == p.v ? p.fraction * length : (1 - p.fraction) * length;
+    }
+
+    private static int speed(int v, int w) {
+        for (int e = graphTiny.firstEdge(v); e < graphTiny.firstEdge(v + 1); e++) {
+            if (graphTiny.edgeTarget(e) == w) {
+                return graphTiny.edgeSpeed(e);
+            }
+        }
+        throw new AssertionError(v + " and " + w + " are not adjacent");
+    }
 }
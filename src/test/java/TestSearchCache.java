@@ -0,0 +1,63 @@
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that SearchCache answers like an uncached search, including results derived from a
+ * shorter cached prefix, and that it stays within its capacity.
+ */
+public class TestSearchCache {
+    private static final String[] NAMES = {"Telegraph Ave", "Tell Tale", "Tolman Hall",
+        "Top Dog", "Top-Dog", "Cafe Strada", "Te"};
+    private static GraphDB graph;
+    private final Gson gson = new Gson();
+
+    @Before
+    public void setUp() throws Exception {
+        if (graph != null) {
+            return;
+        }
+        OsmFixture osm = new OsmFixture();
+        for (String name : NAMES) {
+            osm.node(-122.25, 37.87, name);
+        }
+        graph = osm.load("search");
+    }
+
+    @Test
+    public void testPrefixSearchMatchesGraph() {
+        SearchCache cache = new SearchCache(graph, gson, 100);
+        String[] terms = {"t", "te", "tel", "tell", "TELE", "to", "top", "top ", "x", "c"};
+        for (String term : terms) {
+            assertEquals(gson.toJson(graph.keysWithPrefix(term)), cache.prefixSearch(term));
+        }
+        /* Every term longer than one char was filtered from a shorter cached prefix. */
+        assertEquals(7L, cache.stats().get("derived"));
+        assertEquals(gson.toJson(graph.keysWithPrefix("te")), cache.prefixSearch("Te"));
+        assertEquals(1L, cache.stats().get("hits"));
+    }
+
+    @Test
+    public void testFullSearch() {
+        SearchCache cache = new SearchCache(graph, gson, 100);
+        String json = cache.fullSearch("top dog");
+        assertEquals(json, cache.fullSearch("TOP DOG!"));
+        assertEquals(1, gson.fromJson(json, Object[].class).length);
+        assertEquals("[]", cache.fullSearch("nowhere"));
+    }
+
+    @Test
+    public void testCapacity() {
+        SearchCache cache = new SearchCache(graph, gson, 3);
+        for (String term : new String[] {"a", "b", "c", "d", "e", "f"}) {
+            cache.prefixSearch(term);
+        }
+        Map<String, Object> stats = cache.stats();
+        assertEquals(3, stats.get("size"));
+        assertEquals(3L, stats.get("evictions"));
+    }
+}
@@ -0,0 +1,105 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks over HTTP that the handlers streaming their responses send complete bodies, gzip or
+ * deflate compressed as negotiated, with the right headers, and nothing after them.
+ */
+public class TestStreamedResponses {
+    private static final Gson GSON = new Gson();
+    private static final String ROUTE = "/route?start_lon=-122.27&start_lat=37.87"
+            + "&end_lon=-122.23&end_lat=37.84";
+    private static final String MATRIX = "/matrix?sources=-122.27,37.87;-122.25,37.86"
+            + "&targets=-122.24,37.85;-122.22,37.83;-122.26,37.84";
+    /* Every bank cleans to "bank ", so this finds all of them: more than 1 KB of JSON. */
+    private static final String SEARCH = "/search?full=true&term=Bank%201";
+    private static String url;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        File osm = File.createTempFile("synthetic", ".osm.xml");
+        osm.deleteOnExit();
+        new SyntheticMapGenerator(2500, 61).writeOsm(osm);
+        spark.Spark.port(0);
+        MapServer.main(new String[] {osm.getPath(), osm.getParent() + File.separator});
+        spark.Spark.awaitInitialization();
+        url = "http://localhost:" + spark.Spark.port();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        spark.Spark.stop();
+    }
+
+    @Test
+    public void testEncodings() throws Exception {
+        for (String path : new String[] {ROUTE, MATRIX, SEARCH}) {
+            String identity = get(path, null, "identity");
+            JsonElement expected = GSON.fromJson(identity, JsonElement.class);
+            assertEquals(identity, get(path, "gzip", "gzip"));
+            assertEquals(identity, get(path, "deflate", "deflate"));
+            assertEquals(identity, get(path, "gzip;q=0, br", "identity"));
+            assertTrue(expected.isJsonObject() || expected.isJsonArray());
+        }
+    }
+
+    @Test
+    public void testShortSearchIsNotCompressed() throws Exception {
+        assertTrue(get(SEARCH, null, "identity").length() >= JsonResponse.MIN_COMPRESS_LENGTH);
+        String body = get("/search?term=zzz", "gzip", "identity");
+        assertEquals("[]", body);
+    }
+
+    /**
+     * Requests a path, checks its status and headers, and returns its decoded body.
+     * @param path Path and query of the request.
+     * @param acceptEncoding Accept-Encoding header to send, or null for none.
+     * @param encoding The encoding the response must have.
+     */
+    private static String get(String path, String acceptEncoding, String encoding)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        if (acceptEncoding != null) {
+            connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+        }
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+        assertEquals("*", connection.getHeaderField("Access-Control-Allow-Origin"));
+        assertTrue(connection.getContentType().startsWith(
+                path.startsWith("/route") ? "text/html" : "application/json"));
+        if (encoding.equals("identity")) {
+            assertNull(connection.getHeaderField("Content-Encoding"));
+        } else {
+            assertEquals(encoding, connection.getHeaderField("Content-Encoding"));
+        }
+        try (InputStream raw = connection.getInputStream()) {
+            InputStream in = encoding.equals("gzip") ? new GZIPInputStream(raw)
+                    : encoding.equals("deflate") ? new InflaterInputStream(raw) : raw;
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 14];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                body.write(buffer, 0, n);
+            }
+            /* The whole compressed stream is consumed, so nothing followed it. */
+            assertEquals(-1, raw.read());
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
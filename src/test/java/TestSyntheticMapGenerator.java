@@ -0,0 +1,58 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that SyntheticMapGenerator is deterministic and that GraphDB and Router can use
+ * the maps it writes.
+ */
+public class TestSyntheticMapGenerator {
+    private static final int NUM_NODES = 2500;
+
+    @Test
+    public void testSameSeedSameMap() throws Exception {
+        File a = File.createTempFile("synthetic", ".osm.xml");
+        File b = File.createTempFile("synthetic", ".osm.xml");
+        a.deleteOnExit();
+        b.deleteOnExit();
+        new SyntheticMapGenerator(NUM_NODES, 7).writeOsm(a);
+        new SyntheticMapGenerator(NUM_NODES, 7).writeOsm(b);
+        assertArrayEquals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+
+        new SyntheticMapGenerator(NUM_NODES, 8).writeOsm(b);
+        assertFalse(new String(Files.readAllBytes(a.toPath()), "UTF-8")
+                .equals(new String(Files.readAllBytes(b.toPath()), "UTF-8")));
+    }
+
+    @Test
+    public void testGraphIsRoutable() throws Exception {
+        SyntheticMapGenerator generator = new SyntheticMapGenerator(NUM_NODES, 61);
+        assertEquals(NUM_NODES, generator.numNodes());
+        File osm = File.createTempFile("synthetic", ".osm.xml");
+        osm.deleteOnExit();
+        generator.writeOsm(osm);
+        GraphDB g = new GraphDB(osm.getPath());
+
+        int vertices = 0;
+        for (long v : g.vertices()) {
+            vertices++;
+            assertTrue(g.lon(v) > MapServer.ROOT_ULLON && g.lon(v) < MapServer.ROOT_LRLON);
+            assertTrue(g.lat(v) > MapServer.ROOT_LRLAT && g.lat(v) < MapServer.ROOT_ULLAT);
+        }
+        /* Only the odd node cut off by missing blocks is cleaned away. */
+        assertTrue(vertices > NUM_NODES * 0.95);
+
+        /* Corner to corner, the arterials on the edges of the grid always connect. */
+        List<Long> route = Router.shortestPath(g, MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT);
+        assertTrue(route.size() > 2);
+        assertFalse(g.keysWithPrefix("caf").isEmpty());
+    }
+}